@@ -1,10 +1,17 @@
 package org.manifold.compiler.back.microfluidics;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.Option;
@@ -13,10 +20,19 @@ import org.apache.commons.cli.Options;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.manifold.compiler.Backend;
+import org.manifold.compiler.back.microfluidics.smt2.BoundPropagator;
+import org.manifold.compiler.back.microfluidics.smt2.CollectingSink;
+import org.manifold.compiler.back.microfluidics.smt2.DeduplicatingSink;
 import org.manifold.compiler.back.microfluidics.smt2.Decimal;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSimplifier;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
+import org.manifold.compiler.back.microfluidics.smt2.LetBindingRewriter;
+import org.manifold.compiler.back.microfluidics.smt2.LinearExpr;
+import org.manifold.compiler.back.microfluidics.smt2.LinearPresolver;
 import org.manifold.compiler.back.microfluidics.smt2.ParenList;
 import org.manifold.compiler.back.microfluidics.smt2.QFNRA;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
+import org.manifold.compiler.back.microfluidics.smt2.Smt2OutputSink;
 import org.manifold.compiler.back.microfluidics.smt2.Symbol;
 import org.manifold.compiler.back.microfluidics.smt2.SymbolNameGenerator;
 import org.manifold.compiler.back.microfluidics.strategies.MultiPhaseStrategySet;
@@ -102,13 +118,229 @@ public class MicrofluidicsBackend implements Backend {
     }
   }
   
+  private boolean useLetBindings = false;
+  /**
+   * Toggle writing subterms that occur more than once in an assertion
+   * as let bindings, which makes the .smt2 output smaller and quicker for
+   * dReal to parse
+   * 
+   * @param b  True to bind shared subterms with let
+   */
+  public void setUseLetBindings(boolean b) {
+    useLetBindings = b;
+  }
+  
+  @SuppressWarnings("static-access")
+  private void createOptionLetBindings(Options options) {
+    Option letBindings = OptionBuilder
+        .withDescription("write subterms repeated within an assertion"
+            + " as let bindings")
+        .create("bLetBindings");
+    options.addOption(letBindings);
+  }
+  
+  private boolean simplify = false;
+  /**
+   * Toggle simplifying assertions before they are written out: constant
+   * subterms are folded, identities like x*1 are collapsed, nested sums and
+   * products are flattened and PI is replaced by its value
+   * 
+   * @param b  True to simplify assertions
+   */
+  public void setSimplify(boolean b) {
+    simplify = b;
+  }
+  
+  @SuppressWarnings("static-access")
+  private void createOptionSimplify(Options options) {
+    Option simplifyOpt = OptionBuilder
+        .withDescription("fold constants and simplify assertions"
+            + " before writing them out")
+        .create("bSimplify");
+    options.addOption(simplifyOpt);
+  }
+  
+  private boolean presolve = false;
+  /**
+   * Toggle eliminating variables defined by linear equalities (aliases,
+   * pinned values, conservation sums) before the formula is written out.
+   * The definitions of the eliminated variables are available from
+   * getEliminatedVariables after run.
+   * 
+   * @param b  True to presolve linear equalities
+   */
+  public void setPresolve(boolean b) {
+    presolve = b;
+  }
+  
+  private Map<Symbol, LinearExpr> eliminatedVariables =
+      Collections.emptyMap();
+  /**
+   * @return Definitions of the variables eliminated by presolving during the
+   * last run, in terms of the variables left in the .smt2 output; empty if
+   * presolving is off
+   */
+  public Map<Symbol, LinearExpr> getEliminatedVariables() {
+    return eliminatedVariables;
+  }
+  
+  @SuppressWarnings("static-access")
+  private void createOptionPresolve(Options options) {
+    Option presolveOpt = OptionBuilder
+        .withDescription("eliminate variables defined by linear equalities"
+            + " before writing the formula out")
+        .create("bPresolve");
+    options.addOption(presolveOpt);
+  }
+  
+  private boolean boundPropagation = false;
+  /**
+   * Toggle deriving bounds on every variable by interval propagation over
+   * the whole formula and asserting them explicitly, which gives dReal a
+   * tighter box to start its search from
+   * 
+   * @param b  True to add derived variable bounds
+   */
+  public void setBoundPropagation(boolean b) {
+    boundPropagation = b;
+  }
+  
+  @SuppressWarnings("static-access")
+  private void createOptionBoundPropagation(Options options) {
+    Option boundOpt = OptionBuilder
+        .withDescription("derive bounds on every variable by interval"
+            + " propagation and assert them")
+        .create("bBoundPropagation");
+    options.addOption(boundOpt);
+  }
+  
+  private boolean dropRepeatedAssertions = false;
+  /**
+   * Toggle passing each distinct assertion to dReal only once. Repeated
+   * declarations are always dropped; dropping repeated assertions as well
+   * keeps every assertion of the formula in memory until the run ends.
+   * 
+   * @param b  True to drop repeated assertions
+   */
+  public void setDropRepeatedAssertions(boolean b) {
+    dropRepeatedAssertions = b;
+  }
+  
+  @SuppressWarnings("static-access")
+  private void createOptionDropRepeatedAssertions(Options options) {
+    Option dropOpt = OptionBuilder
+        .withDescription("write each distinct assertion only once, keeping"
+            + " all of them in memory")
+        .create("bDropRepeatedAssertions");
+    options.addOption(dropOpt);
+  }
+  
+  private List<SolverConfiguration> portfolio = Collections.emptyList();
+  /**
+   * Race dReal on the schematic translated with each of the given
+   * configurations after the .smt2 output is written, keeping the first
+   * definitive answer; see SolverPortfolio. An empty list turns the
+   * portfolio off.
+   * 
+   * @param configs  Configurations to race
+   */
+  public void setPortfolio(List<SolverConfiguration> configs) {
+    portfolio = configs;
+  }
+  
+  private Duration portfolioTimeout = Duration.ofMinutes(10);
+  /**
+   * @param timeout  Longest time each configuration of the portfolio is given
+   */
+  public void setPortfolioTimeout(Duration timeout) {
+    portfolioTimeout = timeout;
+  }
+  
+  private SolverPortfolio.Outcome portfolioOutcome = null;
+  /**
+   * @return Answer of the portfolio during the last run, and the
+   * configuration that gave it; null if the portfolio is off
+   */
+  public SolverPortfolio.Outcome getPortfolioOutcome() {
+    return portfolioOutcome;
+  }
+  
+  @SuppressWarnings("static-access")
+  private void createOptionPortfolio(Options options) {
+    Option portfolioOpt = OptionBuilder.withArgName("configs")
+        .hasArg()
+        .withDescription("solve with each of the comma-separated solver"
+            + " configurations in parallel, e.g."
+            + " simple@0.001,analytical@0.01,simple+worstcase")
+        .create("bPortfolio");
+    options.addOption(portfolioOpt);
+    Option timeoutOpt = OptionBuilder.withArgName("seconds")
+        .hasArg()
+        .withDescription("time limit of each solver configuration"
+            + " in the portfolio")
+        .create("bPortfolioTimeout");
+    options.addOption(timeoutOpt);
+  }
+  
   @Override
   public void registerArguments(Options options) {
     createOptionProcessParameters(options);
+    createOptionLetBindings(options);
+    createOptionSimplify(options);
+    createOptionPresolve(options);
+    createOptionBoundPropagation(options);
+    createOptionDropRepeatedAssertions(options);
+    createOptionPortfolio(options);
   }
   
   private void collectOptions(CommandLine cmd) throws IOException {
     collectOptionProcessParameters(cmd);
+    if (cmd.hasOption("bLetBindings")) {
+      useLetBindings = true;
+    }
+    if (cmd.hasOption("bSimplify")) {
+      simplify = true;
+    }
+    if (cmd.hasOption("bPresolve")) {
+      presolve = true;
+    }
+    if (cmd.hasOption("bBoundPropagation")) {
+      boundPropagation = true;
+    }
+    if (cmd.hasOption("bDropRepeatedAssertions")) {
+      dropRepeatedAssertions = true;
+    }
+    if (cmd.hasOption("bPortfolio")) {
+      portfolio = SolverConfiguration.parseList(
+          cmd.getOptionValue("bPortfolio"));
+    }
+    if (cmd.hasOption("bPortfolioTimeout")) {
+      portfolioTimeout = parseTimeout(
+          cmd.getOptionValue("bPortfolioTimeout"));
+    }
+  }
+
+  /**
+   * Read a timeout given in seconds on the command line
+   *
+   * @param spec  Number of seconds, e.g. 90 or 0.5
+   * @return The timeout, at least a nanosecond
+   * @throws IllegalArgumentException if spec is not a positive number
+   */
+  static Duration parseTimeout(String spec) {
+    double seconds;
+    try {
+      seconds = Double.parseDouble(spec.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("invalid portfolio timeout '"
+          + spec + "', expected a number of seconds");
+    }
+    if (!(seconds > 0) || Double.isInfinite(seconds)) {
+      throw new IllegalArgumentException("portfolio timeout must be a"
+          + " positive number of seconds, not '" + spec + "'");
+    }
+    // Math.round saturates, so very long timeouts stay positive
+    return Duration.ofNanos(Math.max(1, Math.round(seconds * 1e9)));
   }
 
   @Override
@@ -176,12 +408,12 @@ public class MicrofluidicsBackend implements Backend {
     for (SExpression expr : unsorted) {
       if (expr instanceof ParenList) {
         ParenList list = (ParenList) expr;
-        SExpression head = list.getExprs().get(0);
+        SExpression head = list.get(0);
         if (head instanceof Symbol) {
           Symbol s = (Symbol) head;
-          if (s.getName().equals("declare-fun")) {
+          if (s.equals(QFNRA.DECLARE_FUN)) {
             decls.add(expr);
-          } else if (s.getName().equals("assert")) {
+          } else if (s.equals(QFNRA.ASSERT)) {
             asserts.add(expr);
           } else {
             others.add(expr);
@@ -202,56 +434,175 @@ public class MicrofluidicsBackend implements Backend {
   /**
    * Gather all terms from schematic to put into SMT2 equation in QF_NRA form
    * in sorted order such that all decls -> assert -> others and write to a
-   * separate file to later be read for solving by dReal
+   * separate file to later be read for solving by dReal. Terms are streamed
+   * to the file as they are translated rather than collected in memory.
    * 
    * @param schematic  Outlines the microchannel parameters and values
    * @throws IOException  Raised if writing output to mst2 file fails
    */
   public void run(Schematic schematic) throws IOException {
     primitiveTypes = constructTypeTable(schematic);
+    // index the schematic once up front; every strategy shares this index
+    SchematicIndex.build(schematic);
+    // write to "schematic-name.smt2"
+    String filename = schematic.getName() + ".smt2";
+    ExpressionSink sink = new Smt2OutputSink(FileChannel.open(
+        Paths.get(filename), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    LinearPresolver presolver = presolve ? new LinearPresolver() : null;
+    sink = preprocess(sink, presolver);
+    boolean translated = false;
+    try {
+      try (ExpressionSink out = sink) {
+        translate(schematic, out);
+      }
+      // only once the sink has closed, since closing runs the passes over
+      // the whole formula and writes out the spilled assertions
+      translated = true;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      if (!translated) {
+        // don't leave a truncated translation behind
+        Files.deleteIfExists(Paths.get(filename));
+      }
+    }
+    if (presolver != null) {
+      eliminatedVariables = presolver.getEliminatedVariables();
+    } else {
+      eliminatedVariables = Collections.emptyMap();
+    }
+    portfolioOutcome = null;
+    if (!portfolio.isEmpty()) {
+      try {
+        portfolioOutcome = new SolverPortfolio(portfolio, portfolioTimeout)
+            .solve(config -> formula(schematic, config));
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while solving");
+      }
+    }
+  }
+  
+  /**
+   * Wrap the passes selected by the options around a sink
+   * 
+   * @param sink  Receives the processed expressions
+   * @param presolver  Presolver to use, or null if presolving is off
+   * @return Sink to translate into
+   */
+  private ExpressionSink preprocess(ExpressionSink sink,
+      LinearPresolver presolver) {
+    if (useLetBindings) {
+      sink = LetBindingRewriter.bindingSink(sink);
+    }
+    if (simplify) {
+      // simplify first, so that let bindings are found in the simplified
+      // assertions
+      sink = ExpressionSimplifier.simplifyingSink(sink);
+    }
+    if (boundPropagation) {
+      sink = new BoundPropagator().boundingSink(sink);
+    }
+    if (presolver != null) {
+      // presolve the whole formula first, so that bounds are only derived
+      // for the remaining variables and the simplifier sees the constants
+      // substituted for pinned variables
+      sink = presolver.presolvingSink(sink);
+    }
+    // strategies declare some symbols independently of each other, make sure
+    // each is only declared once
+    return new DeduplicatingSink(sink, dropRepeatedAssertions);
+  }
+  
+  /**
+   * Translate a schematic with a solver configuration for the portfolio,
+   * passing it through the same passes as the .smt2 output
+   */
+  private SolverPortfolio.Formula formula(Schematic schematic,
+      SolverConfiguration config) {
+    CollectingSink collected = new CollectingSink();
+    LinearPresolver presolver = presolve ? new LinearPresolver() : null;
+    try (ExpressionSink out = preprocess(collected, presolver)) {
+      translate(schematic, out, config);
+    } catch (IOException e) {
+      // nothing is written anywhere, the passes only buffer
+      throw new UncheckedIOException(e);
+    }
+    // dReal is given the logic and (check-sat) by DRealSolver itself
+    List<SExpression> exprs = new LinkedList<>();
+    for (SExpression expr : sortExprs(collected.getExpressions())) {
+      if (!(expr instanceof ParenList)) {
+        continue;
+      }
+      SExpression head = ((ParenList) expr).get(0);
+      if (head.equals(QFNRA.DECLARE_FUN) || head.equals(QFNRA.ASSERT)) {
+        exprs.add(expr);
+      }
+    }
+    Map<Symbol, LinearExpr> eliminated = Collections.emptyMap();
+    if (presolver != null) {
+      eliminated = presolver.getEliminatedVariables();
+    }
+    return new SolverPortfolio.Formula(exprs, eliminated);
+  }
+  
+  /**
+   * Stream the whole translation of a schematic into a sink: the logic,
+   * the constant pi, everything produced by the strategy sets, and finally
+   * (check-sat) (exit). The sink is responsible for ordering declarations
+   * before assertions; for one-pass output use Smt2OutputSink.
+   * 
+   * @param schematic  Outlines the microchannel parameters and values
+   * @param sink  Receives every expression of the translation
+   */
+  public void translate(Schematic schematic, ExpressionSink sink) {
+    translate(schematic, sink, SolverConfiguration.getDefault());
+  }
+  
+  /**
+   * Same as translate(schematic, sink), translating with the strategies
+   * selected by a solver configuration
+   * 
+   * @param schematic  Outlines the microchannel parameters and values
+   * @param sink  Receives every expression of the translation
+   * @param config  Selects the pressure-flow strategy and whether worst case
+   * analysis is performed
+   */
+  public void translate(Schematic schematic, ExpressionSink sink,
+      SolverConfiguration config) {
     // translation step
     // for now: one pass
-    List<SExpression> exprs = new LinkedList<>();
-    exprs.add(QFNRA.useQFNRA());
+    ExpressionSink own = sink.withOrigin(getClass().getName());
+    own.emit(QFNRA.useQFNRA());
     
-    List<SExpression> unsortedExprs = new LinkedList<>();
     // define constant pi
-    unsortedExprs.add(QFNRA.declareRealVariable(
+    own.emit(QFNRA.declareRealVariable(
         SymbolNameGenerator.getsym_constant_pi()));
-    unsortedExprs.add(QFNRA.assertEqual(
+    own.emit(QFNRA.assertEqual(
         SymbolNameGenerator.getsym_constant_pi(), 
         new Decimal(Math.PI)));
     
-    // Gather all expressions from placementTranslation, multiPhase and
+    // Stream all expressions from placementTranslation, multiPhase and
     // pressureFlow
     PlacementTranslationStrategySet placeSet = 
         new PlacementTranslationStrategySet();
-    unsortedExprs.addAll(placeSet.translate(
-        schematic, processParams, primitiveTypes));
-    MultiPhaseStrategySet multiPhase = new MultiPhaseStrategySet();
-    unsortedExprs.addAll(multiPhase.translate(
-        schematic, processParams, primitiveTypes));
-    PressureFlowStrategySet pressureFlow = new PressureFlowStrategySet();
-    unsortedExprs.addAll(pressureFlow.translate(
-        schematic, processParams, primitiveTypes));
-    
-    exprs.addAll(sortExprs(unsortedExprs));
+    placeSet.translate(schematic, processParams, primitiveTypes, sink);
+    MultiPhaseStrategySet multiPhase = config.createMultiPhaseStrategySet();
+    multiPhase.translate(schematic, processParams, primitiveTypes, sink);
+    PressureFlowStrategySet pressureFlow =
+        config.createPressureFlowStrategySet();
+    pressureFlow.translate(schematic, processParams, primitiveTypes, sink);
     
     // (check-sat) (exit)
-    exprs.add(new ParenList(new SExpression[] {
-      new Symbol("check-sat")
+    own.emit(new ParenList(new SExpression[] {
+      QFNRA.CHECK_SAT
     }));
-    exprs.add(new ParenList(new SExpression[] {
-      new Symbol("exit")
+    own.emit(new ParenList(new SExpression[] {
+      QFNRA.EXIT
     }));
-    // write to "schematic-name.smt2"
-    String filename = schematic.getName() + ".smt2";
-    try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-      for (SExpression expr : exprs) {
-        expr.write(writer);
-        writer.newLine();
-      }
-    }
   }
   
 }
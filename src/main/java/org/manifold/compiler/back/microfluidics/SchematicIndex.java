@@ -0,0 +1,309 @@
+package org.manifold.compiler.back.microfluidics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.PortValue;
+import org.manifold.compiler.back.microfluidics.smt2.ChannelSymbols;
+import org.manifold.compiler.back.microfluidics.smt2.NodeSymbols;
+import org.manifold.compiler.middle.Schematic;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Lookup tables over the ports, nodes and connections of a schematic so that
+ * questions like "which channel is attached to this port" are answered in
+ * constant time instead of by scanning every connection in the schematic.
+ *
+ * An index is built once per schematic (MicrofluidicsBackend.run builds it
+ * before translation starts) and shared by every strategy through
+ * SchematicIndex.of(schematic).
+ */
+public class SchematicIndex {
+
+  /**
+   * Indices of the schematics seen so far. Keys are held weakly and compared
+   * by identity, so an index goes away together with its schematic.
+   */
+  private static final Cache<Schematic, SchematicIndex> INDICES =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  /**
+   * Get the index of a schematic, building it if it has not been built yet or
+   * if nodes or connections were added since it was built
+   *
+   * @param schematic  Outlines the connections within the microfluidic chip
+   * @return Index shared by every strategy translating this schematic
+   */
+  public static SchematicIndex of(Schematic schematic) {
+    SchematicIndex index = INDICES.getIfPresent(schematic);
+    if (index == null || index.isStale()) {
+      index = build(schematic);
+    }
+    return index;
+  }
+
+  /**
+   * Unconditionally (re)build the index of a schematic and make it the one
+   * returned by of(schematic)
+   *
+   * @param schematic  Outlines the connections within the microfluidic chip
+   * @return The freshly built index
+   */
+  public static SchematicIndex build(Schematic schematic) {
+    SchematicIndex index = new SchematicIndex(schematic);
+    INDICES.put(schematic, index);
+    return index;
+  }
+
+  private final Schematic schematic;
+  public Schematic getSchematic() {
+    return schematic;
+  }
+
+  // sizes of the schematic when the index was built, used to detect
+  // nodes or connections that were added afterwards
+  private final int nodeCount;
+  private final int connectionCount;
+
+  private final Map<PortValue, ConnectionValue> connectionByPort =
+      new HashMap<>();
+  private final Map<NodeValue, List<ConnectionValue>> connectionsByNode =
+      new HashMap<>();
+
+  // reverse name lookups, keyed by identity since they are asked for the
+  // exact instances held by the schematic
+  private final Map<NodeValue, String> nodeNames = new IdentityHashMap<>();
+  private final Map<ConnectionValue, String> connectionNames =
+      new IdentityHashMap<>();
+  private final Map<PortValue, String> portNames = new IdentityHashMap<>();
+
+  // node-pair adjacency, built the first time a strategy asks for a
+  // connecting channel; directed adjacency is keyed from -> to, undirected
+  // adjacency has an entry in both directions
+  private Map<NodeValue, Map<NodeValue, ConnectionValue>> directedAdjacency =
+      null;
+  private Map<NodeValue, Map<NodeValue, ConnectionValue>> undirectedAdjacency =
+      null;
+
+  // symbol bundles, built the first time a strategy asks for the symbols of
+  // a channel or node and shared for the rest of the compile
+  private final Map<ConnectionValue, ChannelSymbols> channelSymbols =
+      new IdentityHashMap<>();
+  private final Map<NodeValue, NodeSymbols> nodeSymbols =
+      new IdentityHashMap<>();
+
+  /**
+   * Build every table in a single pass over the connections of the schematic
+   *
+   * @param schematic  Outlines the connections within the microfluidic chip
+   */
+  public SchematicIndex(Schematic schematic) {
+    this.schematic = schematic;
+    this.nodeCount = schematic.getNodes().size();
+    this.connectionCount = schematic.getConnections().size();
+    for (Map.Entry<String, NodeValue> node
+        : schematic.getNodes().entrySet()) {
+      nodeNames.put(node.getValue(), node.getKey());
+      for (Map.Entry<String, PortValue> port
+          : node.getValue().getPorts().entrySet()) {
+        portNames.put(port.getValue(), port.getKey());
+      }
+    }
+    for (Map.Entry<String, ConnectionValue> entry
+        : schematic.getConnections().entrySet()) {
+      ConnectionValue conn = entry.getValue();
+      connectionNames.put(conn, entry.getKey());
+      PortValue from = conn.getFrom();
+      PortValue to = conn.getTo();
+      // keep the first connection seen for a port, which is the one a linear
+      // scan over the connections would have found
+      if (!connectionByPort.containsKey(from)) {
+        connectionByPort.put(from, conn);
+      }
+      if (!connectionByPort.containsKey(to)) {
+        connectionByPort.put(to, conn);
+      }
+      addIncidentConnection(from.getParent(), conn);
+      if (to.getParent() != from.getParent()) {
+        addIncidentConnection(to.getParent(), conn);
+      }
+    }
+  }
+
+  private void addIncidentConnection(NodeValue node, ConnectionValue conn) {
+    List<ConnectionValue> incident = connectionsByNode.get(node);
+    if (incident == null) {
+      incident = new ArrayList<>();
+      connectionsByNode.put(node, incident);
+    }
+    incident.add(conn);
+  }
+
+  /**
+   * @return True if nodes or connections were added to the schematic after
+   * this index was built
+   */
+  public boolean isStale() {
+    return schematic.getNodes().size() != nodeCount
+        || schematic.getConnections().size() != connectionCount;
+  }
+
+  /**
+   * Constant-time equivalent of schematic.getNodeName(node)
+   * 
+   * @param node  Node of the schematic
+   * @return Name of the node in the schematic
+   */
+  public String getNodeName(NodeValue node) {
+    String name = nodeNames.get(node);
+    if (name == null) {
+      // not one of our instances, let the schematic decide what to do
+      return schematic.getNodeName(node);
+    }
+    return name;
+  }
+
+  /**
+   * Constant-time equivalent of schematic.getConnectionName(conn)
+   * 
+   * @param conn  Connection of the schematic
+   * @return Name of the connection in the schematic
+   */
+  public String getConnectionName(ConnectionValue conn) {
+    String name = connectionNames.get(conn);
+    if (name == null) {
+      // not one of our instances, let the schematic decide what to do
+      return schematic.getConnectionName(conn);
+    }
+    return name;
+  }
+
+  /**
+   * Get the name a port has on its parent node (port.getParent())
+   * 
+   * @param port  Port of a node in the schematic
+   * @return Name of the port, or null if it is not a port of a schematic node
+   */
+  public String getPortName(PortValue port) {
+    return portNames.get(port);
+  }
+
+  /**
+   * Get the symbols of a channel, building them on first use
+   *
+   * @param conn  Channel (connection) of the schematic
+   * @return Symbols shared by every strategy referring to this channel
+   */
+  public synchronized ChannelSymbols getChannelSymbols(ConnectionValue conn) {
+    ChannelSymbols symbols = channelSymbols.get(conn);
+    if (symbols == null) {
+      symbols = new ChannelSymbols(getConnectionName(conn));
+      channelSymbols.put(conn, symbols);
+    }
+    return symbols;
+  }
+
+  /**
+   * Get the symbols of a node and its ports, building them on first use
+   *
+   * @param node  Node of the schematic
+   * @return Symbols shared by every strategy referring to this node
+   */
+  public synchronized NodeSymbols getNodeSymbols(NodeValue node) {
+    NodeSymbols symbols = nodeSymbols.get(node);
+    if (symbols == null) {
+      symbols = new NodeSymbols(getNodeName(node), node.getPorts().keySet());
+      nodeSymbols.put(node, symbols);
+    }
+    return symbols;
+  }
+
+  /**
+   * Get the connection in the schematic associated with this port
+   *
+   * @param port  Port at either end of the connection
+   * @return The connection, or null if the port is not connected
+   */
+  public ConnectionValue getConnection(PortValue port) {
+    return connectionByPort.get(port);
+  }
+
+  /**
+   * Get every connection having a port of this node as one of its endpoints
+   *
+   * @param node  Node to get the connections of
+   * @return Connections in schematic order, empty if the node is unconnected
+   */
+  public List<ConnectionValue> getIncidentConnections(NodeValue node) {
+    List<ConnectionValue> incident = connectionsByNode.get(node);
+    if (incident == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(incident);
+  }
+
+  /**
+   * Get a channel joining two nodes in constant time, with the same result
+   * as scanning every connection for one whose endpoints are ports of the
+   * two nodes
+   *
+   * @param n1  First node
+   * @param n2  Second node
+   * @param directed  If true, only a connection from a port of n1 to a port
+   * of n2 matches; otherwise a connection in either direction matches
+   * @return The first such connection in schematic order, or null if the
+   * nodes are not joined by any channel
+   */
+  public ConnectionValue getConnectingChannel(NodeValue n1, NodeValue n2,
+      boolean directed) {
+    Map<NodeValue, ConnectionValue> neighbours =
+        getAdjacency(directed).get(n1);
+    if (neighbours == null) {
+      return null;
+    }
+    return neighbours.get(n2);
+  }
+
+  private synchronized Map<NodeValue, Map<NodeValue, ConnectionValue>>
+      getAdjacency(boolean directed) {
+    if (directedAdjacency == null) {
+      directedAdjacency = new HashMap<>();
+      undirectedAdjacency = new HashMap<>();
+      for (ConnectionValue conn : schematic.getConnections().values()) {
+        NodeValue from = conn.getFrom().getParent();
+        NodeValue to = conn.getTo().getParent();
+        addAdjacency(directedAdjacency, from, to, conn);
+        addAdjacency(undirectedAdjacency, from, to, conn);
+        addAdjacency(undirectedAdjacency, to, from, conn);
+      }
+    }
+    if (directed) {
+      return directedAdjacency;
+    } else {
+      return undirectedAdjacency;
+    }
+  }
+
+  private static void addAdjacency(
+      Map<NodeValue, Map<NodeValue, ConnectionValue>> adjacency,
+      NodeValue n1, NodeValue n2, ConnectionValue conn) {
+    Map<NodeValue, ConnectionValue> neighbours = adjacency.get(n1);
+    if (neighbours == null) {
+      neighbours = new HashMap<>();
+      adjacency.put(n1, neighbours);
+    }
+    // keep the first channel between a pair of nodes
+    if (!neighbours.containsKey(n2)) {
+      neighbours.put(n2, conn);
+    }
+  }
+
+}
@@ -13,16 +13,11 @@ import org.manifold.compiler.middle.Schematic;
 public class SchematicUtil {
 
   // Get the connection in schematic associated with this port.
-  // TODO this is VERY EXPENSIVE, find an optimization. 
-  // Josh: make schematic connections into hashset to make search constant time?
+  // Looked up through the schematic's SchematicIndex, so this is constant time
+  // once the index has been built.
   public static ConnectionValue getConnection(
     Schematic schematic, PortValue port) {
-    for (ConnectionValue conn : schematic.getConnections().values()) {
-      if (conn.getFrom().equals(port) || conn.getTo().equals(port)) {
-        return conn;
-      }
-    }
-    return null;
+    return SchematicIndex.of(schematic).getConnection(port);
   }
 
 }
@@ -0,0 +1,180 @@
+package org.manifold.compiler.back.microfluidics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.manifold.compiler.back.microfluidics.strategies.MultiPhaseStrategySet;
+import org.manifold.compiler.back.microfluidics.strategies.PressureFlowStrategySet;
+import org.manifold.compiler.back.microfluidics.strategies.multiphase.TJunctionDeviceStrategy;
+import org.manifold.compiler.back.microfluidics.strategies.pressureflow.AnalyticalPressureFlowStrategy;
+import org.manifold.compiler.back.microfluidics.strategies.pressureflow.SimplePressureFlowStrategy;
+
+/**
+ * One way of translating and solving a schematic: which pressure-flow
+ * strategy is used, whether worst case analysis is performed, and the
+ * precision dReal solves with.
+ *
+ * A configuration is written as a strategy name ("simple" or
+ * "analytical"), optionally followed by "+worstcase" and by "@" and a
+ * precision, e.g. "simple+worstcase@0.01". Worst case analysis is only
+ * available with the simple strategy.
+ */
+public class SolverConfiguration {
+
+  /**
+   * Pressure-flow strategy of a configuration
+   */
+  public enum PressureFlowModel {
+    SIMPLE, ANALYTICAL
+  }
+
+  private final PressureFlowModel pressureFlow;
+  private final boolean worstCaseAnalysis;
+  private final double precision;
+
+  /**
+   * @param pressureFlow  Pressure-flow strategy to translate with
+   * @param worstCaseAnalysis  True if worst case analysis should be
+   * performed
+   * @param precision  Precision for dReal, or 0 for its default
+   * @throws IllegalArgumentException if the precision is negative, or
+   * worst case analysis is asked of the analytical strategy
+   */
+  public SolverConfiguration(PressureFlowModel pressureFlow,
+      boolean worstCaseAnalysis, double precision) {
+    if (precision < 0 || Double.isNaN(precision)) {
+      throw new IllegalArgumentException("precision must be positive,"
+          + " or 0 for the default");
+    }
+    if (worstCaseAnalysis && pressureFlow != PressureFlowModel.SIMPLE) {
+      // the worst-case flow rates are only declared by the simple strategy
+      throw new IllegalArgumentException("worst case analysis requires"
+          + " the simple pressure-flow strategy");
+    }
+    this.pressureFlow = pressureFlow;
+    this.worstCaseAnalysis = worstCaseAnalysis;
+    this.precision = precision;
+  }
+
+  /**
+   * The configuration used when none is given: simple pressure-flow, no
+   * worst case analysis and the default precision
+   */
+  public static SolverConfiguration getDefault() {
+    return new SolverConfiguration(PressureFlowModel.SIMPLE, false, 0);
+  }
+
+  public PressureFlowModel getPressureFlowModel() {
+    return pressureFlow;
+  }
+
+  public boolean performsWorstCaseAnalysis() {
+    return worstCaseAnalysis;
+  }
+
+  /**
+   * @return Precision for dReal, or 0 for its default
+   */
+  public double getPrecision() {
+    return precision;
+  }
+
+  /**
+   * Read a configuration written as described above
+   *
+   * @param spec  Written configuration
+   * @return The configuration
+   * @throws IllegalArgumentException if spec is not a valid configuration
+   */
+  public static SolverConfiguration parse(String spec) {
+    String rest = spec.trim();
+    double precision = 0;
+    int at = rest.indexOf('@');
+    if (at != -1) {
+      try {
+        precision = Double.parseDouble(rest.substring(at + 1));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("invalid precision in solver"
+            + " configuration '" + spec + "'");
+      }
+      rest = rest.substring(0, at);
+    }
+    boolean worstCase = false;
+    int plus = rest.indexOf('+');
+    if (plus != -1) {
+      if (!rest.substring(plus + 1).equals("worstcase")) {
+        throw new IllegalArgumentException("unknown option '"
+            + rest.substring(plus + 1) + "' in solver configuration '"
+            + spec + "'");
+      }
+      worstCase = true;
+      rest = rest.substring(0, plus);
+    }
+    PressureFlowModel model;
+    if (rest.equals("simple")) {
+      model = PressureFlowModel.SIMPLE;
+    } else if (rest.equals("analytical")) {
+      model = PressureFlowModel.ANALYTICAL;
+    } else {
+      throw new IllegalArgumentException("unknown pressure-flow strategy '"
+          + rest + "' in solver configuration '" + spec + "'");
+    }
+    return new SolverConfiguration(model, worstCase, precision);
+  }
+
+  /**
+   * Read a comma-separated list of configurations
+   *
+   * @param specs  Written configurations, separated by commas
+   * @return The configurations, in order
+   * @throws IllegalArgumentException if a configuration is not valid
+   */
+  public static List<SolverConfiguration> parseList(String specs) {
+    List<SolverConfiguration> configs = new ArrayList<>();
+    for (String spec : specs.split(",")) {
+      configs.add(parse(spec));
+    }
+    return configs;
+  }
+
+  /**
+   * @return Pressure-flow strategies translating with this configuration
+   */
+  public PressureFlowStrategySet createPressureFlowStrategySet() {
+    PressureFlowStrategySet set = new PressureFlowStrategySet();
+    set.performWorstCastAnalysis(worstCaseAnalysis);
+    if (pressureFlow == PressureFlowModel.ANALYTICAL) {
+      set.usePressureFlowStrategy(new AnalyticalPressureFlowStrategy());
+    } else {
+      set.usePressureFlowStrategy(
+          new SimplePressureFlowStrategy(worstCaseAnalysis));
+    }
+    return set;
+  }
+
+  /**
+   * @return Multi-phase strategies translating with this configuration
+   */
+  public MultiPhaseStrategySet createMultiPhaseStrategySet() {
+    MultiPhaseStrategySet set = new MultiPhaseStrategySet();
+    set.performWorstCastAnalysis(worstCaseAnalysis);
+    set.useTJunctionDeviceStrategy(
+        new TJunctionDeviceStrategy(worstCaseAnalysis));
+    return set;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(pressureFlow == PressureFlowModel.ANALYTICAL
+        ? "analytical" : "simple");
+    if (worstCaseAnalysis) {
+      sb.append("+worstcase");
+    }
+    if (precision > 0) {
+      sb.append('@').append(precision);
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,194 @@
+package org.manifold.compiler.back.microfluidics;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.manifold.compiler.back.microfluidics.smt2.DRealSolver;
+import org.manifold.compiler.back.microfluidics.smt2.LinearExpr;
+import org.manifold.compiler.back.microfluidics.smt2.SExpression;
+import org.manifold.compiler.back.microfluidics.smt2.Symbol;
+
+/**
+ * Solves a schematic with several configurations at once and keeps the
+ * first definitive answer (SAT or UNSAT), since which configuration dReal
+ * solves fastest varies a lot from one schematic to the next. The runs that
+ * are still going when the first answer arrives are cancelled, which ends
+ * their dReal processes. The winning configuration is logged, so that the
+ * configurations can be tuned later.
+ */
+public class SolverPortfolio {
+
+  private static final Logger log =
+      LogManager.getLogger("SolverPortfolio");
+
+  /**
+   * Answer of the portfolio and the configuration that gave it
+   */
+  public static class Outcome {
+    private final SolverConfiguration configuration;
+    private final DRealSolver.Result result;
+
+    Outcome(SolverConfiguration configuration, DRealSolver.Result result) {
+      this.configuration = configuration;
+      this.result = result;
+    }
+
+    /**
+     * @return Configuration that answered first, or null if none gave a
+     * definitive answer
+     */
+    public SolverConfiguration getConfiguration() {
+      return configuration;
+    }
+
+    /**
+     * @return Answer of the winning configuration; UNKNOWN or TIMEOUT if
+     * there was none
+     */
+    public DRealSolver.Result getResult() {
+      return result;
+    }
+  }
+
+  /**
+   * Translation of a schematic with one configuration
+   */
+  public static class Formula {
+    private final List<SExpression> exprs;
+    private final Map<Symbol, LinearExpr> eliminated;
+
+    /**
+     * @param exprs  Declarations and assertions, in the order dReal should
+     * read them
+     * @param eliminated  Variables eliminated from the formula, see
+     * DRealSolver.setEliminatedVariables
+     */
+    public Formula(List<SExpression> exprs,
+        Map<Symbol, LinearExpr> eliminated) {
+      this.exprs = exprs;
+      this.eliminated = eliminated;
+    }
+  }
+
+  private final List<SolverConfiguration> configurations;
+  private final Duration timeout;
+
+  /**
+   * @param configurations  Configurations to race
+   * @param timeout  Longest time each configuration is given
+   */
+  public SolverPortfolio(List<SolverConfiguration> configurations,
+      Duration timeout) {
+    if (configurations.isEmpty()) {
+      throw new IllegalArgumentException("portfolio has no configurations");
+    }
+    this.configurations = new ArrayList<>(configurations);
+    this.timeout = timeout;
+  }
+
+  public List<SolverConfiguration> getConfigurations() {
+    return Collections.unmodifiableList(configurations);
+  }
+
+  /**
+   * Translate the formula of each configuration and race dReal on all of
+   * them. Formulas are translated one after another, and then solved in
+   * parallel.
+   *
+   * @param translator  Gives the formula of each configuration
+   * @return First definitive answer, and the configuration that gave it
+   * @throws IOException  If a dReal process cannot be started
+   * @throws InterruptedException  If interrupted while waiting for dReal
+   */
+  public Outcome solve(Function<SolverConfiguration, Formula> translator)
+      throws IOException, InterruptedException {
+    List<Formula> formulas = new ArrayList<>();
+    for (SolverConfiguration config : configurations) {
+      formulas.add(translator.apply(config));
+    }
+    final CompletableFuture<Outcome> winner = new CompletableFuture<>();
+    final AtomicInteger remaining = new AtomicInteger(configurations.size());
+    List<DRealSolver> solvers = new ArrayList<>();
+    List<CompletableFuture<DRealSolver.Result>> runs = new ArrayList<>();
+    try {
+      for (int i = 0; i < configurations.size(); ++i) {
+        final SolverConfiguration config = configurations.get(i);
+        DRealSolver solver = newSolver();
+        solvers.add(solver);
+        solver.setPrecision(config.getPrecision());
+        solver.setEliminatedVariables(formulas.get(i).eliminated);
+        solver.open();
+        for (SExpression expr : formulas.get(i).exprs) {
+          solver.write(expr);
+        }
+        CompletableFuture<DRealSolver.Result> run =
+            solver.solveAsync(timeout);
+        runs.add(run);
+        run.whenComplete((result, e) -> {
+          if (e instanceof CancellationException) {
+            // lost the race
+            return;
+          } else if (e != null) {
+            log.warn("solver configuration '" + config + "' failed: "
+                + e.getMessage());
+          } else if (isDefinitive(result)) {
+            winner.complete(new Outcome(config, result));
+          }
+          if (remaining.decrementAndGet() == 0) {
+            // no configuration gave a definitive answer; report the last
+            winner.complete(new Outcome(null, e == null ? result
+                : new DRealSolver.Result(DRealSolver.Result.Status.UNKNOWN,
+                    Collections.<Symbol, LinearExpr>emptyMap())));
+          }
+        });
+      }
+      Outcome outcome;
+      try {
+        outcome = winner.get();
+      } catch (ExecutionException e) {
+        // only ever completed normally
+        throw new IllegalStateException(e.getCause());
+      }
+      if (outcome.getConfiguration() != null) {
+        log.info("solver configuration '" + outcome.getConfiguration()
+            + "' answered " + outcome.getResult().getStatus()
+            + " first out of " + configurations.size());
+      } else {
+        log.warn("no solver configuration gave a definitive answer");
+      }
+      return outcome;
+    } finally {
+      for (CompletableFuture<DRealSolver.Result> run : runs) {
+        // kills the dReal process of each run still going
+        run.cancel(true);
+      }
+      for (DRealSolver solver : solvers) {
+        solver.close();
+      }
+    }
+  }
+
+  /**
+   * @return A new, unopened session for one configuration of the race
+   */
+  DRealSolver newSolver() {
+    return new DRealSolver();
+  }
+
+  private static boolean isDefinitive(DRealSolver.Result result) {
+    return result.getStatus() == DRealSolver.Result.Status.SAT
+        || result.getStatus() == DRealSolver.Result.Status.UNSAT;
+  }
+
+}
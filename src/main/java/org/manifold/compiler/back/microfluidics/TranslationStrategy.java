@@ -5,7 +5,8 @@ import java.util.List;
 
 import org.manifold.compiler.ConnectionValue;
 import org.manifold.compiler.NodeValue;
-import org.manifold.compiler.PortValue;
+import org.manifold.compiler.back.microfluidics.smt2.CollectingSink;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
 import org.manifold.compiler.middle.Schematic;
 
@@ -67,6 +68,56 @@ public abstract class TranslationStrategy {
       ProcessParameters processParams,
       PrimitiveTypeTable typeTable);
   
+  /**
+   * Streaming counterpart of translate: each expression is emitted into sink
+   * as it is built instead of being collected into a list first. Nothing is
+   * cached, so getTranslatedExprs cannot be used afterwards. Expressions are
+   * emitted with this strategy as their origin, see ExpressionSink.withOrigin.
+   * 
+   * @param schematic  Outlines the connections within the microfluidic chip
+   * @param processParams  Outlines the dimensions of the chip 
+   * @param typeTable  Outlines the types of components within the chip
+   * @param sink  Receives the translated expressions
+   */
+  public final void translate(Schematic schematic,
+      ProcessParameters processParams,
+      PrimitiveTypeTable typeTable, ExpressionSink sink) {
+    invalidateCache();
+    translationStep(schematic, processParams, typeTable,
+        sink.withOrigin(getClass().getName()));
+  }
+  
+  /**
+   * Streaming translation step. By default this emits the result of the
+   * list-based translationStep; strategies that produce expressions for every
+   * node or channel override it to emit them one at a time, and implement the
+   * list-based translationStep with collect().
+   * 
+   * @param schematic  Outlines the connections within the microfluidic chip
+   * @param processParams  Outlines the dimensions of the chip 
+   * @param typeTable  Outlines the types of components within the chip
+   * @param sink  Receives the translated expressions
+   */
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams,
+      PrimitiveTypeTable typeTable, ExpressionSink sink) {
+    sink.emitAll(translationStep(schematic, processParams, typeTable));
+  }
+  
+  /**
+   * Run the streaming translationStep and collect what it emits, for
+   * strategies whose list-based translationStep is implemented in terms of
+   * the streaming one
+   * 
+   * @return Every expression emitted, in order
+   */
+  protected final List<SExpression> collect(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable) {
+    CollectingSink exprs = new CollectingSink();
+    translationStep(schematic, processParams, typeTable, exprs);
+    return exprs.getExpressions();
+  }
+  
   /**
    * @return List of translated expressions if present in cache
    */
@@ -91,6 +142,9 @@ public abstract class TranslationStrategy {
   }
   
   /**
+   * Answered in constant time from the node-pair adjacency of the
+   * schematic's SchematicIndex, which is shared by all strategies
+   * 
    * @return a connection from any port of n1 to any port of n2
    * (if directed is true), or a connection having any port of n1 and n2 
    * as its endpoints (if directed is false),
@@ -99,23 +153,8 @@ public abstract class TranslationStrategy {
   public ConnectionValue getConnectingChannel(Schematic schematic,
       PrimitiveTypeTable typeTable,
       NodeValue n1, NodeValue n2, boolean directed) {
-    for (ConnectionValue conn : schematic.getConnections().values()) {
-      // TODO check whether the port types are correct
-      for (PortValue p1 : n1.getPorts().values()) {
-        for (PortValue p2 : n2.getPorts().values()) {
-          // check if we have n1 --(conn)-> n2 (forward direction)
-          if (conn.getFrom().equals(p1) && conn.getTo().equals(p2)) {
-            return conn;
-          }
-          // check if we have n2 --(conn)-> n1 (reverse direction)
-          if (!directed && conn.getFrom().equals(p2) 
-              && conn.getTo().equals(p1)) {
-            return conn;
-          }
-        }
-      }
-    }
-    // couldn't find anything
-    return null;
+    // TODO check whether the port types are correct
+    return SchematicIndex.of(schematic).getConnectingChannel(
+        n1, n2, directed);
   }
 }
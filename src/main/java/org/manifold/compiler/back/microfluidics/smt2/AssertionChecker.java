@@ -1,6 +1,9 @@
 package org.manifold.compiler.back.microfluidics.smt2;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Checks that an (in)equality assertion is formed correctly and returns boolean
@@ -33,7 +36,18 @@ public class AssertionChecker {
     delta = d;
   }
   
-  private ExprEvalVisitor evaluator = new ExprEvalVisitor();
+  /**
+   * Value of each bound variable, indexed by symbol id
+   */
+  private double[] slots = new double[0];
+  private boolean[] bound = new boolean[0];
+  
+  /**
+   * Compiled form of each term evaluated during the current verify(List)
+   * pass, so that a term shared by several assertions is compiled once;
+   * null outside of a pass, so the checker holds on to nothing
+   */
+  private Map<SExpression, CompiledExpression> compiled = null;
   
   /**
    * Bind a variable to a value, will be visited while verifying to confirm that
@@ -43,7 +57,38 @@ public class AssertionChecker {
    * @param value  Value that this Symbol is bound to
    */
   public void addBinding(Symbol var, Double value) {
-    evaluator.addBinding(var, value);
+    int id = var.getId();
+    if (id >= slots.length) {
+      int length = Math.max(id + 1, 2 * slots.length);
+      slots = Arrays.copyOf(slots, length);
+      bound = Arrays.copyOf(bound, length);
+    }
+    slots[id] = value;
+    bound[id] = true;
+  }
+  
+  /**
+   * Evaluate one side of an assertion over the bound variables
+   * 
+   * @throws ArithmeticException if the term cannot be evaluated or uses a
+   * variable that is not bound
+   */
+  private double evaluate(SExpression term) {
+    CompiledExpression program =
+        compiled == null ? null : compiled.get(term);
+    if (program == null) {
+      program = ExpressionCompiler.compile(term);
+      if (compiled != null) {
+        compiled.put(term, program);
+      }
+    }
+    for (int i = 0; i < program.getSymbolCount(); ++i) {
+      int id = program.getSymbolId(i);
+      if (id >= bound.length || !bound[id]) {
+        throw new ArithmeticException("no binding for variable");
+      }
+    }
+    return program.evaluate(slots);
   }
   
   public AssertionChecker() { }
@@ -87,12 +132,17 @@ public class AssertionChecker {
    * @return True if all SExpressions are verified
    */
   public boolean verify(List<SExpression> exprs) {
-    for (SExpression expr : exprs) {
-      if (!verify(expr)) {
-        return false;
+    compiled = new HashMap<>();
+    try {
+      for (SExpression expr : exprs) {
+        if (!verify(expr)) {
+          return false;
+        }
       }
+      return true;
+    } finally {
+      compiled = null;
     }
-    return true;
   }
   
   /**
@@ -114,44 +164,59 @@ public class AssertionChecker {
     }
     // Check to make sure term is in the form 'operator var/val var/val' where
     // var/val is either a variable or value
-    SExpression term = ((ParenList) expr).getExprs().get(1);
-    if (((ParenList) term).getExprs().size() != 3) {
+    ParenList term = (ParenList) ((ParenList) expr).get(1);
+    if (term.size() != 3) {
       // malformed
       return false;
     }
-    SExpression booleanSym = ((ParenList) term).getExprs().get(0);
+    SExpression booleanSym = term.get(0);
     if (!(booleanSym instanceof Symbol)) {
       // malformed
       return false;
     }
     double valLeft, valRight;
-    SExpression eLeft = ((ParenList) term).getExprs().get(1);
-    SExpression eRight = ((ParenList) term).getExprs().get(2);
+    SExpression eLeft = term.get(1);
+    SExpression eRight = term.get(2);
     try {
-      eLeft.accept(evaluator);
-      valLeft = evaluator.getValue();
+      valLeft = evaluate(eLeft);
       lastLHS = valLeft;
-      eRight.accept(evaluator);
-      valRight = evaluator.getValue();
+      valRight = evaluate(eRight);
       lastRHS = valRight;
-    } catch (Exception e) {
-      // One of the vals is not is ExprEvalVisitor 
+    } catch (ArithmeticException e) {
+      // unknown function, or a variable without a binding
       return false;
     }
-    if (booleanSym.equals(new Symbol("="))) {
-      return Math.abs(valLeft - valRight) < delta;
-    } else if (booleanSym.equals(new Symbol("<"))) {
-      return valLeft < valRight;
-    } else if (booleanSym.equals(new Symbol("<="))) {
-      return valLeft <= valRight;
-    } else if (booleanSym.equals(new Symbol(">"))) {
-      return valLeft > valRight;
-    } else if (booleanSym.equals(new Symbol(">="))) {
-      return valLeft >= valRight;
-    } else {
-      // unknown operator
-      return false;
+    // false for an unknown operator
+    return holds(booleanSym, valLeft, valRight, delta);
+  }
+  
+  /**
+   * Decide a comparison between the values of the two sides of an
+   * assertion. These are the rules every checker of assertions judges by:
+   * = holds if the sides differ by less than delta, and the inequalities
+   * hold exactly as written, strict ones strictly.
+   * 
+   * @param op  Operator of the assertion, see QFNRA.isComparison
+   * @param lhs  Value of the left hand side
+   * @param rhs  Value of the right hand side
+   * @param delta  Largest difference between two values considered equal
+   * @return True if (op lhs rhs) holds; false if it does not, or if op is
+   * not a comparison
+   */
+  static boolean holds(SExpression op, double lhs, double rhs,
+      double delta) {
+    if (op.equals(QFNRA.EQUAL)) {
+      return Math.abs(lhs - rhs) < delta;
+    } else if (op.equals(QFNRA.LESS_THAN)) {
+      return lhs < rhs;
+    } else if (op.equals(QFNRA.LESS_THAN_EQUAL)) {
+      return lhs <= rhs;
+    } else if (op.equals(QFNRA.GREATER)) {
+      return lhs > rhs;
+    } else if (op.equals(QFNRA.GREATER_EQUAL)) {
+      return lhs >= rhs;
     }
+    return false;
   }
   
   /**
@@ -172,19 +237,19 @@ public class AssertionChecker {
       return true;
     }
     // Assertion must include at least 2 expressions
-    if (((ParenList) assertion).getExprs().size() != 2) {
+    if (((ParenList) assertion).size() != 2) {
       return true;
     }
     // First expression must be a Symbol that says 'assert'
-    SExpression assertSym = ((ParenList) assertion).getExprs().get(0);
+    SExpression assertSym = ((ParenList) assertion).get(0);
     if (!(assertSym instanceof Symbol)) {
       return true;
     }
-    if (!((Symbol) assertSym).equals(new Symbol("assert"))) {
+    if (!assertSym.equals(QFNRA.ASSERT)) {
       return true;
     }
     // Second term must be a ParenList, but it can contain any number of terms
-    SExpression term = ((ParenList) assertion).getExprs().get(1);
+    SExpression term = ((ParenList) assertion).get(1);
     if (!(term instanceof ParenList)) {
       return true;
     }
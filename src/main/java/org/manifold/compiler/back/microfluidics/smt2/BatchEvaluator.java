@@ -0,0 +1,214 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates terms and checks assertions over many sets of bindings at once,
+ * e.g. every point of a design sweep. The bindings are given column by
+ * column: one array per variable, holding the value of that variable in each
+ * row. Terms are compiled once and then evaluated a block of rows at a time
+ * (see CompiledExpression), so that the inner loops run over contiguous
+ * arrays instead of walking the term once per row.
+ *
+ * Assertions are judged by AssertionChecker.holds, the same rules
+ * AssertionChecker applies to a single set of bindings. An instance is not
+ * thread-safe.
+ */
+public class BatchEvaluator {
+
+  /**
+   * Number of rows evaluated together, small enough for the stack of a
+   * typical term to stay in cache
+   */
+  public static final int BLOCK_SIZE = 256;
+
+  private final int rows;
+
+  /**
+   * Column of each variable, indexed by symbol id; null if there is none
+   */
+  private double[][] columns = new double[0][];
+
+  private double delta = 0.000001;
+
+  /**
+   * Compiled form of each term evaluated during the current call taking a
+   * list, so that a term shared by several assertions is compiled once;
+   * null outside of such a call, as in AssertionChecker
+   */
+  private Map<SExpression, CompiledExpression> compiled = null;
+
+  /**
+   * @param rows  Number of sets of bindings to evaluate over
+   */
+  public BatchEvaluator(int rows) {
+    if (rows < 0) {
+      throw new IllegalArgumentException("negative number of rows " + rows);
+    }
+    this.rows = rows;
+  }
+
+  public int getRowCount() {
+    return rows;
+  }
+
+  /**
+   * Change the value of delta, the largest difference between two numbers
+   * for them to be considered equal. Default value is 0.000001
+   *
+   * @param d  Value to set delta equal to
+   */
+  public void setDelta(double d) {
+    delta = d;
+  }
+
+  /**
+   * Bind a variable to a column of values, one for each row. The array is
+   * not copied.
+   *
+   * @param var  Symbol to be bound
+   * @param values  Value of the variable in each row
+   */
+  public void addColumn(Symbol var, double[] values) {
+    if (values.length < rows) {
+      throw new IllegalArgumentException("column for " + var + " has "
+          + values.length + " values, expected " + rows);
+    }
+    int id = var.getId();
+    if (id >= columns.length) {
+      columns = Arrays.copyOf(columns, Math.max(id + 1,
+          2 * columns.length));
+    }
+    columns[id] = values;
+  }
+
+  /**
+   * Evaluate a term in every row
+   *
+   * @param term  Term to evaluate
+   * @return Value of the term in each row
+   * @throws ArithmeticException if the term cannot be evaluated or uses a
+   * variable that has no column
+   */
+  public double[] evaluate(SExpression term) {
+    CompiledExpression program = compile(term);
+    double[] result = new double[rows];
+    double[][] stack = program.newBatchStack(Math.min(rows, BLOCK_SIZE));
+    for (int from = 0; from < rows; from += BLOCK_SIZE) {
+      int to = Math.min(rows, from + BLOCK_SIZE);
+      program.evaluate(columns, from, to, stack, result);
+    }
+    return result;
+  }
+
+  /**
+   * Evaluate several terms in every row
+   *
+   * @param terms  Terms to evaluate
+   * @return Value of each term in each row, in the order of terms
+   * @throws ArithmeticException if a term cannot be evaluated or uses a
+   * variable that has no column
+   */
+  public List<double[]> evaluate(List<SExpression> terms) {
+    List<double[]> results = new ArrayList<>(terms.size());
+    compiled = new HashMap<>();
+    try {
+      for (SExpression term : terms) {
+        results.add(evaluate(term));
+      }
+      return results;
+    } finally {
+      compiled = null;
+    }
+  }
+
+  /**
+   * Find the rows in which an assertion does not hold. An assertion that
+   * is malformed, cannot be evaluated or uses a variable without a column
+   * does not hold in any row; an expression that is not an assertion at all
+   * holds in every row.
+   *
+   * @param expr  Assertion to check
+   * @return Set of the rows that violate the assertion
+   */
+  public BitSet findViolations(SExpression expr) {
+    BitSet violations = new BitSet(rows);
+    if (AssertionChecker.isNonAssertion(expr)) {
+      return violations;
+    }
+    ParenList term = (ParenList) ((ParenList) expr).get(1);
+    SExpression op = term.size() == 3 ? term.get(0) : null;
+    if (op == null || !QFNRA.isComparison(op)) {
+      // malformed
+      violations.set(0, rows);
+      return violations;
+    }
+    double[] left;
+    double[] right;
+    try {
+      left = evaluate(term.get(1));
+      right = evaluate(term.get(2));
+    } catch (ArithmeticException e) {
+      violations.set(0, rows);
+      return violations;
+    }
+    markViolations(op, left, right, violations);
+    return violations;
+  }
+
+  /**
+   * Find the rows in which each of several assertions does not hold
+   *
+   * @param exprs  Assertions to check
+   * @return Set of the violating rows of each assertion, in the order of
+   * exprs
+   */
+  public List<BitSet> findViolations(List<SExpression> exprs) {
+    List<BitSet> results = new ArrayList<>(exprs.size());
+    compiled = new HashMap<>();
+    try {
+      for (SExpression expr : exprs) {
+        results.add(findViolations(expr));
+      }
+      return results;
+    } finally {
+      compiled = null;
+    }
+  }
+
+  /**
+   * Add each row in which (op left right) does not hold to violations
+   */
+  private void markViolations(SExpression op, double[] left,
+      double[] right, BitSet violations) {
+    for (int i = 0; i < rows; ++i) {
+      if (!AssertionChecker.holds(op, left[i], right[i], delta)) {
+        violations.set(i);
+      }
+    }
+  }
+
+  private CompiledExpression compile(SExpression term) {
+    CompiledExpression program =
+        compiled == null ? null : compiled.get(term);
+    if (program == null) {
+      program = ExpressionCompiler.compile(term);
+      if (compiled != null) {
+        compiled.put(term, program);
+      }
+    }
+    for (int i = 0; i < program.getSymbolCount(); ++i) {
+      int id = program.getSymbolId(i);
+      if (id >= columns.length || columns[id] == null) {
+        throw new ArithmeticException("no column for variable");
+      }
+    }
+    return program;
+  }
+
+}
@@ -0,0 +1,461 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Derives bounds on the declared variables of a formula by interval
+ * constraint propagation, so that they can be given to dReal as explicit
+ * bound assertions; its branch and prune search starts from a much smaller
+ * box when every variable is bounded.
+ *
+ * Each assertion is propagated HC4-style: a forward pass evaluates every
+ * subterm over the current box, the comparison at the top narrows the
+ * intervals of its two sides, and a backward pass projects the narrowed
+ * intervals down onto the variables. The assertions are swept a fixed
+ * number of times (fewer if a sweep narrows nothing), so propagation takes
+ * time linear in the size of the formula. Strict comparisons are relaxed to
+ * non-strict ones and all interval arithmetic rounds outward, so every
+ * derived bound holds in every model of the formula.
+ */
+public class BoundPropagator {
+
+  /**
+   * Number of sweeps over the assertions; later sweeps rarely narrow the
+   * box by much, since each narrowing also has to pass through the
+   * assertions sharing a variable
+   */
+  private static final int MAX_SWEEPS = 4;
+
+  // current box, for every declared variable
+  private final Map<Symbol, Interval> box = new LinkedHashMap<>();
+  // bounds given directly by assertions like (> x 0.0), which need not be
+  // emitted again
+  private final Map<Symbol, Interval> explicit = new LinkedHashMap<>();
+  // intervals of the subterms of the assertion being propagated
+  private final Map<SExpression, Interval> values = new IdentityHashMap<>();
+  private boolean narrowed;
+  private boolean infeasible;
+
+  /**
+   * Propagate bounds through a whole formula
+   *
+   * @param formula  Declarations, assertions and commands, in order
+   * @return The derived box, with an interval for every declared variable
+   * (the entire line if nothing is known about it)
+   */
+  public Map<Symbol, Interval> propagate(List<SExpression> formula) {
+    box.clear();
+    explicit.clear();
+    infeasible = false;
+    List<ParenList> comparisons = new ArrayList<>();
+    for (SExpression expr : formula) {
+      Symbol var = QFNRA.getDeclaredVariable(expr);
+      if (var != null) {
+        box.put(var, Interval.ENTIRE);
+        explicit.put(var, Interval.ENTIRE);
+      } else if (!AssertionChecker.isNonAssertion(expr)) {
+        SExpression term = ((ParenList) expr).get(1);
+        if (isComparison(term)) {
+          comparisons.add((ParenList) term);
+        }
+      }
+    }
+    for (ParenList comparison : comparisons) {
+      recordExplicitBound(comparison);
+    }
+    for (int sweep = 0; sweep < MAX_SWEEPS && !infeasible; ++sweep) {
+      narrowed = false;
+      for (ParenList comparison : comparisons) {
+        values.clear();
+        revise(comparison);
+        if (infeasible) {
+          break;
+        }
+      }
+      if (!narrowed) {
+        break;
+      }
+    }
+    values.clear();
+    return box;
+  }
+
+  /**
+   * @return True if the last propagation found that the formula has no
+   * model at all
+   */
+  public boolean isInfeasible() {
+    return infeasible;
+  }
+
+  /**
+   * Assertions bounding each variable by the box found by the last
+   * propagation, leaving out ends that are unbounded or already asserted
+   * directly by the formula. Bounds are written as plain decimals rounded
+   * outward, so they still hold exactly as dReal reads them.
+   *
+   * @return (assert (>= x lower)) and (assert (<= x upper)) assertions
+   */
+  public List<SExpression> getBoundAssertions() {
+    List<SExpression> bounds = new ArrayList<>();
+    if (infeasible) {
+      // dReal finds this out quickly enough on its own
+      return bounds;
+    }
+    for (Map.Entry<Symbol, Interval> entry : box.entrySet()) {
+      Symbol var = entry.getKey();
+      Interval range = entry.getValue();
+      Interval given = explicit.get(var);
+      if (!Double.isInfinite(range.getLower())
+          && range.getLower() > given.getLower()) {
+        bounds.add(QFNRA.assertGreaterEqual(var,
+            new Decimal(range.getLower(), RoundingMode.FLOOR)));
+      }
+      if (!Double.isInfinite(range.getUpper())
+          && range.getUpper() < given.getUpper()) {
+        bounds.add(QFNRA.assertLessThanEqual(var,
+            new Decimal(range.getUpper(), RoundingMode.CEILING)));
+      }
+    }
+    return bounds;
+  }
+
+  /**
+   * Wrap a sink so that bounds derived from the whole formula emitted into
+   * it are added when it is closed: the formula is passed on unchanged, with
+   * the bound assertions inserted before the first command following the
+   * assertions, e.g. (check-sat). Nothing reaches the next sink before then.
+   *
+   * @param next  Sink receiving the formula and its bounds
+   * @return Sink to emit the original formula into
+   */
+  public ExpressionSink boundingSink(ExpressionSink next) {
+    return new ForwardingSink(next) {
+      private final List<SExpression> formula = new ArrayList<>();
+
+      @Override
+      public void emit(SExpression expr) {
+        formula.add(expr);
+      }
+
+      @Override
+      public void close() throws IOException {
+        propagate(formula);
+        List<SExpression> bounds = getBoundAssertions();
+        boolean added = false;
+        for (SExpression expr : formula) {
+          if (!added && isCommand(expr)) {
+            getNext().emitAll(bounds);
+            added = true;
+          }
+          getNext().emit(expr);
+        }
+        if (!added) {
+          getNext().emitAll(bounds);
+        }
+        super.close();
+      }
+    };
+  }
+
+  private static boolean isCommand(SExpression expr) {
+    if (!(expr instanceof ParenList) || ((ParenList) expr).isEmpty()) {
+      return false;
+    }
+    SExpression head = ((ParenList) expr).get(0);
+    return head.equals(QFNRA.CHECK_SAT) || head.equals(QFNRA.EXIT);
+  }
+
+  private static boolean isComparison(SExpression term) {
+    return term instanceof ParenList && ((ParenList) term).size() == 3
+        && QFNRA.isComparison(((ParenList) term).get(0));
+  }
+
+  /**
+   * Remember bounds asserted directly between a variable and a number
+   */
+  private void recordExplicitBound(ParenList comparison) {
+    SExpression op = comparison.get(0);
+    SExpression lhs = comparison.get(1);
+    SExpression rhs = comparison.get(2);
+    if (explicit.containsKey(rhs) && QFNRA.isNumber(lhs)) {
+      // c op x is x op' c
+      SExpression swap = lhs;
+      lhs = rhs;
+      rhs = swap;
+      op = mirror(op);
+    }
+    if (!explicit.containsKey(lhs) || !QFNRA.isNumber(rhs)) {
+      return;
+    }
+    double c = QFNRA.getNumberValue(rhs);
+    Interval given = explicit.get(lhs);
+    if (op.equals(QFNRA.EQUAL)) {
+      given = given.intersect(Interval.point(c));
+    } else if (op.equals(QFNRA.GREATER) || op.equals(QFNRA.GREATER_EQUAL)) {
+      given = given.intersect(
+          new Interval(c, Double.POSITIVE_INFINITY));
+    } else {
+      given = given.intersect(
+          new Interval(Double.NEGATIVE_INFINITY, c));
+    }
+    explicit.put((Symbol) lhs, given);
+  }
+
+  private static SExpression mirror(SExpression op) {
+    if (op.equals(QFNRA.LESS_THAN)) {
+      return QFNRA.GREATER;
+    } else if (op.equals(QFNRA.LESS_THAN_EQUAL)) {
+      return QFNRA.GREATER_EQUAL;
+    } else if (op.equals(QFNRA.GREATER)) {
+      return QFNRA.LESS_THAN;
+    } else if (op.equals(QFNRA.GREATER_EQUAL)) {
+      return QFNRA.LESS_THAN_EQUAL;
+    }
+    return op;
+  }
+
+  /**
+   * HC4-revise one comparison against the current box
+   */
+  private void revise(ParenList comparison) {
+    SExpression op = comparison.get(0);
+    SExpression lhs = comparison.get(1);
+    SExpression rhs = comparison.get(2);
+    Interval a = forward(lhs);
+    Interval b = forward(rhs);
+    Interval lhsRange;
+    Interval rhsRange;
+    if (op.equals(QFNRA.EQUAL)) {
+      lhsRange = b;
+      rhsRange = a;
+    } else if (op.equals(QFNRA.LESS_THAN)
+        || op.equals(QFNRA.LESS_THAN_EQUAL)) {
+      // a <= b
+      lhsRange = new Interval(Double.NEGATIVE_INFINITY, b.getUpper());
+      rhsRange = new Interval(a.getLower(), Double.POSITIVE_INFINITY);
+    } else {
+      // a >= b
+      lhsRange = new Interval(b.getLower(), Double.POSITIVE_INFINITY);
+      rhsRange = new Interval(Double.NEGATIVE_INFINITY, a.getUpper());
+    }
+    backward(lhs, lhsRange);
+    backward(rhs, rhsRange);
+  }
+
+  /**
+   * Evaluate a subterm over the current box
+   */
+  private Interval forward(SExpression expr) {
+    if (expr instanceof Numeral) {
+      long value = ((Numeral) expr).getValue();
+      if (Math.abs(value) <= (1L << 53)) {
+        return Interval.point(value);
+      }
+      return Interval.around(value);
+    }
+    if (expr instanceof Decimal) {
+      return Interval.around(((Decimal) expr).getValue());
+    }
+    if (expr instanceof Symbol) {
+      Interval range = box.get(expr);
+      return range == null ? Interval.ENTIRE : range;
+    }
+    if (!(expr instanceof ParenList)) {
+      return Interval.ENTIRE;
+    }
+    Interval value = values.get(expr);
+    if (value == null) {
+      value = evaluate((ParenList) expr);
+      values.put(expr, value);
+    }
+    return value;
+  }
+
+  private Interval evaluate(ParenList list) {
+    if (list.size() < 2) {
+      return Interval.ENTIRE;
+    }
+    SExpression op = list.get(0);
+    int n = list.size() - 1;
+    if (op.equals(QFNRA.PLUS)) {
+      Interval sum = forward(list.get(1));
+      for (int i = 2; i <= n; ++i) {
+        sum = sum.add(forward(list.get(i)));
+      }
+      return sum;
+    } else if (op.equals(QFNRA.MINUS)) {
+      Interval difference = forward(list.get(1));
+      if (n == 1) {
+        return difference.negate();
+      }
+      for (int i = 2; i <= n; ++i) {
+        difference = difference.subtract(forward(list.get(i)));
+      }
+      return difference;
+    } else if (op.equals(QFNRA.MULTIPLY)) {
+      Interval product = forward(list.get(1));
+      for (int i = 2; i <= n; ++i) {
+        product = product.multiply(forward(list.get(i)));
+      }
+      return product;
+    } else if (op.equals(QFNRA.DIVIDE) && n == 2) {
+      return forward(list.get(1)).divide(forward(list.get(2)));
+    } else if (op.equals(QFNRA.POW) && n == 2) {
+      Interval base = forward(list.get(1));
+      if (!QFNRA.isNumber(list.get(2))) {
+        forward(list.get(2));
+        return Interval.ENTIRE;
+      }
+      return base.pow(QFNRA.getNumberValue(list.get(2)));
+    } else if (op.equals(QFNRA.ARCSIN) && n == 1) {
+      return forward(list.get(1)).arcsin();
+    } else if (op.equals(QFNRA.ITE) && n == 3) {
+      return forward(list.get(2)).hull(forward(list.get(3)));
+    }
+    return Interval.ENTIRE;
+  }
+
+  /**
+   * Narrow a subterm to a range it must lie in, and project the narrowing
+   * onto its operands
+   */
+  private void backward(SExpression expr, Interval range) {
+    if (infeasible) {
+      return;
+    }
+    if (expr instanceof Symbol) {
+      Interval current = box.get(expr);
+      if (current == null) {
+        return;
+      }
+      Interval narrower = current.intersect(range);
+      if (narrower.isEmpty()) {
+        infeasible = true;
+      } else if (!narrower.equals(current)) {
+        box.put((Symbol) expr, narrower);
+        narrowed = true;
+      }
+      return;
+    }
+    if (!(expr instanceof ParenList)) {
+      if (QFNRA.isNumber(expr) && forward(expr).intersect(range).isEmpty()) {
+        infeasible = true;
+      }
+      return;
+    }
+    Interval current = values.get(expr);
+    if (current == null) {
+      return;
+    }
+    Interval narrower = current.intersect(range);
+    if (narrower.isEmpty()) {
+      infeasible = true;
+      return;
+    }
+    if (narrower.equals(current)) {
+      // nothing new to project onto the operands
+      return;
+    }
+    values.put(expr, narrower);
+    project((ParenList) expr, narrower);
+  }
+
+  private void project(ParenList list, Interval range) {
+    SExpression op = list.get(0);
+    int n = list.size() - 1;
+    if (op.equals(QFNRA.PLUS)) {
+      // x_i = sum - (the other operands); the others are the operands
+      // before i, as narrowed so far, plus the operands after i
+      Interval[] after = partialSums(list, 1);
+      Interval before = Interval.point(0.0);
+      for (int i = 1; i <= n; ++i) {
+        backward(list.get(i), range.subtract(before.add(after[i + 1])));
+        before = before.add(forward(list.get(i)));
+      }
+    } else if (op.equals(QFNRA.MINUS)) {
+      if (n == 1) {
+        backward(list.get(1), range.negate());
+        return;
+      }
+      // x_1 - (x_2 + ... + x_n) = range
+      Interval[] after = partialSums(list, 2);
+      backward(list.get(1), range.add(after[2]));
+      Interval difference = forward(list.get(1)).subtract(range);
+      Interval before = Interval.point(0.0);
+      for (int i = 2; i <= n; ++i) {
+        backward(list.get(i),
+            difference.subtract(before.add(after[i + 1])));
+        before = before.add(forward(list.get(i)));
+      }
+    } else if (op.equals(QFNRA.MULTIPLY)) {
+      // x_i = product / (the other operands), unless they may be zero
+      Interval[] after = partialProducts(list);
+      Interval before = Interval.point(1.0);
+      for (int i = 1; i <= n; ++i) {
+        backward(list.get(i), range.divide(before.multiply(after[i + 1])));
+        before = before.multiply(forward(list.get(i)));
+      }
+    } else if (op.equals(QFNRA.DIVIDE) && n == 2) {
+      // x = quotient * y, y = x / quotient
+      Interval dividend = forward(list.get(1));
+      Interval divisor = forward(list.get(2));
+      backward(list.get(1), range.multiply(divisor));
+      backward(list.get(2), dividend.divide(range));
+    } else if (op.equals(QFNRA.POW) && n == 2 && QFNRA.isNumber(list.get(2))) {
+      double exponent = QFNRA.getNumberValue(list.get(2));
+      if (exponent == Math.rint(exponent) && exponent >= 1
+          && exponent <= Integer.MAX_VALUE) {
+        Interval roots = range.root((int) exponent);
+        if (exponent % 2 == 0 && forward(list.get(1)).getLower() >= 0
+            && range.getLower() > 0) {
+          // a non-negative base is at least the root of the lower end
+          roots = roots.intersect(new Interval(
+              Interval.rootBelow(range.getLower(), (int) exponent),
+              Double.POSITIVE_INFINITY));
+        }
+        backward(list.get(1), roots);
+      } else if (exponent == -1.0) {
+        backward(list.get(1), Interval.point(1.0).divide(range));
+      }
+    } else if (op.equals(QFNRA.ARCSIN) && n == 1) {
+      backward(list.get(1), range.sin());
+    }
+  }
+
+  /**
+   * @return Array whose element i is the sum of operands i to n of list,
+   * for i from first to n + 1 (the empty sum); the backward pass takes the
+   * sum of the other operands of each operand from these in constant time
+   */
+  private Interval[] partialSums(ParenList list, int first) {
+    int n = list.size() - 1;
+    Interval[] sums = new Interval[n + 2];
+    sums[n + 1] = Interval.point(0.0);
+    for (int i = n; i >= first; --i) {
+      sums[i] = forward(list.get(i)).add(sums[i + 1]);
+    }
+    return sums;
+  }
+
+  /**
+   * @return Array whose element i is the product of operands i to n of
+   * list, for i from 1 to n + 1 (the empty product)
+   */
+  private Interval[] partialProducts(ParenList list) {
+    int n = list.size() - 1;
+    Interval[] products = new Interval[n + 2];
+    products[n + 1] = Interval.point(1.0);
+    for (int i = n; i >= 1; --i) {
+      products[i] = forward(list.get(i)).multiply(products[i + 1]);
+    }
+    return products;
+  }
+
+}
@@ -0,0 +1,106 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+/**
+ * Every symbol describing a single channel, built once per channel and
+ * handed out by SymbolNameGenerator for the rest of the compile so that
+ * strategies do not each rebuild the same names
+ */
+public class ChannelSymbols {
+
+  private final Symbol length;
+  private final Symbol flowRate;
+  private final Symbol flowRateWorstCase;
+  private final Symbol viscosity;
+  private final Symbol resistance;
+  private final Symbol dropletVolume;
+  private final Symbol dropletVolumeWorstCase;
+  private final Symbol dropletResistance;
+  private final Symbol dropletVelocity;
+  private final Symbol dropletFrequency;
+  private final Symbol dropletSpacing;
+  private final Symbol maxDroplets;
+  private final Symbol height;
+  private final Symbol width;
+
+  /**
+   * @param channelName  Name of the channel (connection) in the schematic
+   */
+  public ChannelSymbols(String channelName) {
+    length = Symbol.of(channelName + "_length");
+    flowRate = Symbol.of(channelName + "_flowrate");
+    flowRateWorstCase = Symbol.of(channelName + "_flowrate_worst_case");
+    viscosity = Symbol.of(channelName + "_viscosity");
+    resistance = Symbol.of(channelName + "_resistance");
+    dropletVolume = Symbol.of(channelName + "_droplet_volume");
+    dropletVolumeWorstCase = Symbol.of(
+        channelName + "_droplet_volume_worst_case");
+    dropletResistance = Symbol.of(channelName + "_droplet_resistance");
+    dropletVelocity = Symbol.of(channelName + "_droplet_velocity");
+    dropletFrequency = Symbol.of(channelName + "_droplet_frequency");
+    dropletSpacing = Symbol.of(channelName + "_droplet_spacing");
+    maxDroplets = Symbol.of(channelName + "_max_droplets");
+    height = Symbol.of(channelName + "_height");
+    width = Symbol.of(channelName + "_width");
+  }
+
+  public Symbol getLength() {
+    return length;
+  }
+
+  /**
+   * Positive flow is in the direction into the "from" connection
+   * and out of the "to" connection, i.e. (from) --(ch)-> (to).
+   */
+  public Symbol getFlowRate() {
+    return flowRate;
+  }
+
+  public Symbol getFlowRateWorstCase() {
+    return flowRateWorstCase;
+  }
+
+  public Symbol getViscosity() {
+    return viscosity;
+  }
+
+  public Symbol getResistance() {
+    return resistance;
+  }
+
+  public Symbol getDropletVolume() {
+    return dropletVolume;
+  }
+
+  public Symbol getDropletVolumeWorstCase() {
+    return dropletVolumeWorstCase;
+  }
+
+  public Symbol getDropletResistance() {
+    return dropletResistance;
+  }
+
+  public Symbol getDropletVelocity() {
+    return dropletVelocity;
+  }
+
+  public Symbol getDropletFrequency() {
+    return dropletFrequency;
+  }
+
+  public Symbol getDropletSpacing() {
+    return dropletSpacing;
+  }
+
+  public Symbol getMaxDroplets() {
+    return maxDroplets;
+  }
+
+  public Symbol getHeight() {
+    return height;
+  }
+
+  public Symbol getWidth() {
+    return width;
+  }
+
+}
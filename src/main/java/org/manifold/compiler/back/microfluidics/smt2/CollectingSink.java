@@ -0,0 +1,28 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Sink that keeps every expression emitted into it, in order, for code that
+ * wants the whole translation as a list
+ */
+public class CollectingSink implements ExpressionSink {
+
+  private final List<SExpression> exprs = new LinkedList<>();
+  /**
+   * @return Every expression emitted so far, in the order they were emitted
+   */
+  public List<SExpression> getExpressions() {
+    return exprs;
+  }
+  
+  @Override
+  public void emit(SExpression expr) {
+    exprs.add(expr);
+  }
+  
+  @Override
+  public void close() { }
+  
+}
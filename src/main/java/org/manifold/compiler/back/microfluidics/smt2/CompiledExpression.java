@@ -0,0 +1,329 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.Arrays;
+
+/**
+ * An arithmetic or comparison term lowered by ExpressionCompiler to a flat
+ * postfix program over a value stack. Variables are read from a double[]
+ * of slots indexed by Symbol.getId(); comparisons and ite conditions use
+ * 1.0 for true and 0.0 for false.
+ *
+ * Evaluating a program does not allocate. evaluate(slots) uses a stack owned
+ * by the program and is therefore not thread-safe; threads sharing a program
+ * should each pass their own stack from newStack().
+ *
+ * A program can also be evaluated over a batch of bindings at once, given
+ * one column of values per variable. Each instruction is then applied to a
+ * whole block of rows in a simple loop, which the JIT can vectorize.
+ */
+public final class CompiledExpression implements ExpressionEvaluator {
+
+  // opcodes; CONST and LOAD are followed by an operand in the code
+  static final int CONST = 0;
+  static final int LOAD = 1;
+  static final int ADD = 2;
+  static final int SUB = 3;
+  static final int MUL = 4;
+  static final int DIV = 5;
+  static final int POW = 6;
+  static final int NEG = 7;
+  static final int ARCSIN = 8;
+  static final int ITE = 9;
+  static final int EQ = 10;
+  static final int LT = 11;
+  static final int LE = 12;
+  static final int GT = 13;
+  static final int GE = 14;
+
+  private final int[] code;
+  private final double[] constants;
+  private final int[] symbolIds;
+  private final int maxStackDepth;
+  private final double[] stack;
+
+  CompiledExpression(int[] code, double[] constants, int[] symbolIds,
+      int maxStackDepth) {
+    this.code = code;
+    this.constants = constants;
+    this.symbolIds = symbolIds;
+    this.maxStackDepth = maxStackDepth;
+    this.stack = newStack();
+  }
+
+  /**
+   * @return Ids of the symbols read by the program, in increasing order
+   */
+  public int[] getSymbolIds() {
+    return symbolIds.clone();
+  }
+
+  /**
+   * @return Number of distinct symbols read by the program
+   */
+  public int getSymbolCount() {
+    return symbolIds.length;
+  }
+
+  /**
+   * @param i  Index between 0 and getSymbolCount() - 1
+   * @return Id of the i-th symbol read by the program, in increasing order
+   */
+  public int getSymbolId(int i) {
+    return symbolIds[i];
+  }
+
+  /**
+   * @return Smallest length of a slot array holding every symbol the
+   * program reads
+   */
+  public int getSlotCount() {
+    if (symbolIds.length == 0) {
+      return 0;
+    }
+    return symbolIds[symbolIds.length - 1] + 1;
+  }
+
+  /**
+   * @return Number of instructions, a measure of evaluation cost
+   */
+  public int getLength() {
+    return code.length;
+  }
+
+  /**
+   * @return A stack large enough to evaluate this program with
+   */
+  public double[] newStack() {
+    return new double[Math.max(1, maxStackDepth)];
+  }
+
+  /**
+   * Evaluate the program using its own stack
+   *
+   * @param slots  Value of each variable, indexed by symbol id
+   * @return Value of the term
+   */
+  public double evaluate(double[] slots) {
+    return evaluate(slots, stack);
+  }
+
+  /**
+   * Same as evaluate(vars), and likewise not thread-safe
+   */
+  @Override
+  public double eval(double[] vars) {
+    return evaluate(vars, stack);
+  }
+
+  /**
+   * @param width  Largest number of rows evaluated at once
+   * @return A stack large enough to evaluate this program over width rows
+   */
+  public double[][] newBatchStack(int width) {
+    return new double[Math.max(1, maxStackDepth)][width];
+  }
+
+  /**
+   * Evaluate the program over the rows from (inclusive) to to (exclusive) of
+   * a batch of bindings
+   *
+   * @param columns  Values of each variable, indexed by symbol id and then by
+   * row; every symbol the program reads must have a column
+   * @param from  First row to evaluate
+   * @param to  Row after the last row to evaluate
+   * @param stack  Scratch space from newBatchStack(), at least to - from wide
+   * @param result  Receives the value of each row, at the index of the row
+   */
+  public void evaluate(double[][] columns, int from, int to,
+      double[][] stack, double[] result) {
+    int n = to - from;
+    int sp = -1;
+    int pc = 0;
+    double[] a;
+    double[] b;
+    double[] c;
+    while (pc < code.length) {
+      switch (code[pc++]) {
+        case CONST:
+          Arrays.fill(stack[++sp], 0, n, constants[code[pc++]]);
+          break;
+        case LOAD:
+          System.arraycopy(columns[code[pc++]], from, stack[++sp], 0, n);
+          break;
+        case ADD:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] += b[i];
+          }
+          break;
+        case SUB:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] -= b[i];
+          }
+          break;
+        case MUL:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] *= b[i];
+          }
+          break;
+        case DIV:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] /= b[i];
+          }
+          break;
+        case POW:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] = Math.pow(a[i], b[i]);
+          }
+          break;
+        case NEG:
+          a = stack[sp];
+          for (int i = 0; i < n; ++i) {
+            a[i] = -a[i];
+          }
+          break;
+        case ARCSIN:
+          a = stack[sp];
+          for (int i = 0; i < n; ++i) {
+            a[i] = Math.asin(a[i]);
+          }
+          break;
+        case ITE:
+          sp -= 2;
+          a = stack[sp];
+          b = stack[sp + 1];
+          c = stack[sp + 2];
+          for (int i = 0; i < n; ++i) {
+            a[i] = (a[i] != 0.0) ? b[i] : c[i];
+          }
+          break;
+        case EQ:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] = (a[i] == b[i]) ? 1.0 : 0.0;
+          }
+          break;
+        case LT:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] = (a[i] < b[i]) ? 1.0 : 0.0;
+          }
+          break;
+        case LE:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] = (a[i] <= b[i]) ? 1.0 : 0.0;
+          }
+          break;
+        case GT:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] = (a[i] > b[i]) ? 1.0 : 0.0;
+          }
+          break;
+        case GE:
+          a = stack[--sp];
+          b = stack[sp + 1];
+          for (int i = 0; i < n; ++i) {
+            a[i] = (a[i] >= b[i]) ? 1.0 : 0.0;
+          }
+          break;
+        default:
+          throw new IllegalStateException(
+              "corrupt program, unknown opcode " + code[pc - 1]);
+      }
+    }
+    System.arraycopy(stack[0], 0, result, from, n);
+  }
+
+  /**
+   * Evaluate the program
+   *
+   * @param slots  Value of each variable, indexed by symbol id
+   * @param stack  Scratch space from newStack()
+   * @return Value of the term
+   */
+  public double evaluate(double[] slots, double[] stack) {
+    int sp = -1;
+    int pc = 0;
+    while (pc < code.length) {
+      switch (code[pc++]) {
+        case CONST:
+          stack[++sp] = constants[code[pc++]];
+          break;
+        case LOAD:
+          stack[++sp] = slots[code[pc++]];
+          break;
+        case ADD:
+          --sp;
+          stack[sp] += stack[sp + 1];
+          break;
+        case SUB:
+          --sp;
+          stack[sp] -= stack[sp + 1];
+          break;
+        case MUL:
+          --sp;
+          stack[sp] *= stack[sp + 1];
+          break;
+        case DIV:
+          --sp;
+          stack[sp] /= stack[sp + 1];
+          break;
+        case POW:
+          --sp;
+          stack[sp] = Math.pow(stack[sp], stack[sp + 1]);
+          break;
+        case NEG:
+          stack[sp] = -stack[sp];
+          break;
+        case ARCSIN:
+          stack[sp] = Math.asin(stack[sp]);
+          break;
+        case ITE:
+          // both branches have been evaluated; keep the chosen one
+          sp -= 2;
+          stack[sp] = (stack[sp] != 0.0) ? stack[sp + 1] : stack[sp + 2];
+          break;
+        case EQ:
+          --sp;
+          stack[sp] = (stack[sp] == stack[sp + 1]) ? 1.0 : 0.0;
+          break;
+        case LT:
+          --sp;
+          stack[sp] = (stack[sp] < stack[sp + 1]) ? 1.0 : 0.0;
+          break;
+        case LE:
+          --sp;
+          stack[sp] = (stack[sp] <= stack[sp + 1]) ? 1.0 : 0.0;
+          break;
+        case GT:
+          --sp;
+          stack[sp] = (stack[sp] > stack[sp + 1]) ? 1.0 : 0.0;
+          break;
+        case GE:
+          --sp;
+          stack[sp] = (stack[sp] >= stack[sp + 1]) ? 1.0 : 0.0;
+          break;
+        default:
+          throw new IllegalStateException(
+              "corrupt program, unknown opcode " + code[pc - 1]);
+      }
+    }
+    return stack[0];
+  }
+
+}
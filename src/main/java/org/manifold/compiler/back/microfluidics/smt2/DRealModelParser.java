@@ -0,0 +1,345 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the answers of dReal straight from the bytes of its output. Model
+ * lines of the form
+ *
+ *   x : [ ENTIRE ] = [0.99, 1.01]
+ *
+ * are scanned in place: the name is looked up by its bytes in the symbol
+ * table and the bounds are parsed without making any Strings, and written
+ * into the bound arrays of a DRealSolver.Result. Parsing a
+ * model with many variables therefore allocates next to nothing.
+ *
+ * A parser belongs to one dReal process and is not thread-safe.
+ */
+public class DRealModelParser {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private static final byte[] DELTA_SAT =
+      "delta-sat".getBytes(StandardCharsets.US_ASCII);
+
+  // significant digits accumulated before falling back; 10^18 fits a long
+  private static final int MAX_DIGITS = 18;
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  // exactly representable powers of ten, see parseDouble
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1.0;
+    for (int i = 1; i < POWERS_OF_TEN.length; ++i) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+    }
+  }
+
+  private final InputStream in;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position = 0;
+  private int limit = 0;
+
+  // the line being parsed
+  private byte[] line = new byte[256];
+  private int lineLength = 0;
+
+  /**
+   * @param in  Output of a dReal process
+   */
+  public DRealModelParser(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Read a whole line, e.g. the first line of an answer
+   *
+   * @return The line without its line break, or null at the end of input
+   * @throws IOException  If reading from the process fails
+   */
+  public String readLine() throws IOException {
+    if (!nextLine()) {
+      return null;
+    }
+    return new String(line, 0, lineLength, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Read model lines up to and including the line starting with delta-sat,
+   * which ends the model, and store the bounds of each variable in model
+   *
+   * @param model  Receives the bounds
+   * @throws IOException  If reading from the process fails, or the output
+   * ends before the model does
+   * @throws IllegalArgumentException  If a line is not a model line
+   */
+  public void readModel(DRealSolver.Result model) throws IOException {
+    while (true) {
+      if (!nextLine()) {
+        throw new IOException("dReal output ended before delta-sat");
+      }
+      if (startsWith(DELTA_SAT)) {
+        return;
+      }
+      if (skipSpaces(0, lineLength) == lineLength) {
+        // skip blank lines
+        continue;
+      }
+      parseModelLine(model);
+    }
+  }
+
+  /**
+   * Parse the current line, which must be of the form
+   * x : [ ****** ] = [999.99, 999.99]
+   */
+  private void parseModelLine(DRealSolver.Result model) {
+    int colon = indexOf((byte) ':', 0);
+    if (colon == -1) {
+      throw invalid("no separator colon found");
+    }
+    int equals = indexOf((byte) '=', colon + 1);
+    if (equals == -1) {
+      throw invalid("no equals sign found");
+    }
+    int begin = indexOf((byte) '[', equals + 1);
+    if (begin == -1) {
+      throw invalid("no range [ found");
+    }
+    int comma = indexOf((byte) ',', begin + 1);
+    if (comma == -1) {
+      throw invalid("no comma found in range");
+    }
+    int end = indexOf((byte) ']', comma + 1);
+    if (end == -1) {
+      throw invalid("no range ] found");
+    }
+    int nameStart = skipSpaces(0, colon);
+    int nameEnd = colon;
+    while (nameEnd > nameStart && isSpace(line[nameEnd - 1])) {
+      --nameEnd;
+    }
+    if (nameStart == nameEnd) {
+      throw invalid("no symbol name found");
+    }
+    Symbol sym = resolve(nameStart, nameEnd - nameStart);
+    double lower = parseDouble(begin + 1, comma);
+    double upper = parseDouble(comma + 1, end);
+    model.setBounds(sym.getId(), lower, upper);
+  }
+
+  private IllegalArgumentException invalid(String reason) {
+    return new IllegalArgumentException("invalid input '"
+        + new String(line, 0, lineLength, StandardCharsets.UTF_8) + "', "
+        + reason);
+  }
+
+  /**
+   * Read the next line of output into line
+   *
+   * @return False at the end of input
+   */
+  private boolean nextLine() throws IOException {
+    lineLength = 0;
+    boolean any = false;
+    while (true) {
+      if (position == limit) {
+        limit = in.read(buffer);
+        position = 0;
+        if (limit <= 0) {
+          limit = 0;
+          return any;
+        }
+      }
+      any = true;
+      int start = position;
+      while (position < limit && buffer[position] != '\n') {
+        ++position;
+      }
+      append(start, position);
+      if (position < limit) {
+        // consume the line break
+        ++position;
+        if (lineLength > 0 && line[lineLength - 1] == '\r') {
+          --lineLength;
+        }
+        return true;
+      }
+    }
+  }
+
+  private void append(int from, int to) {
+    int length = to - from;
+    if (lineLength + length > line.length) {
+      line = Arrays.copyOf(line, Math.max(2 * line.length,
+          lineLength + length));
+    }
+    System.arraycopy(buffer, from, line, lineLength, length);
+    lineLength += length;
+  }
+
+  private boolean startsWith(byte[] prefix) {
+    if (lineLength < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; ++i) {
+      if (line[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(byte b, int from) {
+    for (int i = from; i < lineLength; ++i) {
+      if (line[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t';
+  }
+
+  private int skipSpaces(int from, int to) {
+    while (from < to && isSpace(line[from])) {
+      ++from;
+    }
+    return from;
+  }
+
+  /**
+   * @return The symbol whose name is the given bytes of line, interning
+   * it if no symbol has this name yet
+   */
+  private Symbol resolve(int offset, int length) {
+    Symbol sym = SymbolTable.lookup(line, offset, length);
+    if (sym == null) {
+      // a name that was never declared; only now make a String of it
+      sym = SymbolTable.intern(new String(line, offset, length,
+          StandardCharsets.UTF_8));
+    }
+    return sym;
+  }
+
+  /**
+   * Parse the number in line[from, to), surrounded by any number of spaces.
+   * A number whose significant digits, less trailing zeros, fit in 53 bits
+   * and whose decimal exponent is at most 22 is parsed exactly by a single
+   * multiplication or division (Clinger's fast path); any other number
+   * falls back to Double.parseDouble. "inf" and "-inf" are infinite.
+   */
+  private double parseDouble(int from, int to) {
+    int start = skipSpaces(from, to);
+    int end = to;
+    while (end > start && isSpace(line[end - 1])) {
+      --end;
+    }
+    int i = start;
+    boolean negative = false;
+    if (i < end && (line[i] == '-' || line[i] == '+')) {
+      negative = line[i] == '-';
+      ++i;
+    }
+    if (i < end && (line[i] == 'i' || line[i] == 'I')) {
+      if (end - i == 3 && (line[i + 1] | 0x20) == 'n'
+          && (line[i + 2] | 0x20) == 'f') {
+        return negative ? Double.NEGATIVE_INFINITY
+            : Double.POSITIVE_INFINITY;
+      }
+      return slowParseDouble(start, end);
+    }
+    long mantissa = 0;
+    int digits = 0;
+    // value is mantissa * 10^(zeros + exponent)
+    int zeros = 0;
+    int exponent = 0;
+    boolean anyDigit = false;
+    boolean point = false;
+    for (; i < end; ++i) {
+      byte c = line[i];
+      if (c >= '0' && c <= '9') {
+        anyDigit = true;
+        if (point) {
+          --exponent;
+        }
+        if (c == '0') {
+          // leading zeros are not significant, and trailing ones (dReal
+          // pads its numbers, e.g. 1.000000000000000) are only counted
+          if (mantissa != 0) {
+            ++zeros;
+          }
+          continue;
+        }
+        digits += zeros + 1;
+        if (digits > MAX_DIGITS) {
+          return slowParseDouble(start, end);
+        }
+        for (; zeros > 0; --zeros) {
+          mantissa *= 10;
+        }
+        mantissa = 10 * mantissa + (c - '0');
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        break;
+      }
+    }
+    if (!anyDigit) {
+      return slowParseDouble(start, end);
+    }
+    if (i < end && (line[i] == 'e' || line[i] == 'E')) {
+      ++i;
+      boolean negativeExponent = false;
+      if (i < end && (line[i] == '-' || line[i] == '+')) {
+        negativeExponent = line[i] == '-';
+        ++i;
+      }
+      if (i == end) {
+        return slowParseDouble(start, end);
+      }
+      int e = 0;
+      for (; i < end; ++i) {
+        byte c = line[i];
+        if (c < '0' || c > '9' || e > 100000) {
+          return slowParseDouble(start, end);
+        }
+        e = 10 * e + (c - '0');
+      }
+      exponent += negativeExponent ? -e : e;
+    }
+    if (i != end) {
+      return slowParseDouble(start, end);
+    }
+    exponent += zeros;
+    double value;
+    if (mantissa > MAX_EXACT_MANTISSA) {
+      return slowParseDouble(start, end);
+    } else if (mantissa == 0) {
+      value = 0.0;
+    } else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+      value = mantissa * POWERS_OF_TEN[exponent];
+    } else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+      value = mantissa / POWERS_OF_TEN[-exponent];
+    } else {
+      return slowParseDouble(start, end);
+    }
+    return negative ? -value : value;
+  }
+
+  private double slowParseDouble(int from, int to) {
+    String number = new String(line, from, to - from,
+        StandardCharsets.US_ASCII);
+    try {
+      return Double.parseDouble(number);
+    } catch (NumberFormatException e) {
+      throw invalid("'" + number + "' is not a number");
+    }
+  }
+
+}
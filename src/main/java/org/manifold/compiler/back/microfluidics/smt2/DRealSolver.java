@@ -1,17 +1,23 @@
 package org.manifold.compiler.back.microfluidics.smt2;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.util.HashMap;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Sends valid QF_NRA expression to dReal through the command line for it 
@@ -31,7 +37,7 @@ public class DRealSolver implements AutoCloseable {
    * @author Murphy? Comments by Josh
    *
    */
-  class RealRange {
+  public static class RealRange {
     public final double lowerBound;
     public final double upperBound;
     
@@ -52,30 +58,118 @@ public class DRealSolver implements AutoCloseable {
    * @author Murphy? Comments by Josh
    *
    */
-  class Result {
-    private final boolean satisfiable;
+  public static class Result {
+    /**
+     * Answer of dReal to a formula: SAT (delta-satisfiable) or UNSAT, or
+     * UNKNOWN if dReal could not decide, or TIMEOUT if it was stopped
+     * before it answered
+     */
+    public enum Status {
+      SAT, UNSAT, UNKNOWN, TIMEOUT
+    }
+    
+    private final Status status;
+    public Status getStatus() {
+      return status;
+    }
+    
     /**
      * If this expression is satisfiable this returns true, this is 
      * @return
      */
     public boolean isSatisfiable() {
-      return this.satisfiable;
+      return status == Status.SAT;
+    }
+    
+    /**
+     * Provides the range of values (lower, upper) allowed for each variable,
+     * indexed by symbol id; NaN for symbols that are not part of the model
+     */
+    private double[] lowerBounds = new double[0];
+    private double[] upperBounds = new double[0];
+    
+    /**
+     * Set the range of the variable having a symbol id, see Symbol.getId
+     */
+    void setBounds(int id, double lower, double upper) {
+      if (id >= lowerBounds.length) {
+        int length = Math.max(id + 1, 2 * lowerBounds.length);
+        int oldLength = lowerBounds.length;
+        lowerBounds = Arrays.copyOf(lowerBounds, length);
+        upperBounds = Arrays.copyOf(upperBounds, length);
+        Arrays.fill(lowerBounds, oldLength, length, Double.NaN);
+        Arrays.fill(upperBounds, oldLength, length, Double.NaN);
+      }
+      lowerBounds[id] = lower;
+      upperBounds[id] = upper;
     }
     
     /**
-     * Provides the range of values (lower, upper) allowed for any Symbol object
-     * as a RealRange object
+     * @return Lower bound of each variable reported by dReal, indexed by
+     * symbol id and NaN for symbols that are not part of the model; must
+     * not be modified
      */
-    private Map<Symbol, RealRange> ranges;
+    public double[] getLowerBounds() {
+      return lowerBounds;
+    }
     
     /**
-     * Returns the range of a Symbol object
+     * @return Upper bound of each variable reported by dReal, indexed like
+     * getLowerBounds; must not be modified
+     */
+    public double[] getUpperBounds() {
+      return upperBounds;
+    }
+    
+    private RealRange reportedRange(Symbol sym) {
+      int id = sym.getId();
+      if (id >= lowerBounds.length || Double.isNaN(lowerBounds[id])) {
+        return null;
+      }
+      return new RealRange(lowerBounds[id], upperBounds[id]);
+    }
+    
+    /**
+     * Definitions of the variables eliminated from the formula before it was
+     * solved, in terms of the variables dReal reported
+     */
+    private final Map<Symbol, LinearExpr> eliminated;
+    
+    /**
+     * Returns the range of a Symbol object. The range of a variable that was
+     * eliminated by presolving is derived from the ranges of the variables
+     * in its definition.
      * 
      * @param sym  Symbol object
-     * @return RealRange object for that Symbol with lower and upper attributes
+     * @return RealRange object for that Symbol with lower and upper
+     * attributes, or null if the symbol is not part of the model
      */
     public RealRange getRange(Symbol sym) {
-      return ranges.get(sym);
+      RealRange range = reportedRange(sym);
+      if (range != null) {
+        return range;
+      }
+      LinearExpr definition = eliminated.get(sym);
+      if (definition == null) {
+        return null;
+      }
+      double lower = definition.getConstant();
+      double upper = definition.getConstant();
+      for (Symbol var : definition.getVariables()) {
+        RealRange varRange = reportedRange(var);
+        if (varRange == null) {
+          return null;
+        }
+        double coefficient = definition.getCoefficient(var);
+        if (coefficient > 0) {
+          lower += coefficient * varRange.lowerBound;
+          upper += coefficient * varRange.upperBound;
+        } else {
+          lower += coefficient * varRange.upperBound;
+          upper += coefficient * varRange.lowerBound;
+        }
+      }
+      return new RealRange(lower, upper);
     }
     
     /**
@@ -90,19 +184,52 @@ public class DRealSolver implements AutoCloseable {
      */
     public void addResult(String symbolName, 
         String lowerBound, String upperBound) {
-      Symbol sym = new Symbol(symbolName);
+      Symbol sym = Symbol.of(symbolName);
       double lb = Double.parseDouble(lowerBound);
       double ub = Double.parseDouble(upperBound);
-      RealRange range = new RealRange(lb, ub);
-      ranges.put(sym, range);
+      setBounds(sym.getId(), lb, ub);
     }
     
     public Result(boolean satisfiable) {
-      this.satisfiable = satisfiable;
-      this.ranges = new HashMap<>();
+      this(satisfiable, Collections.<Symbol, LinearExpr>emptyMap());
+    }
+    
+    /**
+     * @param satisfiable  Whether dReal found the formula satisfiable
+     * @param eliminated  Definitions of the variables eliminated before
+     * solving, see LinearPresolver.getEliminatedVariables
+     */
+    public Result(boolean satisfiable, Map<Symbol, LinearExpr> eliminated) {
+      this(satisfiable ? Status.SAT : Status.UNSAT, eliminated);
+    }
+    
+    /**
+     * @param status  Answer of dReal
+     * @param eliminated  Definitions of the variables eliminated before
+     * solving, see LinearPresolver.getEliminatedVariables
+     */
+    public Result(Status status, Map<Symbol, LinearExpr> eliminated) {
+      this.status = status;
+      this.eliminated = eliminated;
     }
   }
   
+  /**
+   * Kills the processes of asynchronous solves that run out of time
+   */
+  private static final ScheduledExecutorService TIMEOUTS =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dReal-timeouts");
+        thread.setDaemon(true);
+        return thread;
+      });
+  
+  /**
+   * Longest timeout that can be scheduled; longer ones are clamped to it
+   */
+  private static final Duration MAX_TIMEOUT =
+      Duration.ofNanos(Long.MAX_VALUE);
+  
   private static String pathToDReal = null;
   
   /**
@@ -140,9 +267,36 @@ public class DRealSolver implements AutoCloseable {
     }
   }
  
+  private Map<Symbol, LinearExpr> eliminated =
+      Collections.<Symbol, LinearExpr>emptyMap();
+  /**
+   * Tell the solver which variables were eliminated from the formula it is
+   * given, so that the Result still reports a range for each of them
+   * 
+   * @param eliminated  Definitions of the eliminated variables, as returned
+   * by LinearPresolver.getEliminatedVariables
+   */
+  public void setEliminatedVariables(Map<Symbol, LinearExpr> eliminated) {
+    this.eliminated = eliminated;
+  }
+  
+  private double precision = 0;
+  /**
+   * Set the precision (delta) dReal solves with, passed as --precision when
+   * the session is opened; 0 leaves dReal's default
+   * 
+   * @param precision  Precision to solve with
+   */
+  public void setPrecision(double precision) {
+    this.precision = precision;
+  }
+  
   private Process dRealProcess = null;
+  // set once the session can no longer take expressions; read by pools
+  // and callers on other threads than the one ending the session
+  private volatile boolean ended = false;
   private BufferedWriter writer;
-  private BufferedReader reader;
+  private DRealModelParser reader;
   
   /**
    * Creates writer and reader objects that send a receive data from dReal
@@ -155,6 +309,11 @@ public class DRealSolver implements AutoCloseable {
     command.add(pathToDReal);
     command.add("--in");
     command.add("--model");
+    if (precision > 0) {
+      command.add("--precision");
+      // written out plainly, as dReal does not read E-notation
+      command.add(Decimal.toPlainString(BigDecimal.valueOf(precision)));
+    }
     ProcessBuilder builder = new ProcessBuilder(command);
     builder.redirectErrorStream(true);
     dRealProcess = builder.start();
@@ -164,8 +323,7 @@ public class DRealSolver implements AutoCloseable {
     writer = new BufferedWriter(osw);
     
     InputStream is = dRealProcess.getInputStream();
-    InputStreamReader isr = new InputStreamReader(is);
-    reader = new BufferedReader(isr);
+    reader = new DRealModelParser(is);
     
     // TODO: If an SExpression is written (which already adds this line to
     // expression head when created) then it is sent twice which is unnecessary
@@ -203,7 +361,9 @@ public class DRealSolver implements AutoCloseable {
   
   /**
    * Parses the response from dReal to extract the upper and lower bounds on
-   * that Symbol determined by dReal
+   * that Symbol determined by dReal. Answers read from the dReal process are
+   * parsed by DRealModelParser instead, which does not need the line as a
+   * String.
    * 
    * @param model  Result object that contains the Symbol name and bounds
    * returned by dReal
@@ -264,19 +424,190 @@ public class DRealSolver implements AutoCloseable {
     write("(exit)");
     writer.flush();
     writer.close();
+    ended = true;
+    return readResult();
+  }
+  
+  /**
+   * Runs the dReal solver on the given expression like solve, without
+   * blocking the calling thread. The answer is read by a thread of its own.
+   * If dReal has not answered within the timeout, its process is killed
+   * and the future completes with a TIMEOUT result; cancelling the future
+   * kills the process as well. Either way the session is ended.
+   * 
+   * @param timeout  Longest time to wait for an answer; timeouts longer
+   * than Long.MAX_VALUE nanoseconds (about 292 years) are taken as that
+   * @return Future Result, completed exceptionally if dReal exits without
+   * an answer or answers unexpectedly
+   * @throws IOException  If input or output exception occurs when
+   * communicating with dRealProcess
+   * @throws IllegalArgumentException  If the timeout is negative, in which
+   * case the session is left open
+   */
+  public CompletableFuture<Result> solveAsync(Duration timeout)
+      throws IOException {
+    if (timeout.isNegative()) {
+      throw new IllegalArgumentException("negative timeout " + timeout);
+    }
+    // before ending the session, so that nothing is left running if the
+    // timeout cannot be converted
+    final long timeoutNanos = timeout.compareTo(MAX_TIMEOUT) > 0
+        ? Long.MAX_VALUE : timeout.toNanos();
+    write("(check-sat)");
+    write("(exit)");
+    writer.flush();
+    writer.close();
+    ended = true;
+    final Process process = dRealProcess;
+    final CompletableFuture<Result> future = new CompletableFuture<>();
+    Thread readerThread = new Thread(() -> {
+      try {
+        future.complete(readResult());
+      } catch (IOException | RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    }, "dReal-reader");
+    readerThread.setDaemon(true);
+    readerThread.start();
+    final Map<Symbol, LinearExpr> eliminatedNow = eliminated;
+    final ScheduledFuture<?> deadline = TIMEOUTS.schedule(() -> {
+      if (future.complete(new Result(Result.Status.TIMEOUT, eliminatedNow))) {
+        process.destroyForcibly();
+      }
+    }, timeoutNanos, TimeUnit.NANOSECONDS);
+    future.whenComplete((result, e) -> {
+      deadline.cancel(false);
+      if (future.isCancelled()) {
+        process.destroyForcibly();
+      }
+    });
+    return future;
+  }
+  
+  /**
+   * Runs the dReal solver on the expressions written so far without ending
+   * the session, so that more assertions can be checked against the same
+   * formula afterwards (see push and pop), or the session reset and given
+   * another formula
+   * 
+   * @return A Result object as returned by solve
+   * @throws IOException  As for solve
+   */
+  public Result checkSat() throws IOException {
+    write("(check-sat)");
+    writer.flush();
+    return readResult();
+  }
+  
+  private int scopeDepth = 0;
+  /**
+   * Opens a new scope. Declarations and assertions written after a push
+   * are discarded by the matching pop, e.g. to check several variants of a
+   * design against the same base formula.
+   * 
+   * @throws IOException  If input or output exception occurs when
+   * communicating with dRealProcess
+   */
+  public void push() throws IOException {
+    write("(push 1)");
+    ++scopeDepth;
+  }
+  
+  /**
+   * Closes the innermost scope opened by push
+   * 
+   * @throws IOException  If input or output exception occurs when
+   * communicating with dRealProcess
+   * @throws IllegalStateException  If no scope is open
+   */
+  public void pop() throws IOException {
+    if (scopeDepth == 0) {
+      throw new IllegalStateException("pop without a matching push");
+    }
+    write("(pop 1)");
+    --scopeDepth;
+  }
+  
+  /**
+   * @return Number of scopes opened by push and not yet closed by pop
+   */
+  public int getScopeDepth() {
+    return scopeDepth;
+  }
+  
+  /**
+   * Asserts a term in the current scope
+   * 
+   * @param term  dReal readable equality or inequality like (<= 3.0 x1)
+   * @throws IOException  If input or output exception occurs when
+   * communicating with dRealProcess
+   */
+  public void assertExpr(SExpression term) throws IOException {
+    write(QFNRA.assertThat(term));
+  }
+  
+  /**
+   * Discards every declaration and assertion written so far, leaving the
+   * dReal process ready for a new formula. Eliminated variables set with
+   * setEliminatedVariables are forgotten as well.
+   * 
+   * @throws IOException  If input or output exception occurs when
+   * communicating with dRealProcess
+   */
+  public void reset() throws IOException {
+    write("(reset)");
+    write("(set-logic QF_NRA)");
+    writer.flush();
+    scopeDepth = 0;
+    eliminated = Collections.<Symbol, LinearExpr>emptyMap();
+  }
+  
+  /**
+   * @return True if the session has been opened, has not been ended by
+   * solve or close, and the dReal process is still running
+   */
+  public boolean isOpen() {
+    return dRealProcess != null && !ended && dRealProcess.isAlive();
+  }
+  
+  /**
+   * @return The dReal process of the session, or null if it was never
+   * opened
+   */
+  Process getProcess() {
+    return dRealProcess;
+  }
+  
+  /**
+   * Wait for the dReal process of the session to exit, e.g. after the
+   * session has been closed
+   * 
+   * @param timeout  Longest time to wait
+   * @param unit  Unit of timeout
+   * @return True if the process has exited, or was never started
+   * @throws InterruptedException  If interrupted while waiting
+   */
+  public boolean awaitExit(long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return dRealProcess == null || dRealProcess.waitFor(timeout, unit);
+  }
+  
+  /**
+   * Reads the answer of dReal to a (check-sat)
+   */
+  private Result readResult() throws IOException {
     String result = reader.readLine();
+    if (result == null) {
+      throw new IOException("dReal exited without an answer");
+    }
     if (result.startsWith("unsat")) {
-      return new Result(false);
+      return new Result(false, eliminated);
+    } else if (result.startsWith("unknown")) {
+      return new Result(Result.Status.UNKNOWN, eliminated);
     } else if (result.startsWith("Solution:")) {
-      Result model = new Result(true);
+      Result model = new Result(true, eliminated);
       // parse lines until we see the final one
-      while (!((result = reader.readLine()).startsWith("delta-sat"))) {
-        // skip blank lines
-        if (result.trim().equals("")) {
-          continue;
-        }
-        interpretResultLine(model, result);
-      }
+      reader.readModel(model);
       return model;
     } else {
       throw new RuntimeException("dReal encountered an error: " + result);
@@ -286,6 +617,7 @@ public class DRealSolver implements AutoCloseable {
   @Override
   public void close() {
     if (dRealProcess != null) {
+      ended = true;
       dRealProcess.destroyForcibly();
     }
   }
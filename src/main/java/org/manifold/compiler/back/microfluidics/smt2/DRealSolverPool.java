@@ -0,0 +1,240 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps dReal processes running between formulas, so that solving many
+ * small formulas (e.g. one per candidate design of a sweep) does not start
+ * a new process for each of them.
+ *
+ * A session is leased with acquire, used through DRealSolver.write and
+ * Lease.checkSat, and handed back by closing the lease, which resets the
+ * session for the next formula. At most maxSize sessions exist at once;
+ * acquire blocks until one is free. Sessions left idle for longer than the
+ * idle timeout are ended, by a background reaper if the pool is not used in
+ * the meantime; close the pool to stop its reaper. The pool may be shared
+ * by several threads.
+ */
+public class DRealSolverPool implements AutoCloseable {
+
+  /**
+   * A session leased from the pool
+   */
+  public final class Lease implements AutoCloseable {
+    private final DRealSolver solver;
+    private boolean reusable = true;
+    private boolean released = false;
+
+    private Lease(DRealSolver solver) {
+      this.solver = solver;
+    }
+
+    /**
+     * @return The open session; do not call solve or close on it, which
+     * end the session, unless the lease is invalidated. Check the formula
+     * through the lease's checkSat rather than the session's.
+     */
+    public DRealSolver getSolver() {
+      return solver;
+    }
+
+    /**
+     * Check the formula written so far, as DRealSolver.checkSat. If dReal
+     * cannot be reached or answers unexpectedly the lease is invalidated,
+     * since whatever dReal has left unread would otherwise be taken as the
+     * answer to the next formula checked in the session.
+     *
+     * @return The answer of dReal
+     * @throws IOException  As for DRealSolver.checkSat
+     */
+    public DRealSolver.Result checkSat() throws IOException {
+      try {
+        return solver.checkSat();
+      } catch (IOException | RuntimeException e) {
+        invalidate();
+        throw e;
+      }
+    }
+
+    /**
+     * Do not return the session to the pool, e.g. because dReal answered
+     * unexpectedly and its state is unknown
+     */
+    public void invalidate() {
+      reusable = false;
+    }
+
+    /**
+     * Hand the session back to the pool
+     */
+    @Override
+    public void close() {
+      if (released) {
+        return;
+      }
+      released = true;
+      release(solver, reusable);
+    }
+  }
+
+  private static final class IdleSolver {
+    final DRealSolver solver;
+    final long idleSince;
+
+    IdleSolver(DRealSolver solver, long idleSince) {
+      this.solver = solver;
+      this.idleSince = idleSince;
+    }
+  }
+
+  // shortest time between two runs of the reaper of a pool
+  private static final long MIN_REAP_PERIOD_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final ScheduledExecutorService REAPER =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dReal-pool-reaper");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final long idleTimeoutNanos;
+  private final ScheduledFuture<?> reaper;
+  private final Semaphore permits;
+  // most recently used first
+  private final Deque<IdleSolver> idle = new ArrayDeque<>();
+  private boolean closed = false;
+
+  /**
+   * @param maxSize  Largest number of dReal processes running at once
+   * @param idleTimeout  How long a session may stay idle before its process
+   * is ended
+   * @param unit  Unit of idleTimeout
+   */
+  public DRealSolverPool(int maxSize, long idleTimeout, TimeUnit unit) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("pool size must be positive");
+    }
+    this.permits = new Semaphore(maxSize, true);
+    this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+    // runs twice per timeout, so an idle session outlives the timeout by at
+    // most half of it
+    long period = Math.max(idleTimeoutNanos / 2, MIN_REAP_PERIOD_NANOS);
+    this.reaper = REAPER.scheduleWithFixedDelay(this::reap, period, period,
+        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Lease a session, reusing an idle one if there is any, and otherwise
+   * starting a new dReal process. Blocks while maxSize sessions are leased.
+   *
+   * @return Lease of an open session with nothing declared or asserted
+   * @throws IOException  If a new dReal process cannot be started
+   * @throws InterruptedException  If interrupted while waiting
+   * @throws IllegalStateException  If the pool has been closed
+   */
+  public Lease acquire() throws IOException, InterruptedException {
+    permits.acquire();
+    try {
+      DRealSolver solver = takeIdle();
+      if (solver == null) {
+        solver = new DRealSolver();
+        solver.open();
+      }
+      return new Lease(solver);
+    } catch (IOException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * @return Number of sessions waiting to be leased again
+   */
+  public synchronized int getIdleCount() {
+    evictExpired(System.nanoTime());
+    return idle.size();
+  }
+
+  private synchronized DRealSolver takeIdle() {
+    if (closed) {
+      throw new IllegalStateException("pool has been closed");
+    }
+    evictExpired(System.nanoTime());
+    while (!idle.isEmpty()) {
+      DRealSolver solver = idle.pollFirst().solver;
+      if (solver.isOpen()) {
+        return solver;
+      }
+      solver.close();
+    }
+    return null;
+  }
+
+  /**
+   * Take back a leased session. A reusable session is reset and kept idle;
+   * reset only discards what was declared and asserted, and does not drain
+   * output of dReal that was never read, so a lease must be invalidated
+   * after any answer it did not expect (Lease.checkSat does this itself).
+   */
+  private void release(DRealSolver solver, boolean reusable) {
+    try {
+      if (reusable && solver.isOpen()) {
+        // outside the lock; this writes to the process
+        solver.reset();
+        synchronized (this) {
+          if (!closed) {
+            long now = System.nanoTime();
+            idle.addFirst(new IdleSolver(solver, now));
+            evictExpired(now);
+            solver = null;
+          }
+        }
+      }
+    } catch (IOException e) {
+      // the session is broken, end it
+    } finally {
+      if (solver != null) {
+        solver.close();
+      }
+      permits.release();
+    }
+  }
+
+  private synchronized void reap() {
+    evictExpired(System.nanoTime());
+  }
+
+  /**
+   * End the sessions idle for longer than the timeout, which are the least
+   * recently used ones
+   */
+  private void evictExpired(long now) {
+    while (!idle.isEmpty()
+        && now - idle.peekLast().idleSince > idleTimeoutNanos) {
+      idle.pollLast().solver.close();
+    }
+  }
+
+  /**
+   * End every idle session. Sessions still leased are ended when their
+   * lease is closed.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    reaper.cancel(false);
+    for (IdleSolver entry : idle) {
+      entry.solver.close();
+    }
+    idle.clear();
+  }
+
+}
@@ -2,6 +2,9 @@ package org.manifold.compiler.back.microfluidics.smt2;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
 
 /**
  * Defines an real decimal value in the as an SExpression that is in QF_NRA form
@@ -92,10 +95,71 @@ public class Decimal extends SExpression {
   /**
    * A decimal number for use in an SExpresion to send to dReal to solve
    * 
-   * @param value  Double that is stored as a string representing the decimal
+   * @param value  Double that is stored as a string representing the decimal,
+   * with the shortest digits that read back as the same double
+   * @throws IllegalArgumentException if value is not finite
    */
   public Decimal(double value) {
-    this.repr = Double.toString(value);
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new IllegalArgumentException(
+          "decimal must be finite, not " + value);
+    }
+    this.repr = toPlainString(BigDecimal.valueOf(value));
+  }
+  
+  /**
+   * A decimal number that is value rounded in a given direction, for when
+   * the written decimal must not lie on the wrong side of value, e.g. a
+   * lower bound rounded down
+   * 
+   * @param value  Double that is stored as a string representing the decimal
+   * @param rounding  FLOOR to never write more than value, CEILING to never
+   * write less
+   * @throws IllegalArgumentException if value is not finite
+   */
+  public Decimal(double value, RoundingMode rounding) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new IllegalArgumentException(
+          "decimal must be finite, not " + value);
+    }
+    // a double has at most 17 significant decimal digits worth keeping
+    this.repr = toPlainString(new BigDecimal(value).round(
+        new MathContext(17, rounding)));
+  }
+  
+  /**
+   * Write a decimal out in positional notation, since QF_NRA has no
+   * exponents: Double.toString gives e.g. 1.0E-4, which dReal rejects
+   * 
+   * @param value  Value to write out
+   * @return value as (numeral).(digits), with a minus sign if negative
+   */
+  static String toPlainString(BigDecimal value) {
+    String plain = value.stripTrailingZeros().toPlainString();
+    if (plain.indexOf('.') == -1) {
+      plain = plain.concat(".0");
+    }
+    return plain;
+  }
+  
+  /**
+   * Two decimals are equal if they are written out identically
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof Decimal)) {
+      return false;
+    }
+    Decimal that = (Decimal) other;
+    return this.getRepresentation().equals(that.getRepresentation());
+  }
+  
+  @Override
+  public int hashCode() {
+    return getRepresentation().hashCode();
   }
   
   @Override
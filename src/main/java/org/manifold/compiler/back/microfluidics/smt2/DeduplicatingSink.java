@@ -0,0 +1,170 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.manifold.compiler.back.microfluidics.CodeGenerationError;
+
+/**
+ * Drops repeated declarations, and optionally repeated assertions, before
+ * they reach dReal, which rejects a symbol declared twice. Several
+ * strategies declare the same symbols independently (e.g. node positions),
+ * so this sink sits at the head of the emission path.
+ *
+ * The first declaration of a symbol is kept and identical re-declarations
+ * are dropped; a re-declaration with a different signature is a code
+ * generation error naming the strategies that emitted both. This only
+ * remembers one declaration per symbol.
+ *
+ * Dropping repeated assertions is off by default: it has to remember every
+ * assertion emitted, so memory grows with the size of the formula and the
+ * assertions are kept alive after Smt2OutputSink has spilled them to disk.
+ * A repeated assertion is harmless to dReal, it only costs time to check
+ * again, so turn it on when strategies are known to repeat many of them.
+ * Expressions are compared by their cached structural hash, and since
+ * expressions built by QFNRA are hash-consed, equal ones are almost always
+ * the same instance, so each expression is checked in constant time.
+ */
+public class DeduplicatingSink extends ForwardingSink {
+
+  private static final Logger log =
+      LogManager.getLogger("DeduplicatingSink");
+
+  /**
+   * Origin reported for expressions emitted without one
+   */
+  private static final String UNKNOWN_ORIGIN = "(unknown)";
+
+  // first declaration of each symbol, and who emitted it
+  private final Map<Symbol, SExpression> declarations = new HashMap<>();
+  private final Map<Symbol, String> declaredBy = new HashMap<>();
+  // assertions seen so far, or null if they are not deduplicated
+  private final Set<SExpression> assertions;
+  private int droppedDeclarations = 0;
+  private int droppedAssertions = 0;
+
+  /**
+   * Drop repeated declarations only
+   *
+   * @param next  Sink receiving each declaration once
+   */
+  public DeduplicatingSink(ExpressionSink next) {
+    this(next, false);
+  }
+
+  /**
+   * @param next  Sink receiving each declaration once
+   * @param dropRepeatedAssertions  True to also pass each assertion on only
+   * once, at the cost of remembering all of them
+   */
+  public DeduplicatingSink(ExpressionSink next,
+      boolean dropRepeatedAssertions) {
+    super(next);
+    assertions = dropRepeatedAssertions ? new HashSet<>() : null;
+  }
+
+  @Override
+  public void emit(SExpression expr) {
+    emit(expr, UNKNOWN_ORIGIN);
+  }
+
+  /**
+   * @return A sink that emits into this one, attributing expressions to
+   * origin when reporting a conflicting declaration
+   */
+  @Override
+  public ExpressionSink withOrigin(final String origin) {
+    return new ExpressionSink() {
+      @Override
+      public void emit(SExpression expr) {
+        DeduplicatingSink.this.emit(expr, origin);
+      }
+
+      @Override
+      public ExpressionSink withOrigin(String nested) {
+        return DeduplicatingSink.this.withOrigin(nested);
+      }
+
+      @Override
+      public void close() {
+        // the producer does not own the underlying sink
+      }
+    };
+  }
+
+  private void emit(SExpression expr, String origin) {
+    Symbol declared = getDeclaredSymbol(expr);
+    if (declared != null) {
+      SExpression first = declarations.get(declared);
+      if (first == null) {
+        declarations.put(declared, expr);
+        declaredBy.put(declared, origin);
+      } else if (first.equals(expr)) {
+        ++droppedDeclarations;
+        return;
+      } else {
+        String message = "conflicting declarations of '" + declared
+            + "': " + first + " from " + declaredBy.get(declared)
+            + ", " + expr + " from " + origin;
+        log.error(message);
+        throw new CodeGenerationError(message);
+      }
+    } else if (assertions != null && isAssertion(expr)) {
+      if (!assertions.add(expr)) {
+        ++droppedAssertions;
+        return;
+      }
+    }
+    getNext().emit(expr);
+  }
+
+  /**
+   * @return Number of repeated declarations dropped so far
+   */
+  public int getDroppedDeclarations() {
+    return droppedDeclarations;
+  }
+
+  /**
+   * @return Number of repeated assertions dropped so far
+   */
+  public int getDroppedAssertions() {
+    return droppedAssertions;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (droppedDeclarations > 0 || droppedAssertions > 0) {
+      log.debug("dropped " + droppedDeclarations + " repeated declarations"
+          + " and " + droppedAssertions + " repeated assertions");
+    }
+    super.close();
+  }
+
+  /**
+   * @return The symbol declared by (declare-fun name ...), or null if expr
+   * is not a declaration
+   */
+  private static Symbol getDeclaredSymbol(SExpression expr) {
+    if (!(expr instanceof ParenList)) {
+      return null;
+    }
+    ParenList list = (ParenList) expr;
+    if (list.size() < 2 || !list.get(0).equals(QFNRA.DECLARE_FUN)
+        || !(list.get(1) instanceof Symbol)) {
+      return null;
+    }
+    return (Symbol) list.get(1);
+  }
+
+  private static boolean isAssertion(SExpression expr) {
+    return expr instanceof ParenList && ((ParenList) expr).size() == 2
+        && ((ParenList) expr).get(0).equals(QFNRA.ASSERT);
+  }
+
+}
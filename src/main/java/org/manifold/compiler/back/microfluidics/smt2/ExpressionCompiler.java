@@ -0,0 +1,169 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Lowers an arithmetic or comparison term to a CompiledExpression, which can
+ * then be evaluated any number of times without walking the expression tree
+ * again. Supported are numbers, variables, true and false, (+ ...), (- ...),
+ * (* ...), (/ a b), (^ a b), (arcsin a), (ite c a b) and the comparisons
+ * = < <= > >=.
+ */
+public class ExpressionCompiler {
+
+  private static final Map<Symbol, Integer> BINARY_OPCODES = new HashMap<>();
+  static {
+    BINARY_OPCODES.put(QFNRA.PLUS, CompiledExpression.ADD);
+    BINARY_OPCODES.put(QFNRA.MINUS, CompiledExpression.SUB);
+    BINARY_OPCODES.put(QFNRA.MULTIPLY, CompiledExpression.MUL);
+    BINARY_OPCODES.put(QFNRA.DIVIDE, CompiledExpression.DIV);
+    BINARY_OPCODES.put(QFNRA.POW, CompiledExpression.POW);
+    BINARY_OPCODES.put(QFNRA.EQUAL, CompiledExpression.EQ);
+    BINARY_OPCODES.put(QFNRA.LESS_THAN, CompiledExpression.LT);
+    BINARY_OPCODES.put(QFNRA.LESS_THAN_EQUAL, CompiledExpression.LE);
+    BINARY_OPCODES.put(QFNRA.GREATER, CompiledExpression.GT);
+    BINARY_OPCODES.put(QFNRA.GREATER_EQUAL, CompiledExpression.GE);
+  }
+
+  private int[] code = new int[16];
+  private int length = 0;
+  private final List<Double> constants = new ArrayList<>();
+  private final Map<Double, Integer> constantIndices = new HashMap<>();
+  private final TreeSet<Integer> symbolIds = new TreeSet<>();
+  private int depth = 0;
+  private int maxDepth = 0;
+
+  private ExpressionCompiler() { }
+
+  /**
+   * Compile a term
+   *
+   * @param expr  Term to compile
+   * @return Program computing the value of the term
+   * @throws ArithmeticException if the term uses a function that cannot be
+   * evaluated
+   */
+  public static CompiledExpression compile(SExpression expr) {
+    ExpressionCompiler compiler = new ExpressionCompiler();
+    compiler.emitTerm(expr);
+    double[] pool = new double[compiler.constants.size()];
+    for (int i = 0; i < pool.length; ++i) {
+      pool[i] = compiler.constants.get(i);
+    }
+    int[] ids = new int[compiler.symbolIds.size()];
+    int i = 0;
+    for (int id : compiler.symbolIds) {
+      ids[i++] = id;
+    }
+    return new CompiledExpression(Arrays.copyOf(compiler.code,
+        compiler.length), pool, ids, compiler.maxDepth);
+  }
+
+  private void emitTerm(SExpression expr) {
+    if (expr instanceof Numeral) {
+      emitConstant(((Numeral) expr).getValue());
+    } else if (expr instanceof Decimal) {
+      emitConstant(((Decimal) expr).getValue());
+    } else if (expr instanceof Symbol) {
+      if (expr.equals(QFNRA.TRUE)) {
+        emitConstant(1.0);
+      } else if (expr.equals(QFNRA.FALSE)) {
+        emitConstant(0.0);
+      } else {
+        int id = ((Symbol) expr).getId();
+        symbolIds.add(id);
+        emit(CompiledExpression.LOAD, id);
+        push();
+      }
+    } else if (expr instanceof ParenList) {
+      emitList((ParenList) expr);
+    } else {
+      throw new ArithmeticException("cannot evaluate expression " + expr);
+    }
+  }
+
+  private void emitList(ParenList list) {
+    if (list.isEmpty()) {
+      throw new ArithmeticException("cannot eval empty expression");
+    }
+    if (list.size() == 1) {
+      emitTerm(list.get(0));
+      return;
+    }
+    SExpression head = list.get(0);
+    if (!(head instanceof Symbol)) {
+      throw new ArithmeticException("first term of function "
+          + list.toString() + " must be a symbol");
+    }
+    Symbol func = (Symbol) head;
+    int arity = list.size() - 1;
+    if (func.equals(QFNRA.MINUS) && arity == 1) {
+      emitTerm(list.get(1));
+      emit(CompiledExpression.NEG);
+    } else if (func.equals(QFNRA.ARCSIN) && arity == 1) {
+      emitTerm(list.get(1));
+      emit(CompiledExpression.ARCSIN);
+    } else if (func.equals(QFNRA.ITE) && arity == 3) {
+      emitTerm(list.get(1));
+      emitTerm(list.get(2));
+      emitTerm(list.get(3));
+      emit(CompiledExpression.ITE);
+      pop();
+      pop();
+    } else if (BINARY_OPCODES.containsKey(func) && (arity == 2
+        || (arity > 2 && isChainable(func)))) {
+      // (op a b c) is ((a op b) op c)
+      int opcode = BINARY_OPCODES.get(func);
+      emitTerm(list.get(1));
+      for (int i = 2; i <= arity; ++i) {
+        emitTerm(list.get(i));
+        emit(opcode);
+        pop();
+      }
+    } else {
+      throw new ArithmeticException("cannot evaluate unknown function '"
+          + func + "' in expression " + list.toString());
+    }
+  }
+
+  private static boolean isChainable(Symbol func) {
+    return func.equals(QFNRA.PLUS) || func.equals(QFNRA.MINUS)
+        || func.equals(QFNRA.MULTIPLY) || func.equals(QFNRA.DIVIDE);
+  }
+
+  private void emitConstant(double value) {
+    Integer index = constantIndices.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantIndices.put(value, index);
+    }
+    emit(CompiledExpression.CONST, index);
+    push();
+  }
+
+  private void emit(int... instruction) {
+    if (length + instruction.length > code.length) {
+      code = Arrays.copyOf(code, Math.max(code.length * 2,
+          length + instruction.length));
+    }
+    for (int word : instruction) {
+      code[length++] = word;
+    }
+  }
+
+  private void push() {
+    ++depth;
+    maxDepth = Math.max(maxDepth, depth);
+  }
+
+  private void pop() {
+    --depth;
+  }
+
+}
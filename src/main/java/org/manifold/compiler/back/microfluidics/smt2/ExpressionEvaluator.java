@@ -0,0 +1,18 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+/**
+ * A term that has been compiled for repeated evaluation, either to a
+ * postfix program (ExpressionCompiler) or to a tree of method handles
+ * (MethodHandleCompiler)
+ */
+public interface ExpressionEvaluator {
+
+  /**
+   * Evaluate the term
+   * 
+   * @param vars  Value of each variable, indexed by Symbol.getId()
+   * @return Value of the term; comparisons give 1.0 for true, 0.0 for false
+   */
+  double eval(double[] vars);
+
+}
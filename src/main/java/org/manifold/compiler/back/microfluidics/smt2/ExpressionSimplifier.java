@@ -0,0 +1,437 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simplifies assertions before they are written out, so that dReal does not
+ * spend time on arithmetic that can be done once at compile time:
+ *
+ * - numeric subterms are folded, e.g. (- 1 (/ 3.0 4)) becomes 0.25;
+ * - the identities x*1, x+0, x-0, x/1 and x^1 are collapsed to x;
+ * - nested sums and products are flattened, (+ a (+ b c)) becomes (+ a b c),
+ *   and their numeric operands are folded into a single one;
+ * - the symbol PI is replaced by its value;
+ * - comparisons between numbers are decided, an (ite) whose condition was
+ *   decided is replaced by the chosen branch, and an assertion that became
+ *   true is dropped altogether.
+ *
+ * Folding is done in double precision. Anything that would not give a
+ * finite result (division by zero, arcsin outside [-1, 1], overflow) is left
+ * as it is, and a comparison is only decided if it is between numerals or
+ * rounding cannot change its outcome, so a simplified formula is satisfiable
+ * exactly when the original one is (up to dReal's own precision). Folded
+ * values are written as plain decimals, never in E-notation.
+ */
+public class ExpressionSimplifier {
+
+  /**
+   * Relative difference below which two folded values are considered too
+   * close to tell apart after rounding
+   */
+  private static final double COMPARISON_TOLERANCE = 1e-9;
+
+  private static final Symbol PI = SymbolNameGenerator.getsym_constant_pi();
+  private static final Decimal PI_VALUE = new Decimal(Math.PI);
+
+  // simplified form of every subterm seen in the current assertion
+  private final Map<SExpression, SExpression> simplified =
+      new IdentityHashMap<>();
+
+  private ExpressionSimplifier() { }
+
+  /**
+   * Simplify an assertion
+   *
+   * @param expr  Any expression; only (assert term) is simplified
+   * @return The simplified assertion, (assert true) if it always holds,
+   * or expr itself if it is not an assertion or defines PI
+   */
+  public static SExpression simplify(SExpression expr) {
+    if (AssertionChecker.isNonAssertion(expr) || isPiDefinition(expr)) {
+      return expr;
+    }
+    SExpression term = ((ParenList) expr).get(1);
+    SExpression result = new ExpressionSimplifier().simplifyShared(term);
+    if (result == term) {
+      return expr;
+    }
+    return SExpressionInterner.list(QFNRA.ASSERT, result);
+  }
+
+  /**
+   * Simplify a term on its own, outside of any assertion
+   *
+   * @param term  Arithmetic or comparison term
+   * @return The simplified term; comparisons that were decided become the
+   * symbol true or false
+   */
+  public static SExpression simplifyTerm(SExpression term) {
+    return new ExpressionSimplifier().simplifyShared(term);
+  }
+
+  /**
+   * Wrap a sink so that every assertion emitted into it is simplified first,
+   * and assertions that always hold are not passed on at all
+   *
+   * @param next  Sink receiving the simplified expressions
+   * @return Sink to emit the original expressions into
+   */
+  public static ExpressionSink simplifyingSink(ExpressionSink next) {
+    return new ForwardingSink(next) {
+      @Override
+      public void emit(SExpression expr) {
+        SExpression result = simplify(expr);
+        if (!isTrivial(result)) {
+          getNext().emit(result);
+        }
+      }
+    };
+  }
+
+  /**
+   * @return True if expr is (assert true)
+   */
+  public static boolean isTrivial(SExpression expr) {
+    // not an assertion as far as AssertionChecker is concerned, since its
+    // term is not a list
+    return expr instanceof ParenList && ((ParenList) expr).size() == 2
+        && ((ParenList) expr).get(0).equals(QFNRA.ASSERT)
+        && ((ParenList) expr).get(1).equals(QFNRA.TRUE);
+  }
+
+  /**
+   * The assertion giving PI its value is kept as it is, so that PI still has
+   * the right value in a model returned by dReal
+   */
+  private static boolean isPiDefinition(SExpression expr) {
+    SExpression term = ((ParenList) expr).get(1);
+    if (!(term instanceof ParenList)) {
+      return false;
+    }
+    ParenList eq = (ParenList) term;
+    return eq.size() == 3 && eq.get(0).equals(QFNRA.EQUAL)
+        && eq.get(1).equals(PI) && QFNRA.isNumber(eq.get(2));
+  }
+
+  /**
+   * Simplify a subterm, reusing the result for every other occurrence of the
+   * same (interned) subterm in the assertion
+   */
+  private SExpression simplifyShared(SExpression expr) {
+    if (!(expr instanceof ParenList)) {
+      if (expr.equals(PI)) {
+        return PI_VALUE;
+      }
+      return expr;
+    }
+    SExpression result = simplified.get(expr);
+    if (result == null) {
+      result = simplifyList((ParenList) expr);
+      simplified.put(expr, result);
+    }
+    return result;
+  }
+
+  private SExpression simplifyList(ParenList list) {
+    if (list.isEmpty() || !(list.get(0) instanceof Symbol)) {
+      return list;
+    }
+    Symbol op = (Symbol) list.get(0);
+    SExpression[] args = new SExpression[list.size() - 1];
+    boolean changed = false;
+    for (int i = 0; i < args.length; ++i) {
+      args[i] = simplifyShared(list.get(i + 1));
+      changed |= (args[i] != list.get(i + 1));
+    }
+    SExpression result = null;
+    if (op.equals(QFNRA.PLUS) || op.equals(QFNRA.MULTIPLY)) {
+      result = simplifyAssociative(op, args);
+    } else if (op.equals(QFNRA.MINUS)) {
+      result = simplifySubtract(args);
+    } else if (op.equals(QFNRA.DIVIDE)) {
+      result = simplifyDivide(args);
+    } else if (op.equals(QFNRA.POW)) {
+      result = simplifyPow(args);
+    } else if (op.equals(QFNRA.ARCSIN)) {
+      result = simplifyArcsin(args);
+    } else if (op.equals(QFNRA.ITE)) {
+      result = simplifyIte(args);
+    } else if (QFNRA.isComparison(op)) {
+      result = simplifyComparison(op, args);
+    }
+    if (result != null) {
+      return result;
+    }
+    if (!changed) {
+      return list;
+    }
+    return rebuild(op, args);
+  }
+
+  private static SExpression rebuild(Symbol op, SExpression... args) {
+    SExpression[] exprs = new SExpression[args.length + 1];
+    exprs[0] = op;
+    System.arraycopy(args, 0, exprs, 1, args.length);
+    return SExpressionInterner.list(exprs);
+  }
+
+  /**
+   * Flatten nested sums (products), fold their numeric operands into one
+   * leading constant and drop it if it is the identity of the operation
+   */
+  private SExpression simplifyAssociative(Symbol op, SExpression[] args) {
+    boolean sum = op.equals(QFNRA.PLUS);
+    List<SExpression> operands = new ArrayList<>();
+    flatten(op, args, operands);
+    List<SExpression> terms = new ArrayList<>();
+    List<SExpression> constants = new ArrayList<>();
+    for (SExpression operand : operands) {
+      if (QFNRA.isNumber(operand)) {
+        constants.add(operand);
+      } else {
+        terms.add(operand);
+      }
+    }
+    SExpression constant = null;
+    if (!constants.isEmpty()) {
+      constant = constants.get(0);
+      for (int i = 1; i < constants.size(); ++i) {
+        SExpression folded = sum
+            ? add(constant, constants.get(i))
+            : multiply(constant, constants.get(i));
+        if (folded == null) {
+          // overflow, keep the constants as they are
+          terms.addAll(0, constants);
+          constant = null;
+          break;
+        }
+        constant = folded;
+      }
+    }
+    if (constant != null && !isIdentity(constant, sum)) {
+      terms.add(0, constant);
+    }
+    if (terms.isEmpty()) {
+      return numeral(sum ? 0 : 1);
+    }
+    if (terms.size() == 1) {
+      return terms.get(0);
+    }
+    if (terms.size() == args.length && sameOperands(terms, args)) {
+      return null;
+    }
+    return rebuild(op, terms.toArray(new SExpression[terms.size()]));
+  }
+
+  private static void flatten(Symbol op, SExpression[] args,
+      List<SExpression> operands) {
+    for (SExpression arg : args) {
+      if (arg instanceof ParenList && ((ParenList) arg).size() > 1
+          && ((ParenList) arg).get(0).equals(op)) {
+        ParenList nested = (ParenList) arg;
+        SExpression[] nestedArgs = new SExpression[nested.size() - 1];
+        for (int i = 0; i < nestedArgs.length; ++i) {
+          nestedArgs[i] = nested.get(i + 1);
+        }
+        flatten(op, nestedArgs, operands);
+      } else {
+        operands.add(arg);
+      }
+    }
+  }
+
+  private static boolean sameOperands(List<SExpression> terms,
+      SExpression[] args) {
+    for (int i = 0; i < args.length; ++i) {
+      if (terms.get(i) != args[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isIdentity(SExpression constant, boolean sum) {
+    return QFNRA.getNumberValue(constant) == (sum ? 0.0 : 1.0);
+  }
+
+  private SExpression simplifySubtract(SExpression[] args) {
+    if (args.length == 1) {
+      if (QFNRA.isNumber(args[0])) {
+        return negate(args[0]);
+      }
+      return null;
+    }
+    if (args.length != 2) {
+      return null;
+    }
+    if (QFNRA.isNumber(args[0]) && QFNRA.isNumber(args[1])) {
+      return subtract(args[0], args[1]);
+    }
+    if (QFNRA.isNumber(args[1]) && QFNRA.getNumberValue(args[1]) == 0.0) {
+      return args[0];
+    }
+    return null;
+  }
+
+  private SExpression simplifyDivide(SExpression[] args) {
+    if (args.length != 2) {
+      return null;
+    }
+    if (QFNRA.isNumber(args[1]) && QFNRA.getNumberValue(args[1]) == 1.0) {
+      return args[0];
+    }
+    if (QFNRA.isNumber(args[0]) && QFNRA.isNumber(args[1])) {
+      return fold(
+          QFNRA.getNumberValue(args[0]) / QFNRA.getNumberValue(args[1]));
+    }
+    return null;
+  }
+
+  private SExpression simplifyPow(SExpression[] args) {
+    if (args.length != 2) {
+      return null;
+    }
+    if (QFNRA.isNumber(args[1]) && QFNRA.getNumberValue(args[1]) == 1.0) {
+      return args[0];
+    }
+    if (QFNRA.isNumber(args[0]) && QFNRA.isNumber(args[1])) {
+      return fold(Math.pow(QFNRA.getNumberValue(args[0]),
+          QFNRA.getNumberValue(args[1])));
+    }
+    return null;
+  }
+
+  private SExpression simplifyArcsin(SExpression[] args) {
+    if (args.length != 1 || !QFNRA.isNumber(args[0])) {
+      return null;
+    }
+    double x = QFNRA.getNumberValue(args[0]);
+    if (x < -1.0 || x > 1.0) {
+      return null;
+    }
+    return fold(Math.asin(x));
+  }
+
+  private SExpression simplifyIte(SExpression[] args) {
+    if (args.length != 3) {
+      return null;
+    }
+    if (args[0].equals(QFNRA.TRUE)) {
+      return args[1];
+    }
+    if (args[0].equals(QFNRA.FALSE)) {
+      return args[2];
+    }
+    return null;
+  }
+
+  /**
+   * Decide a comparison between two numbers. Numerals are compared exactly;
+   * any other two numbers only if they are far enough apart that the
+   * rounding done while folding them cannot have changed the outcome, so
+   * near-equal values (including ones that are equal after rounding) are
+   * left to the solver.
+   */
+  private SExpression simplifyComparison(Symbol op, SExpression[] args) {
+    if (args.length != 2 || !QFNRA.isNumber(args[0])
+        || !QFNRA.isNumber(args[1])) {
+      return null;
+    }
+    int order;
+    if (args[0] instanceof Numeral && args[1] instanceof Numeral) {
+      order = Long.compare(((Numeral) args[0]).getValue(),
+          ((Numeral) args[1]).getValue());
+    } else {
+      double lhs = QFNRA.getNumberValue(args[0]);
+      double rhs = QFNRA.getNumberValue(args[1]);
+      double scale = Math.max(1.0, Math.max(Math.abs(lhs), Math.abs(rhs)));
+      if (Math.abs(lhs - rhs) <= COMPARISON_TOLERANCE * scale) {
+        return null;
+      }
+      order = Double.compare(lhs, rhs);
+    }
+    boolean holds;
+    if (op.equals(QFNRA.EQUAL)) {
+      holds = order == 0;
+    } else if (op.equals(QFNRA.LESS_THAN)) {
+      holds = order < 0;
+    } else if (op.equals(QFNRA.LESS_THAN_EQUAL)) {
+      holds = order <= 0;
+    } else if (op.equals(QFNRA.GREATER)) {
+      holds = order > 0;
+    } else {
+      holds = order >= 0;
+    }
+    return holds ? QFNRA.TRUE : QFNRA.FALSE;
+  }
+
+  /**
+   * Sum of two numbers, exact if both are numerals
+   *
+   * @return The sum, or null if it does not fit
+   */
+  private static SExpression add(SExpression a, SExpression b) {
+    if (a instanceof Numeral && b instanceof Numeral) {
+      try {
+        return numeral(Math.addExact(
+            ((Numeral) a).getValue(), ((Numeral) b).getValue()));
+      } catch (ArithmeticException e) {
+        return null;
+      }
+    }
+    return fold(QFNRA.getNumberValue(a) + QFNRA.getNumberValue(b));
+  }
+
+  private static SExpression subtract(SExpression a, SExpression b) {
+    if (a instanceof Numeral && b instanceof Numeral) {
+      try {
+        return numeral(Math.subtractExact(
+            ((Numeral) a).getValue(), ((Numeral) b).getValue()));
+      } catch (ArithmeticException e) {
+        return null;
+      }
+    }
+    return fold(QFNRA.getNumberValue(a) - QFNRA.getNumberValue(b));
+  }
+
+  private static SExpression multiply(SExpression a, SExpression b) {
+    if (a instanceof Numeral && b instanceof Numeral) {
+      try {
+        return numeral(Math.multiplyExact(
+            ((Numeral) a).getValue(), ((Numeral) b).getValue()));
+      } catch (ArithmeticException e) {
+        return null;
+      }
+    }
+    return fold(QFNRA.getNumberValue(a) * QFNRA.getNumberValue(b));
+  }
+
+  private static SExpression negate(SExpression a) {
+    if (a instanceof Numeral) {
+      long value = ((Numeral) a).getValue();
+      if (value == Long.MIN_VALUE) {
+        return null;
+      }
+      return numeral(-value);
+    }
+    return fold(-QFNRA.getNumberValue(a));
+  }
+
+  private static SExpression numeral(long value) {
+    return SExpressionInterner.intern(new Numeral(value));
+  }
+
+  /**
+   * @return The folded value as a decimal, or null if it is not finite
+   */
+  private static SExpression fold(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return null;
+    }
+    return SExpressionInterner.intern(new Decimal(value));
+  }
+
+}
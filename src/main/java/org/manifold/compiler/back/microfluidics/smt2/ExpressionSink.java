@@ -0,0 +1,55 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination that translation strategies emit expressions into, one at a
+ * time, so that a whole translation never has to be held in memory at once.
+ * Sinks are usually chained, each one passing (possibly rewritten)
+ * expressions on to the next, ending at a sink that writes the .smt2 output.
+ */
+public interface ExpressionSink extends Closeable {
+
+  /**
+   * Accept the next expression of the translation
+   * 
+   * @param expr  Expression to pass on or write out
+   * @throws java.io.UncheckedIOException if writing the expression failed
+   */
+  void emit(SExpression expr);
+  
+  /**
+   * Accept several expressions, in order
+   * 
+   * @param exprs  Expressions to pass on or write out
+   */
+  default void emitAll(Iterable<? extends SExpression> exprs) {
+    for (SExpression expr : exprs) {
+      emit(expr);
+    }
+  }
+  
+  /**
+   * Get a sink emitting into this one on behalf of a particular producer,
+   * e.g. a translation strategy, for sinks that report where expressions
+   * came from. By default origins are not tracked and this sink itself is
+   * returned.
+   * 
+   * @param origin  Name of the producer of the expressions
+   * @return Sink to emit that producer's expressions into
+   */
+  default ExpressionSink withOrigin(String origin) {
+    return this;
+  }
+  
+  /**
+   * Finish the translation, writing out anything still held back and closing
+   * the output
+   * 
+   * @throws IOException  if the output could not be written or closed
+   */
+  @Override
+  void close() throws IOException;
+  
+}
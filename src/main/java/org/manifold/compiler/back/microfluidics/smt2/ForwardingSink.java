@@ -0,0 +1,40 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.io.IOException;
+
+/**
+ * Base class of sinks that pass expressions on to another sink, for example
+ * after rewriting them. By default every expression is forwarded unchanged.
+ */
+public abstract class ForwardingSink implements ExpressionSink {
+
+  private final ExpressionSink next;
+  /**
+   * @return The sink expressions are forwarded to
+   */
+  protected final ExpressionSink getNext() {
+    return next;
+  }
+  
+  /**
+   * @param next  Sink to forward expressions to
+   */
+  protected ForwardingSink(ExpressionSink next) {
+    this.next = next;
+  }
+  
+  @Override
+  public void emit(SExpression expr) {
+    next.emit(expr);
+  }
+  
+  /**
+   * Closes the next sink. Subclasses holding expressions back must forward
+   * them before calling this.
+   */
+  @Override
+  public void close() throws IOException {
+    next.close();
+  }
+  
+}
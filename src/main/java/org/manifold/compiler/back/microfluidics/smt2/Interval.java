@@ -0,0 +1,325 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+/**
+ * A closed interval of reals [lower, upper], possibly unbounded or empty.
+ *
+ * The arithmetic operations round outward, by moving each finite end of the
+ * result one floating point value away from the interval, so that the result
+ * always contains every value the operation can take on reals in the
+ * operands. Operations on an empty interval give the empty interval.
+ */
+public final class Interval {
+
+  public static final Interval ENTIRE = new Interval(
+      Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+  public static final Interval EMPTY = new Interval(
+      Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+  private final double lower;
+  private final double upper;
+
+  /**
+   * @param lower  Lower end, may be negative infinity
+   * @param upper  Upper end, may be positive infinity; the interval is empty
+   * if it is below lower
+   */
+  public Interval(double lower, double upper) {
+    this.lower = lower;
+    this.upper = upper;
+  }
+
+  /**
+   * @return The interval [value, value]
+   */
+  public static Interval point(double value) {
+    return new Interval(value, value);
+  }
+
+  /**
+   * @return The smallest interval with representable ends containing a
+   * value that was rounded to the nearest double, e.g. when parsed from a
+   * decimal
+   */
+  public static Interval around(double value) {
+    return new Interval(Math.nextDown(value), Math.nextUp(value));
+  }
+
+  public double getLower() {
+    return lower;
+  }
+
+  public double getUpper() {
+    return upper;
+  }
+
+  public boolean isEmpty() {
+    return !(lower <= upper);
+  }
+
+  public boolean contains(double value) {
+    return lower <= value && value <= upper;
+  }
+
+  private static Interval outward(double lower, double upper) {
+    if (Double.isNaN(lower) || Double.isNaN(upper)) {
+      return ENTIRE;
+    }
+    return new Interval(Math.nextDown(lower), Math.nextUp(upper));
+  }
+
+  public Interval intersect(Interval other) {
+    return new Interval(Math.max(lower, other.lower),
+        Math.min(upper, other.upper));
+  }
+
+  /**
+   * @return The smallest interval containing both intervals
+   */
+  public Interval hull(Interval other) {
+    if (isEmpty()) {
+      return other;
+    }
+    if (other.isEmpty()) {
+      return this;
+    }
+    return new Interval(Math.min(lower, other.lower),
+        Math.max(upper, other.upper));
+  }
+
+  public Interval negate() {
+    return new Interval(-upper, -lower);
+  }
+
+  public Interval add(Interval other) {
+    if (isEmpty() || other.isEmpty()) {
+      return EMPTY;
+    }
+    return outward(lower + other.lower, upper + other.upper);
+  }
+
+  public Interval subtract(Interval other) {
+    return add(other.negate());
+  }
+
+  public Interval multiply(Interval other) {
+    if (isEmpty() || other.isEmpty()) {
+      return EMPTY;
+    }
+    double a = product(lower, other.lower);
+    double b = product(lower, other.upper);
+    double c = product(upper, other.lower);
+    double d = product(upper, other.upper);
+    return outward(Math.min(Math.min(a, b), Math.min(c, d)),
+        Math.max(Math.max(a, b), Math.max(c, d)));
+  }
+
+  /**
+   * Product of two ends, taking 0 * infinity to be 0 since an unbounded end
+   * stands for arbitrarily large finite values
+   */
+  private static double product(double x, double y) {
+    if (x == 0.0 || y == 0.0) {
+      return 0.0;
+    }
+    return x * y;
+  }
+
+  /**
+   * @return The quotient, or the entire line if other contains zero
+   */
+  public Interval divide(Interval other) {
+    if (isEmpty() || other.isEmpty()) {
+      return EMPTY;
+    }
+    if (other.contains(0.0)) {
+      return ENTIRE;
+    }
+    return multiply(outward(1.0 / other.upper, 1.0 / other.lower));
+  }
+
+  /**
+   * @param exponent  Any exponent; only integer exponents and non-negative
+   * bases are handled precisely
+   * @return An interval containing x^exponent for every x in this interval
+   */
+  public Interval pow(double exponent) {
+    if (isEmpty()) {
+      return EMPTY;
+    }
+    if (exponent == 0.0) {
+      return point(1.0);
+    }
+    if (exponent == Math.rint(exponent)) {
+      if (exponent < 0) {
+        return point(1.0).divide(pow(-exponent));
+      }
+      double a = Math.pow(lower, exponent);
+      double b = Math.pow(upper, exponent);
+      if (exponent % 2 != 0) {
+        // odd powers are increasing
+        return outward(a, b);
+      }
+      if (lower >= 0) {
+        return outward(a, b);
+      } else if (upper <= 0) {
+        return outward(b, a);
+      } else {
+        return new Interval(0.0, Math.nextUp(Math.max(a, b)));
+      }
+    }
+    if (lower < 0) {
+      // not defined for negative bases
+      return ENTIRE;
+    }
+    double a = Math.pow(lower, exponent);
+    double b = Math.pow(upper, exponent);
+    return outward(Math.min(a, b), Math.max(a, b));
+  }
+
+  /**
+   * @return An interval containing every x whose exponent-th power is in
+   * this interval, for a positive integer exponent
+   */
+  public Interval root(int exponent) {
+    if (isEmpty()) {
+      return EMPTY;
+    }
+    if (exponent == 1) {
+      return this;
+    }
+    if (exponent % 2 != 0) {
+      // odd roots are increasing, and odd in x
+      double a = lower < 0 ? -rootAbove(-lower, exponent)
+          : rootBelow(lower, exponent);
+      double b = upper < 0 ? -rootBelow(-upper, exponent)
+          : rootAbove(upper, exponent);
+      return new Interval(a, b);
+    }
+    if (upper < 0) {
+      return EMPTY;
+    }
+    double r = rootAbove(upper, exponent);
+    return new Interval(-r, r);
+  }
+
+  /**
+   * Math.pow(x, 1.0 / exponent) can be several ulps away from the real
+   * root, as 1.0 / exponent is rounded, so the candidate is checked by
+   * raising it back to the power and moved outward until it is on the
+   * right side of the root.
+   *
+   * @param x  Non-negative value, possibly infinite
+   * @return A double no smaller than the real exponent-th root of x
+   */
+  static double rootAbove(double x, int exponent) {
+    if (x == 0.0 || Double.isInfinite(x)) {
+      return x;
+    }
+    double r = approximateRoot(x, exponent);
+    while (powBound(r, exponent, false) < x) {
+      r = Math.nextUp(r);
+    }
+    return r;
+  }
+
+  /**
+   * @param x  Non-negative value, possibly infinite
+   * @return A non-negative double no larger than the real exponent-th root
+   * of x
+   */
+  static double rootBelow(double x, int exponent) {
+    if (x == 0.0 || Double.isInfinite(x)) {
+      return x;
+    }
+    double r = approximateRoot(x, exponent);
+    while (r > 0.0 && powBound(r, exponent, true) > x) {
+      r = Math.nextDown(r);
+    }
+    return Math.max(r, 0.0);
+  }
+
+  private static double approximateRoot(double x, int exponent) {
+    if (exponent == 2) {
+      return Math.sqrt(x);
+    } else if (exponent == 3) {
+      return Math.cbrt(x);
+    }
+    return Math.pow(x, 1.0 / exponent);
+  }
+
+  /**
+   * @return A bound on x^exponent for x >= 0, an upper bound if up is true
+   * and a lower bound otherwise, found by repeated squaring with every
+   * product rounded in that direction
+   */
+  private static double powBound(double x, int exponent, boolean up) {
+    double result = 1.0;
+    boolean exact = true;
+    double base = x;
+    int e = exponent;
+    while (true) {
+      if ((e & 1) != 0) {
+        if (exact) {
+          result = base;
+          exact = false;
+        } else {
+          result = up ? Math.nextUp(result * base)
+              : Math.nextDown(result * base);
+        }
+      }
+      e >>>= 1;
+      if (e == 0) {
+        return result;
+      }
+      base = up ? Math.nextUp(base * base) : Math.nextDown(base * base);
+    }
+  }
+
+  public Interval arcsin() {
+    Interval domain = intersect(new Interval(-1.0, 1.0));
+    if (domain.isEmpty()) {
+      return EMPTY;
+    }
+    return outward(Math.asin(domain.lower), Math.asin(domain.upper));
+  }
+
+  public Interval sin() {
+    if (isEmpty()) {
+      return EMPTY;
+    }
+    if (lower < -Math.PI / 2 || upper > Math.PI / 2) {
+      return new Interval(-1.0, 1.0);
+    }
+    // increasing on [-pi/2, pi/2]
+    return outward(Math.sin(lower), Math.sin(upper));
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof Interval)) {
+      return false;
+    }
+    Interval that = (Interval) other;
+    if (isEmpty() && that.isEmpty()) {
+      return true;
+    }
+    return lower == that.lower && upper == that.upper;
+  }
+
+  @Override
+  public int hashCode() {
+    if (isEmpty()) {
+      return 0;
+    }
+    return 31 * Double.hashCode(lower) + Double.hashCode(upper);
+  }
+
+  @Override
+  public String toString() {
+    return "[" + lower + ", " + upper + "]";
+  }
+
+}
@@ -0,0 +1,170 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites an assertion so that every compound subterm occurring more than
+ * once in it is written out only once, as an SMT-LIB let binding:
+ * (assert (= x (* (/ h w) (/ h w)))) becomes
+ * (assert (let ((?t0 (/ h w))) (= x (* ?t0 ?t0)))).
+ * 
+ * Since a let binds all of its variables in parallel, a shared subterm that
+ * itself contains other shared subterms is bound by an inner let nested
+ * inside the let binding those.
+ */
+public class LetBindingRewriter {
+
+  /**
+   * Prefix of the bound variable names. Names generated from the schematic
+   * never begin with '?', so these cannot capture a variable of the design.
+   */
+  private static final String VARIABLE_PREFIX = "?t";
+  
+  // number of references to each compound subterm of the assertion
+  private final Map<SExpression, Integer> references = new HashMap<>();
+  // shared subterms, each after every shared subterm it contains
+  private final List<ParenList> shared = new ArrayList<>();
+  // variable and let nesting level of each shared subterm
+  private final Map<SExpression, Symbol> variables = new HashMap<>();
+  private final Map<SExpression, Integer> levels = new HashMap<>();
+  // deepest level of the variables referenced by the last substitution
+  private int maxReferencedLevel;
+  
+  private LetBindingRewriter() { }
+  
+  /**
+   * Bind the shared subterms of an assertion with let
+   * 
+   * @param expr  Any expression; only (assert term) is rewritten
+   * @return The rewritten assertion, or expr itself if it is not an
+   * assertion or has no shared compound subterms
+   */
+  public static SExpression rewrite(SExpression expr) {
+    if (AssertionChecker.isNonAssertion(expr)) {
+      return expr;
+    }
+    SExpression term = ((ParenList) expr).get(1);
+    return new LetBindingRewriter().rewriteAssertion(expr, term);
+  }
+  
+  /**
+   * Wrap a sink so that every assertion emitted into it is rewritten first
+   * 
+   * @param next  Sink receiving the rewritten expressions
+   * @return Sink to emit the original expressions into
+   */
+  public static ExpressionSink bindingSink(ExpressionSink next) {
+    return new ForwardingSink(next) {
+      @Override
+      public void emit(SExpression expr) {
+        getNext().emit(rewrite(expr));
+      }
+    };
+  }
+  
+  private SExpression rewriteAssertion(SExpression assertion,
+      SExpression term) {
+    countReferences(term);
+    collectShared(term, new HashMap<SExpression, Boolean>());
+    if (shared.isEmpty()) {
+      return assertion;
+    }
+    // bind in post-order, so every subterm a definition refers to is
+    // already bound at a lower level
+    List<List<SExpression>> bindingsByLevel = new ArrayList<>();
+    for (ParenList subterm : shared) {
+      maxReferencedLevel = -1;
+      SExpression definition = substituteChildren(subterm);
+      int level = maxReferencedLevel + 1;
+      Symbol var = Symbol.of(VARIABLE_PREFIX + variables.size());
+      variables.put(subterm, var);
+      levels.put(subterm, level);
+      while (bindingsByLevel.size() <= level) {
+        bindingsByLevel.add(new ArrayList<SExpression>());
+      }
+      bindingsByLevel.get(level).add(new ParenList(new SExpression[] {
+        var, definition
+      }));
+    }
+    SExpression body = substitute(term);
+    for (int level = bindingsByLevel.size() - 1; level >= 0; --level) {
+      body = new ParenList(new SExpression[] {
+        QFNRA.LET,
+        new ParenList(bindingsByLevel.get(level)),
+        body
+      });
+    }
+    return new ParenList(new SExpression[] {
+      QFNRA.ASSERT,
+      body
+    });
+  }
+  
+  private static boolean isCompound(SExpression expr) {
+    return expr instanceof ParenList
+        && ((ParenList) expr).size() > 1;
+  }
+  
+  /**
+   * Count references to compound subterms, descending into each distinct
+   * subterm only once so that a subterm inside a shared subterm is counted
+   * once per binding rather than once per use
+   */
+  private void countReferences(SExpression expr) {
+    if (!isCompound(expr)) {
+      return;
+    }
+    Integer count = references.get(expr);
+    if (count != null) {
+      references.put(expr, count + 1);
+      return;
+    }
+    references.put(expr, 1);
+    for (SExpression child : (ParenList) expr) {
+      countReferences(child);
+    }
+  }
+  
+  private void collectShared(SExpression expr,
+      Map<SExpression, Boolean> visited) {
+    if (!isCompound(expr) || visited.containsKey(expr)) {
+      return;
+    }
+    visited.put(expr, Boolean.TRUE);
+    for (SExpression child : (ParenList) expr) {
+      collectShared(child, visited);
+    }
+    if (references.get(expr) > 1) {
+      shared.add((ParenList) expr);
+    }
+  }
+  
+  private SExpression substitute(SExpression expr) {
+    Symbol var = variables.get(expr);
+    if (var != null) {
+      maxReferencedLevel = Math.max(maxReferencedLevel, levels.get(expr));
+      return var;
+    }
+    if (!isCompound(expr)) {
+      return expr;
+    }
+    return substituteChildren((ParenList) expr);
+  }
+  
+  private SExpression substituteChildren(ParenList list) {
+    SExpression[] substituted = new SExpression[list.size()];
+    boolean changed = false;
+    for (int i = 0; i < substituted.length; ++i) {
+      substituted[i] = substitute(list.get(i));
+      changed |= (substituted[i] != list.get(i));
+    }
+    if (!changed) {
+      return list;
+    }
+    return new ParenList(substituted, false);
+  }
+  
+}
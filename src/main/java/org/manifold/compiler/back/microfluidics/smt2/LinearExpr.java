@@ -0,0 +1,250 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An affine combination of real variables, c + a1*x1 + ... + an*xn, as
+ * recognized in assertions by the linear presolve. Instances are immutable
+ * and never hold a zero coefficient.
+ */
+public final class LinearExpr {
+
+  private final Map<Symbol, Double> coefficients;
+  private final double constant;
+
+  private LinearExpr(Map<Symbol, Double> coefficients, double constant) {
+    this.coefficients = coefficients;
+    this.constant = constant;
+  }
+
+  /**
+   * @param value  Value of the expression
+   * @return The constant expression with this value
+   */
+  public static LinearExpr constant(double value) {
+    return new LinearExpr(Collections.<Symbol, Double>emptyMap(), value);
+  }
+
+  /**
+   * @param var  Variable
+   * @return The expression 1*var
+   */
+  public static LinearExpr variable(Symbol var) {
+    Map<Symbol, Double> coefficients = new LinkedHashMap<>();
+    coefficients.put(var, 1.0);
+    return new LinearExpr(coefficients, 0.0);
+  }
+
+  /**
+   * Recognize a linear arithmetic term: numbers, symbols, sums, differences,
+   * products with at most one non-constant factor and quotients by a
+   * non-zero constant
+   *
+   * @param expr  Arithmetic term
+   * @return The linear form of expr, or null if it is not linear
+   */
+  public static LinearExpr of(SExpression expr) {
+    if (expr instanceof Numeral) {
+      return constant(((Numeral) expr).getValue());
+    }
+    if (expr instanceof Decimal) {
+      return constant(((Decimal) expr).getValue());
+    }
+    if (expr instanceof Symbol) {
+      return variable((Symbol) expr);
+    }
+    if (!(expr instanceof ParenList)) {
+      return null;
+    }
+    ParenList list = (ParenList) expr;
+    if (list.size() < 2) {
+      return null;
+    }
+    SExpression op = list.get(0);
+    LinearExpr first = of(list.get(1));
+    if (first == null) {
+      return null;
+    }
+    if (op.equals(QFNRA.MINUS) && list.size() == 2) {
+      return first.scale(-1.0);
+    }
+    LinearExpr result = first;
+    for (int i = 2; i < list.size(); ++i) {
+      LinearExpr operand = of(list.get(i));
+      if (operand == null) {
+        return null;
+      }
+      if (op.equals(QFNRA.PLUS)) {
+        result = result.plus(operand);
+      } else if (op.equals(QFNRA.MINUS)) {
+        result = result.plus(operand.scale(-1.0));
+      } else if (op.equals(QFNRA.MULTIPLY)) {
+        if (operand.isConstant()) {
+          result = result.scale(operand.getConstant());
+        } else if (result.isConstant()) {
+          result = operand.scale(result.getConstant());
+        } else {
+          return null;
+        }
+      } else if (op.equals(QFNRA.DIVIDE)) {
+        if (!operand.isConstant() || operand.getConstant() == 0.0) {
+          return null;
+        }
+        result = result.scale(1.0 / operand.getConstant());
+      } else {
+        return null;
+      }
+    }
+    if (list.size() == 2 && !op.equals(QFNRA.PLUS)
+        && !op.equals(QFNRA.MULTIPLY)) {
+      // e.g. (/ x) or (arcsin x)
+      return null;
+    }
+    return result;
+  }
+
+  /**
+   * @return The constant term c
+   */
+  public double getConstant() {
+    return constant;
+  }
+
+  /**
+   * @param var  Variable
+   * @return Coefficient of var, zero if it does not occur
+   */
+  public double getCoefficient(Symbol var) {
+    Double coefficient = coefficients.get(var);
+    if (coefficient == null) {
+      return 0.0;
+    }
+    return coefficient;
+  }
+
+  /**
+   * @return Variables with a non-zero coefficient, in the order they were
+   * first seen
+   */
+  public Set<Symbol> getVariables() {
+    return Collections.unmodifiableSet(coefficients.keySet());
+  }
+
+  /**
+   * @return True if no variable occurs in this expression
+   */
+  public boolean isConstant() {
+    return coefficients.isEmpty();
+  }
+
+  public LinearExpr plus(LinearExpr other) {
+    Map<Symbol, Double> sum = new LinkedHashMap<>(coefficients);
+    for (Map.Entry<Symbol, Double> term : other.coefficients.entrySet()) {
+      Double existing = sum.get(term.getKey());
+      double coefficient = term.getValue();
+      if (existing != null) {
+        coefficient += existing;
+      }
+      if (coefficient == 0.0) {
+        sum.remove(term.getKey());
+      } else {
+        sum.put(term.getKey(), coefficient);
+      }
+    }
+    return new LinearExpr(sum, constant + other.constant);
+  }
+
+  public LinearExpr scale(double factor) {
+    if (factor == 0.0) {
+      return constant(0.0);
+    }
+    Map<Symbol, Double> scaled = new LinkedHashMap<>();
+    for (Map.Entry<Symbol, Double> term : coefficients.entrySet()) {
+      scaled.put(term.getKey(), term.getValue() * factor);
+    }
+    return new LinearExpr(scaled, constant * factor);
+  }
+
+  /**
+   * @param var  Variable to remove
+   * @return This expression with the term of var removed
+   */
+  public LinearExpr without(Symbol var) {
+    Map<Symbol, Double> rest = new LinkedHashMap<>(coefficients);
+    rest.remove(var);
+    return new LinearExpr(rest, constant);
+  }
+
+  /**
+   * Replace a variable by an expression
+   *
+   * @param var  Variable to replace
+   * @param definition  Expression to replace it with
+   * @return This expression with var replaced, or this expression itself if
+   * var does not occur in it
+   */
+  public LinearExpr substitute(Symbol var, LinearExpr definition) {
+    double coefficient = getCoefficient(var);
+    if (coefficient == 0.0) {
+      return this;
+    }
+    return without(var).plus(definition.scale(coefficient));
+  }
+
+  /**
+   * @return This expression as a QF_NRA term, e.g. (+ 2 x (* 0.5 y))
+   */
+  public SExpression toExpression() {
+    List<SExpression> terms = new ArrayList<>();
+    if (constant != 0.0 || coefficients.isEmpty()) {
+      terms.add(number(constant));
+    }
+    for (Map.Entry<Symbol, Double> term : coefficients.entrySet()) {
+      if (term.getValue() == 1.0) {
+        terms.add(term.getKey());
+      } else {
+        terms.add(QFNRA.multiply(number(term.getValue()), term.getKey()));
+      }
+    }
+    if (terms.size() == 1) {
+      return terms.get(0);
+    }
+    return QFNRA.add(terms);
+  }
+
+  private static SExpression number(double value) {
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return SExpressionInterner.intern(new Numeral((long) value));
+    }
+    return SExpressionInterner.intern(new Decimal(value));
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof LinearExpr)) {
+      return false;
+    }
+    LinearExpr that = (LinearExpr) other;
+    return constant == that.constant
+        && coefficients.equals(that.coefficients);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * coefficients.hashCode() + Double.hashCode(constant);
+  }
+
+  @Override
+  public String toString() {
+    return toExpression().toString();
+  }
+
+}
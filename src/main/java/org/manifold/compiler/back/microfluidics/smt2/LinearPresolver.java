@@ -0,0 +1,301 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Eliminates variables defined by linear equalities before the formula is
+ * handed to dReal. An assertion (= lhs rhs) whose two sides are linear in
+ * the declared variables, such as a node pressure aliased to a port
+ * pressure, a pinned position or a flow conservation sum, is solved for one
+ * of its variables; that variable is then substituted by its definition in
+ * every other assertion, and its assertion and declaration are dropped.
+ * Assertions that become linear equalities through substitution are
+ * eliminated in turn.
+ *
+ * The definitions of the eliminated variables in terms of the remaining
+ * ones are kept (getEliminatedVariables) so that a model of the presolved
+ * formula can still be reported for every original variable; see
+ * DRealSolver.setEliminatedVariables.
+ */
+public class LinearPresolver {
+
+  /**
+   * A variable is only solved for if its coefficient is at least this
+   * fraction of the largest coefficient of the equality, to avoid dividing
+   * by a coefficient that is almost zero
+   */
+  private static final double PIVOT_TOLERANCE = 1e-3;
+
+  // the formula being presolved; dropped expressions are set to null
+  private SExpression[] exprs;
+  // index of the declaration of each declared variable
+  private final Map<Symbol, Integer> declarations = new HashMap<>();
+  // indices of the assertions each declared variable occurs in
+  private final Map<Symbol, Set<Integer>> occurrences = new HashMap<>();
+  // definitions of the eliminated variables, in the order of elimination
+  private final Map<Symbol, LinearExpr> definitions = new LinkedHashMap<>();
+
+  /**
+   * Presolve a whole formula
+   *
+   * @param formula  Declarations, assertions and commands, in order
+   * @return The formula without the eliminated variables, their defining
+   * equalities and their declarations, otherwise in the same order
+   */
+  public List<SExpression> presolve(List<SExpression> formula) {
+    exprs = formula.toArray(new SExpression[formula.size()]);
+    declarations.clear();
+    occurrences.clear();
+    definitions.clear();
+    for (int i = 0; i < exprs.length; ++i) {
+      Symbol var = QFNRA.getDeclaredVariable(exprs[i]);
+      if (var != null && !declarations.containsKey(var)) {
+        declarations.put(var, i);
+        occurrences.put(var, new LinkedHashSet<Integer>());
+      }
+    }
+    Deque<Integer> pending = new ArrayDeque<>();
+    for (int i = 0; i < exprs.length; ++i) {
+      if (!AssertionChecker.isNonAssertion(exprs[i])) {
+        for (Symbol var : getDeclaredVariables(exprs[i])) {
+          occurrences.get(var).add(i);
+        }
+        pending.add(i);
+      }
+    }
+    boolean[] isPending = new boolean[exprs.length];
+    for (int i : pending) {
+      isPending[i] = true;
+    }
+    while (!pending.isEmpty()) {
+      int i = pending.poll();
+      isPending[i] = false;
+      if (exprs[i] != null) {
+        eliminate(i, pending, isPending);
+      }
+    }
+    List<SExpression> presolved = new ArrayList<>();
+    for (SExpression expr : exprs) {
+      if (expr != null) {
+        presolved.add(expr);
+      }
+    }
+    exprs = null;
+    return presolved;
+  }
+
+  /**
+   * Get the definitions of the variables eliminated by the last presolve,
+   * each in terms of variables that were not eliminated
+   *
+   * @return Definition of every eliminated variable, in elimination order
+   */
+  public Map<Symbol, LinearExpr> getEliminatedVariables() {
+    // a definition may refer to variables eliminated after it, never to
+    // ones eliminated before it, so resolve them back to front
+    List<Symbol> order = new ArrayList<>(definitions.keySet());
+    Map<Symbol, LinearExpr> resolved = new HashMap<>();
+    for (int i = order.size() - 1; i >= 0; --i) {
+      Symbol var = order.get(i);
+      LinearExpr definition = definitions.get(var);
+      for (Symbol other : new ArrayList<>(definition.getVariables())) {
+        LinearExpr otherDefinition = resolved.get(other);
+        if (otherDefinition != null) {
+          definition = definition.substitute(other, otherDefinition);
+        }
+      }
+      resolved.put(var, definition);
+    }
+    Map<Symbol, LinearExpr> eliminated = new LinkedHashMap<>();
+    for (Symbol var : order) {
+      eliminated.put(var, resolved.get(var));
+    }
+    return Collections.unmodifiableMap(eliminated);
+  }
+
+  /**
+   * Wrap a sink so that the whole formula emitted into it is presolved when
+   * it is closed. Nothing reaches the next sink before then.
+   *
+   * @param next  Sink receiving the presolved formula
+   * @return Sink to emit the original formula into
+   */
+  public ExpressionSink presolvingSink(ExpressionSink next) {
+    return new ForwardingSink(next) {
+      private final List<SExpression> formula = new ArrayList<>();
+
+      @Override
+      public void emit(SExpression expr) {
+        formula.add(expr);
+      }
+
+      @Override
+      public void close() throws IOException {
+        getNext().emitAll(presolve(formula));
+        super.close();
+      }
+    };
+  }
+
+  /**
+   * Solve assertion i for one of its variables, if it is a linear equality,
+   * and substitute the solution everywhere else
+   */
+  private void eliminate(int i, Deque<Integer> pending, boolean[] isPending) {
+    LinearExpr difference = getLinearEquality(exprs[i]);
+    if (difference == null) {
+      return;
+    }
+    if (difference.isConstant()) {
+      if (difference.getConstant() == 0.0) {
+        // became 0 = 0 through substitution
+        drop(i);
+      }
+      return;
+    }
+    Symbol var = choosePivot(difference);
+    if (var == null) {
+      return;
+    }
+    // difference = c*var + rest = 0, so var = -rest / c
+    double coefficient = difference.getCoefficient(var);
+    LinearExpr definition = difference.without(var).scale(-1.0 / coefficient);
+    drop(i);
+    exprs[declarations.get(var)] = null;
+    definitions.put(var, definition);
+    SExpression replacement = definition.toExpression();
+    Set<Integer> affected = occurrences.remove(var);
+    for (int j : affected) {
+      if (exprs[j] == null) {
+        continue;
+      }
+      exprs[j] = substitute(exprs[j], var, replacement,
+          new IdentityHashMap<SExpression, SExpression>());
+      for (Symbol other : definition.getVariables()) {
+        occurrences.get(other).add(j);
+      }
+      if (!isPending[j]) {
+        isPending[j] = true;
+        pending.add(j);
+      }
+    }
+  }
+
+  private void drop(int i) {
+    for (Symbol var : getDeclaredVariables(exprs[i])) {
+      Set<Integer> occurs = occurrences.get(var);
+      if (occurs != null) {
+        occurs.remove(i);
+      }
+    }
+    exprs[i] = null;
+  }
+
+  /**
+   * Among the declared variables of a linear equality with a large enough
+   * coefficient, choose the one occurring in the fewest other assertions,
+   * so that substituting it grows the formula the least
+   */
+  private Symbol choosePivot(LinearExpr difference) {
+    double largest = 0.0;
+    for (Symbol var : difference.getVariables()) {
+      largest = Math.max(largest, Math.abs(difference.getCoefficient(var)));
+    }
+    Symbol pivot = null;
+    int fewest = Integer.MAX_VALUE;
+    for (Symbol var : difference.getVariables()) {
+      if (!occurrences.containsKey(var)) {
+        // undeclared, or a let-bound variable
+        return null;
+      }
+      double coefficient = Math.abs(difference.getCoefficient(var));
+      int occurs = occurrences.get(var).size();
+      if (coefficient >= PIVOT_TOLERANCE * largest && occurs < fewest) {
+        pivot = var;
+        fewest = occurs;
+      }
+    }
+    return pivot;
+  }
+
+  /**
+   * @return lhs - rhs if the assertion is (= lhs rhs) with both sides
+   * linear, otherwise null
+   */
+  private static LinearExpr getLinearEquality(SExpression assertion) {
+    SExpression term = ((ParenList) assertion).get(1);
+    if (!(term instanceof ParenList)) {
+      return null;
+    }
+    ParenList eq = (ParenList) term;
+    if (eq.size() != 3 || !eq.get(0).equals(QFNRA.EQUAL)) {
+      return null;
+    }
+    LinearExpr lhs = LinearExpr.of(eq.get(1));
+    if (lhs == null) {
+      return null;
+    }
+    LinearExpr rhs = LinearExpr.of(eq.get(2));
+    if (rhs == null) {
+      return null;
+    }
+    return lhs.plus(rhs.scale(-1.0));
+  }
+
+  private Set<Symbol> getDeclaredVariables(SExpression expr) {
+    Set<Symbol> vars = new LinkedHashSet<>();
+    collectDeclaredVariables(expr, vars,
+        new IdentityHashMap<SExpression, Boolean>());
+    return vars;
+  }
+
+  private void collectDeclaredVariables(SExpression expr, Set<Symbol> vars,
+      Map<SExpression, Boolean> visited) {
+    if (expr instanceof Symbol) {
+      if (declarations.containsKey(expr)) {
+        vars.add((Symbol) expr);
+      }
+    } else if (expr instanceof ParenList && !visited.containsKey(expr)) {
+      visited.put(expr, Boolean.TRUE);
+      for (SExpression child : (ParenList) expr) {
+        collectDeclaredVariables(child, vars, visited);
+      }
+    }
+  }
+
+  private static SExpression substitute(SExpression expr, Symbol var,
+      SExpression replacement, Map<SExpression, SExpression> substituted) {
+    if (expr instanceof Symbol) {
+      return expr.equals(var) ? replacement : expr;
+    }
+    if (!(expr instanceof ParenList)) {
+      return expr;
+    }
+    SExpression result = substituted.get(expr);
+    if (result != null) {
+      return result;
+    }
+    ParenList list = (ParenList) expr;
+    SExpression[] children = new SExpression[list.size()];
+    boolean changed = false;
+    for (int i = 0; i < children.length; ++i) {
+      children[i] = substitute(list.get(i), var, replacement, substituted);
+      changed |= (children[i] != list.get(i));
+    }
+    result = changed ? SExpressionInterner.list(children) : list;
+    substituted.put(expr, result);
+    return result;
+  }
+
+}
@@ -6,7 +6,7 @@ import java.util.List;
 import org.manifold.compiler.ConnectionValue;
 import org.manifold.compiler.PortValue;
 import org.manifold.compiler.back.microfluidics.CodeGenerationError;
-import org.manifold.compiler.back.microfluidics.SchematicUtil;
+import org.manifold.compiler.back.microfluidics.SchematicIndex;
 import org.manifold.compiler.middle.Schematic;
 
 /**
@@ -39,8 +39,9 @@ public class Macros {
     
     // Iterate through all ports and determine if port is flowing into channel,
     // if so then flow rate is positive
+    SchematicIndex index = SchematicIndex.of(schematic);
     for (PortValue port : connectedPorts) {
-      ConnectionValue channel = SchematicUtil.getConnection(schematic, port);
+      ConnectionValue channel = index.getConnection(port);
       boolean connectedIntoJunction;
       // check which way the channel is connected
       if (channel.getFrom().equals(port)) {
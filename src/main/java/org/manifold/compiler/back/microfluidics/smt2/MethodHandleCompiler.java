@@ -0,0 +1,273 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compiles a term into a tree of method handles, one per operation, for
+ * terms evaluated so often that the dispatch loop of a CompiledExpression
+ * becomes the bottleneck (e.g. the droplet volume model over a design
+ * sweep). Once the resulting evaluator is hot, the JVM compiles the whole
+ * handle tree to straight-line machine code. Branches of an ite are only
+ * evaluated when taken.
+ *
+ * Terms larger than MAX_HANDLE_NODES, whose handle trees would take longer
+ * to generate and compile than they would ever save, are evaluated by the
+ * postfix interpreter (ExpressionCompiler) instead.
+ *
+ * The evaluators returned are thread-safe.
+ */
+public class MethodHandleCompiler {
+
+  /**
+   * Largest term, counted in subterms, that is compiled to method handles
+   */
+  public static final int MAX_HANDLE_NODES = 4096;
+
+  private static final MethodType UNARY = MethodType.methodType(
+      double.class, double.class);
+  private static final MethodType BINARY = MethodType.methodType(
+      double.class, double.class, double.class);
+  private static final MethodType TERM = MethodType.methodType(
+      double.class, double[].class);
+
+  private static final MethodHandle ARRAY_GETTER =
+      MethodHandles.arrayElementGetter(double[].class);
+  private static final MethodHandle IS_TRUE;
+  private static final MethodHandle NEGATE;
+  private static final MethodHandle ARCSIN;
+  private static final Map<Symbol, MethodHandle> BINARY_OPERATIONS =
+      new HashMap<>();
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      Class<MethodHandleCompiler> c = MethodHandleCompiler.class;
+      BINARY_OPERATIONS.put(QFNRA.PLUS, lookup.findStatic(c, "add", BINARY));
+      BINARY_OPERATIONS.put(QFNRA.MINUS,
+          lookup.findStatic(c, "subtract", BINARY));
+      BINARY_OPERATIONS.put(QFNRA.MULTIPLY,
+          lookup.findStatic(c, "multiply", BINARY));
+      BINARY_OPERATIONS.put(QFNRA.DIVIDE,
+          lookup.findStatic(c, "divide", BINARY));
+      BINARY_OPERATIONS.put(QFNRA.POW,
+          lookup.findStatic(Math.class, "pow", BINARY));
+      BINARY_OPERATIONS.put(QFNRA.EQUAL,
+          lookup.findStatic(c, "equal", BINARY));
+      BINARY_OPERATIONS.put(QFNRA.LESS_THAN,
+          lookup.findStatic(c, "lessThan", BINARY));
+      BINARY_OPERATIONS.put(QFNRA.LESS_THAN_EQUAL,
+          lookup.findStatic(c, "lessThanEqual", BINARY));
+      BINARY_OPERATIONS.put(QFNRA.GREATER,
+          lookup.findStatic(c, "greater", BINARY));
+      BINARY_OPERATIONS.put(QFNRA.GREATER_EQUAL,
+          lookup.findStatic(c, "greaterEqual", BINARY));
+      NEGATE = lookup.findStatic(c, "negate", UNARY);
+      ARCSIN = lookup.findStatic(Math.class, "asin", UNARY);
+      IS_TRUE = lookup.findStatic(c, "isTrue",
+          MethodType.methodType(boolean.class, double.class));
+    } catch (NoSuchMethodException | IllegalAccessException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private MethodHandleCompiler() { }
+
+  /**
+   * Compile a term to method handles, or to a postfix program if it is too
+   * large
+   *
+   * @param expr  Term to compile
+   * @return Thread-safe evaluator of the term
+   * @throws ArithmeticException if the term uses a function that cannot be
+   * evaluated at all
+   */
+  public static ExpressionEvaluator compile(SExpression expr) {
+    if (countNodes(expr, MAX_HANDLE_NODES + 1) > MAX_HANDLE_NODES) {
+      return new InterpretedEvaluator(ExpressionCompiler.compile(expr));
+    }
+    return new HandleEvaluator(toHandle(expr));
+  }
+
+  private static final class InterpretedEvaluator
+      implements ExpressionEvaluator {
+    private final CompiledExpression program;
+    // a stack per thread, so that the evaluator stays thread-safe without
+    // allocating one on every evaluation
+    private final ThreadLocal<double[]> stacks;
+
+    InterpretedEvaluator(final CompiledExpression program) {
+      this.program = program;
+      this.stacks = ThreadLocal.withInitial(program::newStack);
+    }
+
+    @Override
+    public double eval(double[] vars) {
+      return program.evaluate(vars, stacks.get());
+    }
+  }
+
+  private static final class HandleEvaluator implements ExpressionEvaluator {
+    private final MethodHandle handle;
+
+    HandleEvaluator(MethodHandle handle) {
+      this.handle = handle;
+    }
+
+    @Override
+    public double eval(double[] vars) {
+      try {
+        return (double) handle.invokeExact(vars);
+      } catch (RuntimeException | Error e) {
+        throw e;
+      } catch (Throwable t) {
+        // no handle in the tree throws a checked exception
+        throw new IllegalStateException(t);
+      }
+    }
+  }
+
+  /**
+   * @return Number of subterms of expr, counting no further than limit
+   */
+  private static int countNodes(SExpression expr, int limit) {
+    int count = 1;
+    if (expr instanceof ParenList) {
+      for (SExpression child : (ParenList) expr) {
+        count += countNodes(child, limit - count);
+        if (count >= limit) {
+          break;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return A handle of type (double[])double computing the term
+   */
+  private static MethodHandle toHandle(SExpression expr) {
+    if (expr instanceof Numeral) {
+      return constant(((Numeral) expr).getValue());
+    } else if (expr instanceof Decimal) {
+      return constant(((Decimal) expr).getValue());
+    } else if (expr instanceof Symbol) {
+      if (expr.equals(QFNRA.TRUE)) {
+        return constant(1.0);
+      } else if (expr.equals(QFNRA.FALSE)) {
+        return constant(0.0);
+      }
+      return MethodHandles.insertArguments(ARRAY_GETTER, 1,
+          ((Symbol) expr).getId());
+    } else if (expr instanceof ParenList) {
+      return listToHandle((ParenList) expr);
+    }
+    throw new ArithmeticException("cannot evaluate expression " + expr);
+  }
+
+  /**
+   * @return A handle computing the list; lists are accepted exactly as
+   * ExpressionCompiler accepts them
+   */
+  private static MethodHandle listToHandle(ParenList list) {
+    if (list.isEmpty()) {
+      throw new ArithmeticException("cannot eval empty expression");
+    }
+    if (list.size() == 1) {
+      return toHandle(list.get(0));
+    }
+    if (!(list.get(0) instanceof Symbol)) {
+      throw new ArithmeticException("first term of function "
+          + list.toString() + " must be a symbol");
+    }
+    Symbol func = (Symbol) list.get(0);
+    int arity = list.size() - 1;
+    if (func.equals(QFNRA.MINUS) && arity == 1) {
+      return MethodHandles.filterArguments(NEGATE, 0,
+          toHandle(list.get(1)));
+    } else if (func.equals(QFNRA.ARCSIN) && arity == 1) {
+      return MethodHandles.filterArguments(ARCSIN, 0,
+          toHandle(list.get(1)));
+    } else if (func.equals(QFNRA.ITE) && arity == 3) {
+      MethodHandle test = MethodHandles.filterReturnValue(
+          toHandle(list.get(1)), IS_TRUE);
+      return MethodHandles.guardWithTest(test,
+          toHandle(list.get(2)), toHandle(list.get(3)));
+    }
+    MethodHandle operation = BINARY_OPERATIONS.get(func);
+    if (operation == null || arity < 2 || (arity > 2
+        && !(func.equals(QFNRA.PLUS) || func.equals(QFNRA.MINUS)
+        || func.equals(QFNRA.MULTIPLY) || func.equals(QFNRA.DIVIDE)))) {
+      throw new ArithmeticException("cannot evaluate unknown function '"
+          + func + "' in expression " + list.toString());
+    }
+    // (op a b c) is ((a op b) op c)
+    MethodHandle result = toHandle(list.get(1));
+    for (int i = 2; i <= arity; ++i) {
+      result = binary(operation, result, toHandle(list.get(i)));
+    }
+    return result;
+  }
+
+  private static MethodHandle constant(double value) {
+    return MethodHandles.dropArguments(
+        MethodHandles.constant(double.class, value), 0, double[].class);
+  }
+
+  /**
+   * @return (vars) -> operation(left(vars), right(vars))
+   */
+  private static MethodHandle binary(MethodHandle operation,
+      MethodHandle left, MethodHandle right) {
+    MethodHandle filtered = MethodHandles.filterArguments(operation, 0,
+        left, right);
+    return MethodHandles.permuteArguments(filtered, TERM, 0, 0);
+  }
+
+  private static double add(double a, double b) {
+    return a + b;
+  }
+
+  private static double subtract(double a, double b) {
+    return a - b;
+  }
+
+  private static double multiply(double a, double b) {
+    return a * b;
+  }
+
+  private static double divide(double a, double b) {
+    return a / b;
+  }
+
+  private static double negate(double a) {
+    return -a;
+  }
+
+  private static double equal(double a, double b) {
+    return a == b ? 1.0 : 0.0;
+  }
+
+  private static double lessThan(double a, double b) {
+    return a < b ? 1.0 : 0.0;
+  }
+
+  private static double lessThanEqual(double a, double b) {
+    return a <= b ? 1.0 : 0.0;
+  }
+
+  private static double greater(double a, double b) {
+    return a > b ? 1.0 : 0.0;
+  }
+
+  private static double greaterEqual(double a, double b) {
+    return a >= b ? 1.0 : 0.0;
+  }
+
+  private static boolean isTrue(double condition) {
+    return condition != 0.0;
+  }
+
+}
@@ -0,0 +1,311 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Checks every assertion of a formula against a model at once, e.g. to
+ * confirm the solution dReal returned for a whole design. Unlike
+ * AssertionChecker it keeps no state between assertions: the model is
+ * shared read-only, the assertions are split across a fork-join pool, and
+ * the outcome of each one is collected in a VerificationReport.
+ *
+ * Assertions are judged by AssertionChecker.holds, the same rules as
+ * AssertionChecker.verify. Like AssertionChecker, the verifier holds on to
+ * nothing between calls: the sides of each assertion are compiled during
+ * the call checking it, and the model is laid out in slot arrays only as
+ * long as the largest symbol id it binds. A ModelVerifier may be used by
+ * several threads once configured.
+ */
+public class ModelVerifier {
+
+  /**
+   * Largest number of assertions checked by one task without splitting
+   */
+  static final int SEQUENTIAL_THRESHOLD = 32;
+
+  private final ForkJoinPool pool;
+
+  /**
+   * Both sides of an assertion, compiled
+   */
+  private static final class CompiledAssertion {
+    final CompiledExpression lhs;
+    final CompiledExpression rhs;
+
+    CompiledAssertion(CompiledExpression lhs, CompiledExpression rhs) {
+      this.lhs = lhs;
+      this.rhs = rhs;
+    }
+  }
+
+  /**
+   * Check assertions on the common fork-join pool
+   */
+  public ModelVerifier() {
+    this(ForkJoinPool.commonPool());
+  }
+
+  /**
+   * @param pool  Pool to check assertions on
+   */
+  public ModelVerifier(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  private boolean nonAssertionsAreErrors = false;
+  /**
+   * If nonAssertionsAreErrors is true, an expression that does not match
+   * (assert (x)) fails verification. Otherwise it is reported as passing.
+   *
+   * @param b  Set to true if terms without assertions are errors
+   */
+  public void setNonAssertionsAreErrors(boolean b) {
+    nonAssertionsAreErrors = b;
+  }
+
+  private double delta = 0.000001;
+  /**
+   * Change the value of delta, that value between two numbers for them to be
+   * considered equivalent. Default value is 0.000001
+   *
+   * @param d  Value to set delta equal to
+   */
+  public void setDelta(double d) {
+    delta = d;
+  }
+
+  /**
+   * Check each assertion against a model
+   *
+   * @param assertions  Assertions of the formula
+   * @param model  Value of each variable
+   * @return Outcome of each assertion; an assertion using a variable that
+   * has no value fails
+   */
+  public VerificationReport verify(List<SExpression> assertions,
+      Map<Symbol, Double> model) {
+    int length = 0;
+    for (Symbol var : model.keySet()) {
+      length = Math.max(length, var.getId() + 1);
+    }
+    double[] slots = new double[length];
+    boolean[] bound = new boolean[length];
+    for (Map.Entry<Symbol, Double> binding : model.entrySet()) {
+      int id = binding.getKey().getId();
+      slots[id] = binding.getValue();
+      bound[id] = true;
+    }
+    return verify(assertions, slots, bound);
+  }
+
+  /**
+   * Check each assertion against a model returned by dReal, taking the
+   * midpoint of the range of each variable as its value. A range unbounded
+   * on one side gives its finite end instead; a variable whose range is
+   * the entire line has no value.
+   *
+   * @param assertions  Assertions of the formula
+   * @param result  Satisfiable result of solving the formula
+   * @return Outcome of each assertion; an assertion using a variable that
+   * is not part of the model, or has no value, fails
+   */
+  public VerificationReport verify(List<SExpression> assertions,
+      DRealSolver.Result result) {
+    if (!result.isSatisfiable()) {
+      throw new IllegalArgumentException(
+          "cannot verify against an unsatisfiable result");
+    }
+    Set<Symbol> symbols = new HashSet<>();
+    Set<SExpression> visited = Collections.newSetFromMap(
+        new IdentityHashMap<SExpression, Boolean>());
+    for (SExpression assertion : assertions) {
+      if (AssertionChecker.isNonAssertion(assertion)) {
+        continue;
+      }
+      collectSymbols(((ParenList) assertion).get(1), symbols, visited);
+    }
+    int length = 0;
+    for (Symbol sym : symbols) {
+      length = Math.max(length, sym.getId() + 1);
+    }
+    double[] slots = new double[length];
+    boolean[] bound = new boolean[length];
+    for (Symbol sym : symbols) {
+      DRealSolver.RealRange range = result.getRange(sym);
+      if (range == null) {
+        continue;
+      }
+      double value = pickValue(range.lowerBound, range.upperBound);
+      if (!Double.isNaN(value)) {
+        slots[sym.getId()] = value;
+        bound[sym.getId()] = true;
+      }
+    }
+    return verify(assertions, slots, bound);
+  }
+
+  /**
+   * @return Midpoint of [lower, upper] if it is bounded, its finite end if
+   * it is bounded on one side only, and NaN otherwise
+   */
+  static double pickValue(double lower, double upper) {
+    boolean lowerFinite = !Double.isInfinite(lower) && !Double.isNaN(lower);
+    boolean upperFinite = !Double.isInfinite(upper) && !Double.isNaN(upper);
+    if (lowerFinite && upperFinite) {
+      // halve first, so that wide ranges do not overflow
+      return 0.5 * lower + 0.5 * upper;
+    } else if (lowerFinite) {
+      return lower;
+    } else if (upperFinite) {
+      return upper;
+    }
+    return Double.NaN;
+  }
+
+  /**
+   * Collect the variables of a term, leaving out the operator at the head
+   * of each list. Shared subterms are only walked once.
+   */
+  private static void collectSymbols(SExpression expr, Set<Symbol> symbols,
+      Set<SExpression> visited) {
+    if (expr instanceof Symbol) {
+      symbols.add((Symbol) expr);
+    } else if (expr instanceof ParenList && visited.add(expr)) {
+      ParenList list = (ParenList) expr;
+      for (int i = 0; i < list.size(); ++i) {
+        if (i > 0 || !(list.get(i) instanceof Symbol)) {
+          collectSymbols(list.get(i), symbols, visited);
+        }
+      }
+    }
+  }
+
+  private VerificationReport verify(List<SExpression> assertions,
+      double[] slots, boolean[] bound) {
+    SExpression[] exprs = assertions.toArray(
+        new SExpression[assertions.size()]);
+    VerificationReport.Entry[] entries =
+        new VerificationReport.Entry[exprs.length];
+    pool.invoke(new VerifyTask(exprs, entries, 0, exprs.length, slots,
+        bound));
+    return new VerificationReport(new ArrayList<>(Arrays.asList(entries)));
+  }
+
+  /**
+   * Checks the assertions from (inclusive) to to (exclusive), splitting the
+   * range in halves until it is small enough
+   */
+  private class VerifyTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final SExpression[] exprs;
+    private final VerificationReport.Entry[] entries;
+    private final int from;
+    private final int to;
+    private final double[] slots;
+    private final boolean[] bound;
+
+    VerifyTask(SExpression[] exprs, VerificationReport.Entry[] entries,
+        int from, int to, double[] slots, boolean[] bound) {
+      this.exprs = exprs;
+      this.entries = entries;
+      this.from = from;
+      this.to = to;
+      this.slots = slots;
+      this.bound = bound;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= SEQUENTIAL_THRESHOLD) {
+        for (int i = from; i < to; ++i) {
+          entries[i] = check(exprs[i], slots, bound);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new VerifyTask(exprs, entries, from, middle, slots, bound),
+          new VerifyTask(exprs, entries, middle, to, slots, bound));
+    }
+  }
+
+  private VerificationReport.Entry check(SExpression expr, double[] slots,
+      boolean[] bound) {
+    if (AssertionChecker.isNonAssertion(expr)) {
+      return unevaluated(expr, !nonAssertionsAreErrors);
+    }
+    ParenList term = (ParenList) ((ParenList) expr).get(1);
+    if (term.size() != 3 || !QFNRA.isComparison(term.get(0))) {
+      // malformed, or an unknown operator
+      return unevaluated(expr, false);
+    }
+    SExpression op = term.get(0);
+    CompiledAssertion sides = compile(term);
+    if (sides == null || !isBound(sides.lhs, bound)
+        || !isBound(sides.rhs, bound)) {
+      // unknown function, or a variable without a value
+      return unevaluated(expr, false);
+    }
+    // a stack of its own, so that tasks never share scratch space
+    double lhs = sides.lhs.evaluate(slots, sides.lhs.newStack());
+    double rhs = sides.rhs.evaluate(slots, sides.rhs.newStack());
+    double slack;
+    if (op.equals(QFNRA.EQUAL)) {
+      slack = delta - Math.abs(lhs - rhs);
+    } else if (op.equals(QFNRA.LESS_THAN)
+        || op.equals(QFNRA.LESS_THAN_EQUAL)) {
+      slack = rhs - lhs;
+    } else {
+      slack = lhs - rhs;
+    }
+    boolean satisfied = AssertionChecker.holds(op, lhs, rhs, delta);
+    if (!satisfied && slack == 0) {
+      // exactly on the boundary of a strict comparison, which excludes it
+      slack = -Double.MIN_VALUE;
+    }
+    return new VerificationReport.Entry(expr, satisfied, lhs, rhs, slack);
+  }
+
+  private static VerificationReport.Entry unevaluated(SExpression expr,
+      boolean satisfied) {
+    return new VerificationReport.Entry(expr, satisfied, Double.NaN,
+        Double.NaN, Double.NaN);
+  }
+
+  /**
+   * @return Both sides of a comparison, compiled, or null if they cannot be
+   * evaluated at all
+   */
+  private static CompiledAssertion compile(ParenList term) {
+    try {
+      return new CompiledAssertion(ExpressionCompiler.compile(term.get(1)),
+          ExpressionCompiler.compile(term.get(2)));
+    } catch (ArithmeticException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return True if every variable of the program has a value
+   */
+  private static boolean isBound(CompiledExpression program,
+      boolean[] bound) {
+    for (int i = 0; i < program.getSymbolCount(); ++i) {
+      int id = program.getSymbolId(i);
+      if (id >= bound.length || !bound[id]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
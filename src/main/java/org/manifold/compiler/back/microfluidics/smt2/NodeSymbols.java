@@ -0,0 +1,64 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every symbol describing a single node and its ports, built once per node
+ * and handed out by SymbolNameGenerator for the rest of the compile
+ */
+public class NodeSymbols {
+
+  private final Symbol x;
+  private final Symbol y;
+  private final Symbol pressure;
+  private final Symbol epsilon;
+  private final Map<String, Symbol> portPressures = new HashMap<>();
+
+  /**
+   * @param nodeName  Name of the node in the schematic
+   * @param portNames  Names of every port of the node
+   */
+  public NodeSymbols(String nodeName, Iterable<String> portNames) {
+    x = Symbol.of(nodeName + "_pos_x");
+    y = Symbol.of(nodeName + "_pos_y");
+    pressure = Symbol.of(nodeName + "_pressure");
+    epsilon = Symbol.of(nodeName + "_epsilon");
+    for (String portName : portNames) {
+      portPressures.put(portName,
+          Symbol.of(nodeName + "_" + portName + "_pressure"));
+    }
+  }
+
+  public Symbol getX() {
+    return x;
+  }
+
+  public Symbol getY() {
+    return y;
+  }
+
+  /**
+   * Pressure throughout the entire node, i.e. at every port
+   */
+  public Symbol getPressure() {
+    return pressure;
+  }
+
+  /**
+   * "Sharpness" of the corners of a T-junction
+   */
+  public Symbol getEpsilon() {
+    return epsilon;
+  }
+
+  /**
+   * @param portName  Name of a port of this node
+   * @return Pressure at that single port, or null if the node has no such
+   * port
+   */
+  public Symbol getPortPressure(String portName) {
+    return portPressures.get(portName);
+  }
+
+}
@@ -41,6 +41,11 @@ public class Numeral extends SExpression {
     return (this.getValue() == that.getValue());
   }
   
+  @Override
+  public int hashCode() {
+    return Long.hashCode(getValue());
+  }
+  
   @Override
   public void write(Writer writer) throws IOException {
     writer.write(Long.toString(getValue()));
@@ -3,28 +3,89 @@ package org.manifold.compiler.back.microfluidics.smt2;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
-import com.google.common.collect.ImmutableList;
-
 /**
  * List of SExpressions that contain expression in valid QF_NRA form. When write
  * is called, parentheses are put around each expression
  * 
+ * A ParenList is immutable. Its elements are kept in an array of exactly the
+ * right size, so reading them with size(), get(i) or by iterating never
+ * copies or allocates a list.
+ * 
  * @author Murphy? Comments by Josh
  *
  */
-public class ParenList extends SExpression {
+public class ParenList extends SExpression implements Iterable<SExpression> {
 
-  private List<SExpression> exprs = new ArrayList<>();
+  private static final SExpression[] NO_EXPRS = new SExpression[0];
+  
+  private final SExpression[] exprs;
+  
+  // read-only view of exprs, created on the first call to getExprs()
+  private List<SExpression> exprsView = null;
+  /**
+   * @return Read-only view of the elements; no copy is made
+   */
   public List<SExpression> getExprs() {
-    return ImmutableList.copyOf(exprs);
+    List<SExpression> view = exprsView;
+    if (view == null) {
+      view = Collections.unmodifiableList(Arrays.asList(exprs));
+      exprsView = view;
+    }
+    return view;
+  }
+  
+  /**
+   * @return Number of elements in the list
+   */
+  public int size() {
+    return exprs.length;
+  }
+  
+  /**
+   * @param i  Index of an element, 0 &lt;= i &lt; size()
+   * @return The element at index i
+   */
+  public SExpression get(int i) {
+    return exprs[i];
+  }
+  
+  /**
+   * @return True if the list has no elements, i.e. it is written as "()"
+   */
+  public boolean isEmpty() {
+    return exprs.length == 0;
+  }
+  
+  @Override
+  public Iterator<SExpression> iterator() {
+    return getExprs().iterator();
+  }
+  
+  // structural hash, computed once since a ParenList never changes after
+  // it is constructed
+  private final int hash;
+  
+  // set by SExpressionInterner once this list and all of its children are
+  // the canonical instances of their structure
+  private volatile boolean interned = false;
+  boolean isInterned() {
+    return interned;
+  }
+  void markInterned() {
+    interned = true;
   }
   
   /**
    * Empty ParenList constructor to allow for void ParenLists to be created 
    */
-  public ParenList() { }
+  public ParenList() {
+    this(NO_EXPRS, false);
+  }
   
 
   /**
@@ -33,7 +94,7 @@ public class ParenList extends SExpression {
    * @param expr  SExpression containing a single expr
    */
   public ParenList(SExpression expr) {
-    this.exprs.add(expr);
+    this(new SExpression[] {expr}, false);
   }
   
   /**
@@ -43,9 +104,7 @@ public class ParenList extends SExpression {
    * @param exprs  SExpression containing a multiple exprs
    */
   public ParenList(SExpression exprs[]) {
-    for (SExpression expr : exprs) {
-      this.exprs.add(expr);
-    }
+    this(exprs, true);
   }
   
   /**
@@ -55,17 +114,64 @@ public class ParenList extends SExpression {
    * @param exprs  List of multiple SExpressions
    */
   public ParenList(List<SExpression> exprs) {
-    this.exprs.addAll(exprs);
+    this(exprs.toArray(new SExpression[exprs.size()]), false);
+  }
+  
+  /**
+   * @param exprs  Elements of the list
+   * @param copy  False if the caller hands over exprs and will not modify it
+   */
+  ParenList(SExpression[] exprs, boolean copy) {
+    if (copy) {
+      this.exprs = exprs.clone();
+    } else {
+      this.exprs = exprs;
+    }
+    this.hash = Arrays.hashCode(this.exprs);
   }
   
+  /**
+   * Two lists are equal if they have equal elements in the same order. This
+   * is constant time for lists built by SExpressionInterner (QFNRA), which
+   * are equal exactly when they are the same instance, and otherwise stops
+   * at the first differing element or as soon as the cached hashes differ.
+   */
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof ParenList)) {
+      return false;
+    }
+    ParenList that = (ParenList) other;
+    if (this.hash != that.hash) {
+      return false;
+    }
+    if (this.interned && that.interned) {
+      // both canonical but different instances, so structurally different
+      return false;
+    }
+    return Arrays.equals(this.exprs, that.exprs);
+  }
+  
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+  
+  /**
+   * Writes the same compact form as Smt2Encoder, e.g. (assert (= x 1.0))
+   */
   @Override
   public void write(Writer writer) throws IOException {
     writer.write('(');
-    for (SExpression expr : exprs) {
-      writer.write(' ');
-      expr.write(writer);
+    for (int i = 0; i < exprs.length; ++i) {
+      if (i > 0) {
+        writer.write(' ');
+      }
+      exprs[i].write(writer);
     }
-    writer.write(' ');
     writer.write(')');
   }
 
@@ -73,5 +179,38 @@ public class ParenList extends SExpression {
   public void accept(SExpressionVisitor visitor) {
     visitor.visit(this);
   }
+  
+  /**
+   * @return A builder for a list whose length is not known up front
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+  
+  /**
+   * Collects the elements of a ParenList, which is built with exactly as
+   * many elements as were added
+   */
+  public static class Builder {
+    private final List<SExpression> exprs = new ArrayList<>();
+    
+    private Builder() { }
+    
+    public Builder add(SExpression expr) {
+      exprs.add(expr);
+      return this;
+    }
+    
+    public Builder addAll(Iterable<? extends SExpression> more) {
+      for (SExpression expr : more) {
+        exprs.add(expr);
+      }
+      return this;
+    }
+    
+    public ParenList build() {
+      return new ParenList(exprs);
+    }
+  }
 
 }
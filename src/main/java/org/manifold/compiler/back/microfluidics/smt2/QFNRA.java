@@ -1,6 +1,5 @@
 package org.manifold.compiler.back.microfluidics.smt2;
 
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -8,11 +7,39 @@ import java.util.List;
  * read by dReal when performing SMT solving QF_NRA stands for Quantifier-Free
  * Nonlinear Real Arithmetic
  * 
+ * Every expression is built through SExpressionInterner, so structurally
+ * equal subterms are shared rather than duplicated.
+ * 
  * @author Murphy? Comments by Josh
  *
  */
 public class QFNRA {
   
+  // canonical symbols of the commands, functions and operators used by the
+  // builders below, shared instead of being rebuilt for every expression
+  public static final Symbol SET_LOGIC = Symbol.of("set-logic");
+  public static final Symbol LOGIC_QF_NRA = Symbol.of("QF_NRA");
+  public static final Symbol DECLARE_FUN = Symbol.of("declare-fun");
+  public static final Symbol REAL = Symbol.of("Real");
+  public static final Symbol ASSERT = Symbol.of("assert");
+  public static final Symbol CHECK_SAT = Symbol.of("check-sat");
+  public static final Symbol EXIT = Symbol.of("exit");
+  public static final Symbol PLUS = Symbol.of("+");
+  public static final Symbol MINUS = Symbol.of("-");
+  public static final Symbol MULTIPLY = Symbol.of("*");
+  public static final Symbol DIVIDE = Symbol.of("/");
+  public static final Symbol POW = Symbol.of("^");
+  public static final Symbol ARCSIN = Symbol.of("arcsin");
+  public static final Symbol ITE = Symbol.of("ite");
+  public static final Symbol LET = Symbol.of("let");
+  public static final Symbol TRUE = Symbol.of("true");
+  public static final Symbol FALSE = Symbol.of("false");
+  public static final Symbol EQUAL = Symbol.of("=");
+  public static final Symbol LESS_THAN = Symbol.of("<");
+  public static final Symbol LESS_THAN_EQUAL = Symbol.of("<=");
+  public static final Symbol GREATER = Symbol.of(">");
+  public static final Symbol GREATER_EQUAL = Symbol.of(">=");
+  
 	/**
 	 * Translates a normal human readable equation into one readable by dReal
 	 * Normal equation: e1 * e2
@@ -23,13 +50,13 @@ public class QFNRA {
 	 * @param e2  Second expression, on the right
 	 * @return ParenList containing the new expression
 	 */
-  private static SExpression infix(SExpression e1, String op, SExpression e2) {
+  private static SExpression infix(SExpression e1, Symbol op, SExpression e2) {
     SExpression exprs[] = new SExpression[] {
-      new Symbol(op),
+      op,
       e1,
       e2
     };
-    return new ParenList(exprs);
+    return SExpressionInterner.list(exprs);
   }
   
   /**
@@ -40,10 +67,10 @@ public class QFNRA {
    */
   public static SExpression useQFNRA() {
     SExpression exprs[] = new SExpression[] {
-      new Symbol("set-logic"),
-      new Symbol("QF_NRA")
+      SET_LOGIC,
+      LOGIC_QF_NRA
     };
-    return new ParenList(exprs);
+    return SExpressionInterner.list(exprs);
   }
   
   /**
@@ -53,12 +80,12 @@ public class QFNRA {
    */
   public static SExpression declareRealVariable(Symbol var) {
     SExpression exprs[] = new SExpression[] {
-      new Symbol("declare-fun"),
+      DECLARE_FUN,
       var,
-      new ParenList(),
-      new Symbol("Real")
+      SExpressionInterner.list(),
+      REAL
     };
-    return new ParenList(exprs);
+    return SExpressionInterner.list(exprs);
   }
   
   /**
@@ -69,7 +96,7 @@ public class QFNRA {
    * @return ParenList containing the add expression 
    */
   public static SExpression add(SExpression e1, SExpression e2) {
-    return infix(e1, "+", e2);
+    return infix(e1, PLUS, e2);
   }
   
   /**
@@ -79,10 +106,13 @@ public class QFNRA {
    * @return ParenList containing the correct add expression
    */
   public static SExpression add(List<SExpression> terms) {
-    List<SExpression> exprs = new LinkedList<SExpression>();
-    exprs.add(new Symbol("+"));
-    exprs.addAll(terms);
-    return new ParenList(exprs);
+    SExpression[] exprs = new SExpression[terms.size() + 1];
+    exprs[0] = PLUS;
+    int i = 1;
+    for (SExpression term : terms) {
+      exprs[i++] = term;
+    }
+    return SExpressionInterner.list(exprs);
   }
   
   /**
@@ -93,7 +123,7 @@ public class QFNRA {
    * @return ParenList containing the subtraction expression 
    */
   public static SExpression subtract(SExpression e1, SExpression e2) {
-    return infix(e1, "-", e2);
+    return infix(e1, MINUS, e2);
   }
   
   /**
@@ -104,7 +134,7 @@ public class QFNRA {
    * @return ParenList containing the multiplication expression 
    */
   public static SExpression multiply(SExpression e1, SExpression e2) {
-    return infix(e1, "*", e2);
+    return infix(e1, MULTIPLY, e2);
   }
   
   /**
@@ -115,7 +145,7 @@ public class QFNRA {
    * @return ParenList containing the division expression 
    */
   public static SExpression divide(SExpression e1, SExpression e2) {
-    return infix(e1, "/", e2);
+    return infix(e1, DIVIDE, e2);
   }
   
   /**
@@ -126,7 +156,7 @@ public class QFNRA {
    * @return ParenList containing the exponential expression
    */
   public static SExpression pow(SExpression base, SExpression exp) {
-    return infix(base, "^", exp);
+    return infix(base, POW, exp);
   }
   
   /**
@@ -137,10 +167,10 @@ public class QFNRA {
    */
   public static SExpression arcsin(SExpression argument) {
     SExpression fExprs[] = new SExpression[] {
-      new Symbol("arcsin"),
+      ARCSIN,
       argument
     };
-    return new ParenList(fExprs);
+    return SExpressionInterner.list(fExprs);
   }
   
   /**
@@ -151,10 +181,10 @@ public class QFNRA {
    */
   public static SExpression assertThat(SExpression term) {
     SExpression assertExprs[] = new SExpression[] {
-      new Symbol("assert"),
+      ASSERT,
       term
     };
-    return new ParenList(assertExprs);
+    return SExpressionInterner.list(assertExprs);
   }
   
   /**
@@ -222,12 +252,12 @@ public class QFNRA {
   public static SExpression conditional(
       SExpression cond, SExpression t, SExpression e) {
     SExpression exprs[] = new SExpression[] {
-      new Symbol("ite"), // "if-then-else"
+      ITE, // "if-then-else"
       cond,
       t,
       e
     };
-    return new ParenList(exprs);
+    return SExpressionInterner.list(exprs);
   }
   
   /**
@@ -238,7 +268,7 @@ public class QFNRA {
    * @return ParenList containing the equality statement 
    */
   public static SExpression equal(SExpression e1, SExpression e2) {
-    return infix(e1, "=", e2);
+    return infix(e1, EQUAL, e2);
   }
   
   /**
@@ -250,7 +280,7 @@ public class QFNRA {
    * @return ParenList containing the inequality statement 
    */
   public static SExpression lessThan(SExpression e1, SExpression e2) {
-    return (infix(e1, "<", e2));
+    return (infix(e1, LESS_THAN, e2));
   }
   
   /**
@@ -262,7 +292,7 @@ public class QFNRA {
    * @return ParenList containing the inequality statement 
    */
   public static SExpression greater(SExpression e1, SExpression e2) {
-    return (infix(e1, ">", e2));
+    return (infix(e1, GREATER, e2));
   }
   
   /**
@@ -274,7 +304,7 @@ public class QFNRA {
    * @return ParenList containing the inequality statement 
    */
   public static SExpression lessThanEqual(SExpression e1, SExpression e2) {
-    return (infix(e1, "<=", e2));
+    return (infix(e1, LESS_THAN_EQUAL, e2));
   }
   
   /**
@@ -286,7 +316,54 @@ public class QFNRA {
    * @return ParenList containing the inequality statement 
    */
   public static SExpression greaterEqual(SExpression e1, SExpression e2) {
-    return (infix(e1, ">=", e2));
+    return (infix(e1, GREATER_EQUAL, e2));
+  }
+  
+  /**
+   * @param expr  Any expression
+   * @return The variable declared by (declare-fun var () Real), or null if
+   * expr is not such a declaration
+   */
+  public static Symbol getDeclaredVariable(SExpression expr) {
+    if (!(expr instanceof ParenList)) {
+      return null;
+    }
+    ParenList list = (ParenList) expr;
+    if (list.size() != 4 || !list.get(0).equals(DECLARE_FUN)
+        || !(list.get(1) instanceof Symbol)
+        || !list.get(3).equals(REAL)) {
+      return null;
+    }
+    return (Symbol) list.get(1);
+  }
+  
+  /**
+   * @param op  Operator of a term
+   * @return True if op is one of the comparisons =, <, <=, > and >=
+   */
+  public static boolean isComparison(SExpression op) {
+    return op.equals(EQUAL) || op.equals(LESS_THAN)
+        || op.equals(LESS_THAN_EQUAL) || op.equals(GREATER)
+        || op.equals(GREATER_EQUAL);
+  }
+  
+  /**
+   * @param expr  Any expression
+   * @return True if expr is a numeric literal, a Numeral or a Decimal
+   */
+  public static boolean isNumber(SExpression expr) {
+    return expr instanceof Numeral || expr instanceof Decimal;
+  }
+  
+  /**
+   * @param expr  Numeric literal, see isNumber
+   * @return The value of the literal, rounded to the nearest double
+   */
+  public static double getNumberValue(SExpression expr) {
+    if (expr instanceof Numeral) {
+      return ((Numeral) expr).getValue();
+    }
+    return ((Decimal) expr).getValue();
   }
   
 }
@@ -1,8 +1,8 @@
 package org.manifold.compiler.back.microfluidics.smt2;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * A statement containing expressions in QF_NRA form to pass into dReal
@@ -16,13 +16,6 @@ public abstract class SExpression {
   
   @Override
   public String toString() {
-    StringWriter sWrite = new StringWriter();
-    try {
-      write(sWrite);
-      return sWrite.toString();
-    } catch (IOException e) {
-      throw new IllegalStateException(
-          "could not convert s-expression to string: " + e.getMessage());
-    }
+    return new String(Smt2Encoder.toBytes(this), StandardCharsets.UTF_8);
   }
 }
@@ -0,0 +1,82 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.List;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Hash-consing factory for s-expressions. Structurally equal expressions
+ * built through here (QFNRA does so for every expression it builds) are the
+ * same instance, so a subterm like (/ PI 2) that appears many times in a
+ * translation is stored once and shared by every expression containing it.
+ *
+ * Canonical instances are held weakly and are dropped once no expression
+ * refers to them any more.
+ */
+public final class SExpressionInterner {
+
+  private static final Interner<SExpression> EXPRESSIONS =
+      Interners.newWeakInterner();
+
+  private SExpressionInterner() { }
+
+  /**
+   * Get the canonical instance of an expression, interning its subterms
+   * first so that the whole tree is shared
+   *
+   * @param expr  Any s-expression
+   * @return The canonical expression structurally equal to expr
+   */
+  public static SExpression intern(SExpression expr) {
+    if (expr instanceof Symbol) {
+      // symbols already have a canonical instance in SymbolTable
+      return Symbol.of(((Symbol) expr).getName());
+    } else if (expr instanceof ParenList) {
+      ParenList list = (ParenList) expr;
+      if (list.isInterned()) {
+        return list;
+      }
+      SExpression[] canonical = new SExpression[list.size()];
+      for (int i = 0; i < canonical.length; ++i) {
+        canonical[i] = intern(list.get(i));
+      }
+      return internList(new ParenList(canonical, false));
+    } else {
+      return EXPRESSIONS.intern(expr);
+    }
+  }
+
+  /**
+   * Build the canonical list of these expressions
+   *
+   * @param exprs  Elements of the list, interned first if they are not
+   * already canonical
+   * @return ParenList shared with every other list of equal elements
+   */
+  public static ParenList list(SExpression... exprs) {
+    SExpression[] canonical = new SExpression[exprs.length];
+    for (int i = 0; i < exprs.length; ++i) {
+      canonical[i] = intern(exprs[i]);
+    }
+    return internList(new ParenList(canonical, false));
+  }
+
+  /**
+   * Build the canonical list of these expressions
+   *
+   * @param exprs  Elements of the list, interned first if they are not
+   * already canonical
+   * @return ParenList shared with every other list of equal elements
+   */
+  public static ParenList list(List<SExpression> exprs) {
+    return list(exprs.toArray(new SExpression[exprs.size()]));
+  }
+
+  private static ParenList internList(ParenList list) {
+    ParenList canonical = (ParenList) EXPRESSIONS.intern(list);
+    canonical.markInterned();
+    return canonical;
+  }
+
+}
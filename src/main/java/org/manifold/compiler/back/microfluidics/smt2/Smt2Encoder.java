@@ -0,0 +1,188 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes s-expressions as SMT2 text straight into a reusable byte buffer that
+ * is flushed to a channel (usually a FileChannel) whenever it fills up.
+ * Symbol names are encoded once, when the symbol is interned, and copied
+ * into the buffer from then on; numbers are formatted without creating
+ * strings. Output is compact: elements of a list are separated by exactly
+ * one space and there is no space inside the parentheses, e.g.
+ * (assert (= x 1.0)).
+ */
+public class Smt2Encoder implements Closeable {
+
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+  
+  private static final byte OPEN = '(';
+  private static final byte CLOSE = ')';
+  private static final byte SPACE = ' ';
+  private static final byte NEWLINE = '\n';
+  
+  // enough for every digit and the sign of Long.MIN_VALUE
+  private static final int MAX_LONG_CHARS = 20;
+  
+  private final WritableByteChannel channel;
+  private final ByteBuffer buffer;
+  private final byte[] digits = new byte[MAX_LONG_CHARS];
+  
+  /**
+   * @param channel  Channel the encoded bytes are written to; closed by
+   * close()
+   */
+  public Smt2Encoder(WritableByteChannel channel) {
+    this(channel, DEFAULT_BUFFER_SIZE);
+  }
+  
+  /**
+   * @param channel  Channel the encoded bytes are written to; closed by
+   * close()
+   * @param bufferSize  Number of bytes buffered before writing to channel
+   */
+  public Smt2Encoder(WritableByteChannel channel, int bufferSize) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocate(bufferSize);
+  }
+  
+  /**
+   * Encode an expression into a new byte array, for callers that want the
+   * text of a single expression (SExpression.toString uses this)
+   * 
+   * @param expr  Expression to encode
+   * @return The compact SMT2 text of expr
+   */
+  public static byte[] toBytes(SExpression expr) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (Smt2Encoder encoder = new Smt2Encoder(
+        Channels.newChannel(bytes), 256)) {
+      encoder.encode(expr);
+    } catch (IOException e) {
+      // a ByteArrayOutputStream never fails
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+  
+  /**
+   * Encode an expression followed by a newline
+   * 
+   * @param expr  Expression to encode
+   * @throws IOException  if the buffer had to be flushed and writing failed
+   */
+  public void encodeLine(SExpression expr) throws IOException {
+    encode(expr);
+    put(NEWLINE);
+  }
+  
+  /**
+   * Encode an expression
+   * 
+   * @param expr  Expression to encode
+   * @throws IOException  if the buffer had to be flushed and writing failed
+   */
+  public void encode(SExpression expr) throws IOException {
+    if (expr instanceof Symbol) {
+      put(((Symbol) expr).getNameBytes());
+    } else if (expr instanceof ParenList) {
+      ParenList list = (ParenList) expr;
+      put(OPEN);
+      for (int i = 0; i < list.size(); ++i) {
+        if (i > 0) {
+          put(SPACE);
+        }
+        encode(list.get(i));
+      }
+      put(CLOSE);
+    } else if (expr instanceof Numeral) {
+      putLong(((Numeral) expr).getValue());
+    } else if (expr instanceof Decimal) {
+      putAscii(((Decimal) expr).getRepresentation());
+    } else {
+      throw new IllegalArgumentException("cannot encode expression of type "
+          + expr.getClass().getName());
+    }
+  }
+  
+  private void put(byte b) throws IOException {
+    if (!buffer.hasRemaining()) {
+      flush();
+    }
+    buffer.put(b);
+  }
+  
+  private void put(byte[] bytes) throws IOException {
+    if (bytes.length > buffer.remaining()) {
+      flush();
+      if (bytes.length > buffer.capacity()) {
+        writeFully(ByteBuffer.wrap(bytes));
+        return;
+      }
+    }
+    buffer.put(bytes);
+  }
+  
+  // decimal representations only ever contain ASCII characters
+  private void putAscii(String s) throws IOException {
+    for (int i = 0; i < s.length(); ++i) {
+      put((byte) s.charAt(i));
+    }
+  }
+  
+  private void putLong(long value) throws IOException {
+    if (value == Long.MIN_VALUE) {
+      // cannot be negated
+      putAscii(Long.toString(value));
+      return;
+    }
+    boolean negative = value < 0;
+    long v = Math.abs(value);
+    int pos = digits.length;
+    do {
+      digits[--pos] = (byte) ('0' + (v % 10));
+      v /= 10;
+    } while (v != 0);
+    if (negative) {
+      digits[--pos] = '-';
+    }
+    for (int i = pos; i < digits.length; ++i) {
+      put(digits[i]);
+    }
+  }
+  
+  private void writeFully(ByteBuffer src) throws IOException {
+    while (src.hasRemaining()) {
+      channel.write(src);
+    }
+  }
+  
+  /**
+   * Write everything buffered so far to the channel
+   * 
+   * @throws IOException  if writing to the channel failed
+   */
+  public void flush() throws IOException {
+    buffer.flip();
+    writeFully(buffer);
+    buffer.clear();
+  }
+  
+  /**
+   * Flush the buffer and close the channel
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+  
+}
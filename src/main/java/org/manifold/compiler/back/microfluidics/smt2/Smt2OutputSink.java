@@ -0,0 +1,155 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Writes emitted expressions to an .smt2 output in the order dReal needs:
+ * the logic and every declaration first, then every assertion, then any other
+ * commands such as (check-sat) and (exit).
+ * 
+ * Declarations are written as soon as they are emitted. Assertions have to
+ * wait until the last declaration is written; up to a fixed number of them
+ * are held in memory, and once that is exceeded they are written out to a
+ * temporary file that is copied to the output on close(). Memory use
+ * therefore does not grow with the size of the translation.
+ * 
+ * Everything is written through Smt2Encoder, one expression per line.
+ */
+public class Smt2OutputSink implements ExpressionSink {
+
+  /**
+   * Default number of assertions held in memory before spilling to disk
+   */
+  public static final int DEFAULT_ASSERTION_BUFFER_SIZE = 4096;
+  
+  private final WritableByteChannel channel;
+  private final Smt2Encoder out;
+  private final int assertionBufferSize;
+  
+  private final List<SExpression> bufferedAssertions = new ArrayList<>();
+  private Path spillFile = null;
+  private Smt2Encoder spill = null;
+  
+  // commands other than declarations and assertions, in emission order;
+  // there are only ever a handful of these
+  private final List<SExpression> commands = new LinkedList<>();
+  
+  /**
+   * @param channel  Output to write the translation to; closed by close()
+   */
+  public Smt2OutputSink(WritableByteChannel channel) {
+    this(channel, DEFAULT_ASSERTION_BUFFER_SIZE);
+  }
+  
+  /**
+   * @param channel  Output to write the translation to; closed by close()
+   * @param assertionBufferSize  Number of assertions held in memory before
+   * the rest are written to a temporary file
+   */
+  public Smt2OutputSink(WritableByteChannel channel,
+      int assertionBufferSize) {
+    this.channel = channel;
+    this.out = new Smt2Encoder(channel);
+    this.assertionBufferSize = assertionBufferSize;
+  }
+  
+  /**
+   * @return True if assertions have been written to a temporary file
+   */
+  public boolean hasSpilled() {
+    return spillFile != null;
+  }
+  
+  @Override
+  public void emit(SExpression expr) {
+    try {
+      Symbol head = headSymbol(expr);
+      if (QFNRA.SET_LOGIC.equals(head) || QFNRA.DECLARE_FUN.equals(head)) {
+        out.encodeLine(expr);
+      } else if (QFNRA.ASSERT.equals(head)) {
+        bufferAssertion(expr);
+      } else {
+        commands.add(expr);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+  
+  private static Symbol headSymbol(SExpression expr) {
+    if (expr instanceof ParenList) {
+      ParenList list = (ParenList) expr;
+      if (!list.isEmpty() && list.get(0) instanceof Symbol) {
+        return (Symbol) list.get(0);
+      }
+    }
+    return null;
+  }
+  
+  private void bufferAssertion(SExpression expr) throws IOException {
+    if (spill != null) {
+      spill.encodeLine(expr);
+      return;
+    }
+    bufferedAssertions.add(expr);
+    if (bufferedAssertions.size() > assertionBufferSize) {
+      spillFile = Files.createTempFile("manifold-assertions", ".smt2");
+      spill = new Smt2Encoder(FileChannel.open(spillFile,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+      for (SExpression assertion : bufferedAssertions) {
+        spill.encodeLine(assertion);
+      }
+      bufferedAssertions.clear();
+    }
+  }
+  
+  /**
+   * Write the held back assertions and commands and close the output
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (spill != null) {
+        spill.close();
+        spill = null;
+        // everything before the assertions must be on the channel first
+        out.flush();
+        try (FileChannel spilled = FileChannel.open(spillFile,
+            StandardOpenOption.READ)) {
+          long size = spilled.size();
+          long position = 0;
+          while (position < size) {
+            position += spilled.transferTo(
+                position, size - position, channel);
+          }
+        }
+      }
+      for (SExpression assertion : bufferedAssertions) {
+        out.encodeLine(assertion);
+      }
+      bufferedAssertions.clear();
+      for (SExpression command : commands) {
+        out.encodeLine(command);
+      }
+      commands.clear();
+    } finally {
+      if (spill != null) {
+        spill.close();
+      }
+      if (spillFile != null) {
+        Files.deleteIfExists(spillFile);
+      }
+      out.close();
+    }
+  }
+  
+}
@@ -2,6 +2,7 @@ package org.manifold.compiler.back.microfluidics.smt2;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Stores a valid variable name or operator for use in a QF_NRA expression
@@ -16,7 +17,36 @@ public class Symbol extends SExpression {
     return name;
   }
   
-  private static String otherLegalChars = "+-/*=%?!.%_!&^<>@";
+  // encoded once for the canonical symbol and shared by every copy of it
+  private final byte[] nameBytes;
+  /**
+   * @return The name as written to an .smt2 file by Smt2Encoder; must not be
+   * modified
+   */
+  byte[] getNameBytes() {
+    return nameBytes;
+  }
+  
+  private final int id;
+  /**
+   * Get the id SymbolTable gave to this name; two symbols are equal exactly
+   * when their ids are equal
+   * 
+   * @return Stable id of the symbol name
+   */
+  public int getId() {
+    return id;
+  }
+  
+  private static final String OTHER_LEGAL_CHARS = "+-/*=%?!.%_!&^<>@";
+  // legal ASCII characters, looked up by character code
+  private static final boolean[] LEGAL_ASCII = new boolean[128];
+  static {
+    for (char c = 0; c < LEGAL_ASCII.length; ++c) {
+      LEGAL_ASCII[c] = Character.isAlphabetic(c) || Character.isDigit(c)
+          || OTHER_LEGAL_CHARS.indexOf(c) != -1;
+    }
+  }
   
   /**
    * A symbol is a non-empty sequence of letters, digits, and the characters
@@ -24,7 +54,7 @@ public class Symbol extends SExpression {
    * 
    * @param name  A string that is the name of this symbol
    */
-  private void validateName(String name) {
+  static void validateName(String name) {
     // 
     if (name.isEmpty()) {
       throw new IllegalArgumentException(
@@ -37,27 +67,52 @@ public class Symbol extends SExpression {
     for (int i = 0; i < name.length(); ++i) {
       char c = name.charAt(i);
       // Iterate through every character in name, if its a letter or digit or
-      // present in otherLegalChars then continue, else throw exception
-      if (Character.isAlphabetic(c)) {
+      // one of the other legal characters then continue, else throw exception
+      if (c < LEGAL_ASCII.length) {
+        if (LEGAL_ASCII[c]) {
+          continue;
+        }
+      } else if (Character.isAlphabetic(c) || Character.isDigit(c)) {
         continue;
-      } else if (Character.isDigit(c)) {
-        continue;
-      } else if (otherLegalChars.indexOf(c) == -1) {
-        throw new IllegalArgumentException("character '" + c + "'"
-            + " cannot appear in a symbol name");
       }
+      throw new IllegalArgumentException("character '" + c + "'"
+          + " cannot appear in a symbol name");
     }
   }
   
   /**
-   * Checks that the symbol name is valid by calling validateName(name),
-   * valid means it contains only letters, numbers or certain symbols
+   * Get the canonical symbol with this name from SymbolTable. Prefer this
+   * over the constructor in code that runs often.
+   * 
+   * @param name  A string that is the name of the symbol
+   * @return The canonical Symbol having this name
+   */
+  public static Symbol of(String name) {
+    return SymbolTable.intern(name);
+  }
+  
+  /**
+   * Checks that the symbol name is valid, valid means it contains only
+   * letters, numbers or certain symbols. The name is validated only the
+   * first time it is seen by SymbolTable.
    * 
    * @param name  A string that is the name of this symbol
    */
   public Symbol(String name) {
-    validateName(name);
+    Symbol canonical = SymbolTable.intern(name);
+    this.name = canonical.name;
+    this.nameBytes = canonical.nameBytes;
+    this.id = canonical.id;
+  }
+  
+  /**
+   * Only used by SymbolTable to create the canonical symbol of a name that
+   * has already been validated
+   */
+  Symbol(String name, int id) {
     this.name = name;
+    this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    this.id = id;
   }
   
   @Override
@@ -68,13 +123,12 @@ public class Symbol extends SExpression {
     if (!(other instanceof Symbol)) {
       return false;
     }
-    Symbol that = (Symbol) other;
-    return (this.getName().equals(that.getName()));
+    return this.id == ((Symbol) other).id;
   }
   
   @Override
   public int hashCode() {
-    return getName().hashCode();
+    return id;
   }
 
   @Override
@@ -1,11 +1,10 @@
 package org.manifold.compiler.back.microfluidics.smt2;
 
-import java.util.Map;
-
 import org.manifold.compiler.ConnectionValue;
 import org.manifold.compiler.NodeValue;
 import org.manifold.compiler.PortValue;
 import org.manifold.compiler.back.microfluidics.CodeGenerationError;
+import org.manifold.compiler.back.microfluidics.SchematicIndex;
 import org.manifold.compiler.middle.Schematic;
 
 /**
@@ -17,27 +16,47 @@ import org.manifold.compiler.middle.Schematic;
  */
 public class SymbolNameGenerator {
 
+  private static final Symbol CONSTANT_PI = Symbol.of("PI");
+
+  /**
+   * Retrieves every symbol of a channel. The bundle is built once per
+   * channel and cached in the schematic's SchematicIndex, so strategies that
+   * need several symbols of the same channel should fetch it once and use
+   * its getters instead of calling the getsym_Channel* methods one by one.
+   */
+  public static ChannelSymbols getChannelSymbols(Schematic schematic,
+      ConnectionValue ch) {
+    return SchematicIndex.of(schematic).getChannelSymbols(ch);
+  }
+
+  /**
+   * Retrieves every symbol of a node and its ports, built once per node
+   * and cached in the schematic's SchematicIndex.
+   */
+  public static NodeSymbols getNodeSymbols(Schematic schematic,
+      NodeValue node) {
+    return SchematicIndex.of(schematic).getNodeSymbols(node);
+  }
+
   /**
    * Retrieves the symbol whose value is the mathematical constant "pi".
    */
   public static Symbol getsym_constant_pi() {
-    return new Symbol("PI");
+    return CONSTANT_PI;
   }
   
   /**
    * Retrieves the symbol that defines the x-coordinate of a node's position.
    */
   public static Symbol getsym_NodeX(Schematic schematic, NodeValue node) {
-    String nodeName = schematic.getNodeName(node);
-    return new Symbol(nodeName.concat("_pos_x"));
+    return getNodeSymbols(schematic, node).getX();
   }
   
   /**
    * Retrieves the symbol that defines the y-coordinate of a node's position.
    */
   public static Symbol getsym_NodeY(Schematic schematic, NodeValue node) {
-    String nodeName = schematic.getNodeName(node);
-    return new Symbol(nodeName.concat("_pos_y"));
+    return getNodeSymbols(schematic, node).getY();
   }
   
   /**
@@ -46,8 +65,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getSym_NodePressure(
       Schematic schematic, NodeValue node) {
-    String nodeName = schematic.getNodeName(node);
-    return new Symbol(nodeName.concat("_pressure"));
+    return getNodeSymbols(schematic, node).getPressure();
   }
   
   /**
@@ -55,21 +73,19 @@ public class SymbolNameGenerator {
    */
   public static Symbol getSym_PortPressure(
       Schematic schematic, PortValue port) {
+    SchematicIndex index = SchematicIndex.of(schematic);
     NodeValue node = port.getParent();
-    String nodeName = schematic.getNodeName(node);
     // reverse map the port onto its name
-    String portName = null;
-    for (Map.Entry<String, PortValue> entry : node.getPorts().entrySet()) {
-      if (entry.getValue().equals(port)) {
-        portName = entry.getKey();
-        break;
-      }
+    String portName = index.getPortName(port);
+    Symbol sym = null;
+    if (portName != null) {
+      sym = index.getNodeSymbols(node).getPortPressure(portName);
     }
-    if (portName == null) {
+    if (sym == null) {
       throw new CodeGenerationError("could not map port to name for node '"
-          + nodeName + "'");
+          + index.getNodeName(node) + "'");
     }
-    return new Symbol(nodeName + "_" + portName + "_pressure");
+    return sym;
   }
   
   /**
@@ -77,8 +93,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelLength(Schematic schematic, 
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_length"));
+    return getChannelSymbols(schematic, ch).getLength();
   }
   
   /**
@@ -88,14 +103,12 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelFlowRate(Schematic schematic, 
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_flowrate"));
+    return getChannelSymbols(schematic, ch).getFlowRate();
   }
   
   public static Symbol getsym_ChannelFlowRate_WorstCase(Schematic schematic, 
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_flowrate_worst_case"));
+    return getChannelSymbols(schematic, ch).getFlowRateWorstCase();
   }
   
   /**
@@ -104,8 +117,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelViscosity(Schematic schematic, 
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_viscosity"));
+    return getChannelSymbols(schematic, ch).getViscosity();
   }
   
   /**
@@ -114,8 +126,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelResistance(Schematic schematic, 
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_resistance"));
+    return getChannelSymbols(schematic, ch).getResistance();
   }
 
   /**
@@ -124,14 +135,12 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelDropletVolume(Schematic schematic,
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_droplet_volume"));
+    return getChannelSymbols(schematic, ch).getDropletVolume();
   }
   
   public static Symbol getsym_ChannelDropletVolume_WorstCase(
       Schematic schematic, ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_droplet_volume_worst_case"));
+    return getChannelSymbols(schematic, ch).getDropletVolumeWorstCase();
   }
   
   /**
@@ -140,8 +149,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelDropletResistance(Schematic schematic,
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_droplet_resistance"));
+    return getChannelSymbols(schematic, ch).getDropletResistance();
   }
 
   /**
@@ -149,8 +157,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelDropletVelocity(Schematic schematic,
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_droplet_velocity"));
+    return getChannelSymbols(schematic, ch).getDropletVelocity();
   }
   
   /**
@@ -159,8 +166,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelDropletFrequency(Schematic schematic,
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_droplet_frequency"));
+    return getChannelSymbols(schematic, ch).getDropletFrequency();
   }
   
   /**
@@ -169,8 +175,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelDropletSpacing(Schematic schematic,
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_droplet_spacing"));
+    return getChannelSymbols(schematic, ch).getDropletSpacing();
   }
   
   /**
@@ -179,8 +184,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelMaxDroplets(Schematic schematic,
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_max_droplets"));
+    return getChannelSymbols(schematic, ch).getMaxDroplets();
   }
   
   /**
@@ -188,8 +192,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelHeight(Schematic schematic,
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_height"));
+    return getChannelSymbols(schematic, ch).getHeight();
   }
 
   /**
@@ -197,8 +200,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_ChannelWidth(Schematic schematic,
       ConnectionValue ch) {
-    String chName = schematic.getConnectionName(ch);
-    return new Symbol(chName.concat("_width"));
+    return getChannelSymbols(schematic, ch).getWidth();
   }
 
   /**
@@ -207,8 +209,7 @@ public class SymbolNameGenerator {
    */
   public static Symbol getsym_TJunctionEpsilon(Schematic schematic,
       NodeValue junc) {
-    String jName = schematic.getNodeName(junc);
-    return new Symbol(jName.concat("_epsilon"));
+    return getNodeSymbols(schematic, junc).getEpsilon();
   }
   
 }
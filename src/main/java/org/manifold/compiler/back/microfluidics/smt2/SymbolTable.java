@@ -0,0 +1,166 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Global table of every symbol name seen so far. Each distinct name is
+ * validated once and given a canonical Symbol with a stable integer id;
+ * every other Symbol with the same name shares that id, so comparing two
+ * symbols is a comparison of ids rather than of strings.
+ *
+ * The table only grows, for as long as the JVM runs: ids are handed out to
+ * Symbols that may be held anywhere (compiled programs, solver results,
+ * pooled solver sessions), so no entry can be evicted safely. Each distinct
+ * name costs one Symbol and its bytes. A single compile needs as many as
+ * the schematic has names; a long-lived process that compiles many
+ * different schematics (e.g. with a DRealSolverPool or a SolverPortfolio
+ * kept alive across runs) keeps the names of all of them. Since the names
+ * are derived from node and connection names, schematics of one design
+ * family mostly share them.
+ */
+public final class SymbolTable {
+
+  private static final ConcurrentMap<String, Symbol> SYMBOLS =
+      new ConcurrentHashMap<>();
+  private static final AtomicInteger NEXT_ID = new AtomicInteger(0);
+
+  private SymbolTable() { }
+
+  /**
+   * Get the canonical symbol for a name, validating and registering the name
+   * the first time it is seen
+   *
+   * @param name  A string that is the name of the symbol
+   * @return The one canonical Symbol having this name
+   * @throws IllegalArgumentException if name is not a legal symbol name
+   */
+  public static Symbol intern(String name) {
+    Symbol sym = SYMBOLS.get(name);
+    if (sym != null) {
+      return sym;
+    }
+    Symbol.validateName(name);
+    // registered atomically, so ids are handed out densely and a name that
+    // races with itself still gets a single id
+    return SYMBOLS.computeIfAbsent(name, n -> {
+      Symbol created = new Symbol(n, NEXT_ID.getAndIncrement());
+      register(created);
+      return created;
+    });
+  }
+
+  // canonical symbol of each id; written under the class lock, and
+  // republished through the volatile field after every write, so that get
+  // can read it without the lock
+  private static volatile Symbol[] byId = new Symbol[256];
+
+  /**
+   * Canonical symbols by the hash of their name bytes, open addressing with
+   * linear probing. Written under the class lock and probed without it: a
+   * probe racing with a registration may miss the new symbol, never find a
+   * wrong one.
+   */
+  private static volatile Symbol[] byName = new Symbol[1024];
+  private static int byNameCount = 0;
+
+  private static synchronized void register(Symbol sym) {
+    Symbol[] ids = byId;
+    if (sym.getId() >= ids.length) {
+      ids = Arrays.copyOf(ids, Math.max(sym.getId() + 1, 2 * ids.length));
+    }
+    ids[sym.getId()] = sym;
+    byId = ids;
+    Symbol[] table = byName;
+    if (2 * (byNameCount + 1) > table.length) {
+      // fill the larger table before publishing it
+      Symbol[] larger = new Symbol[2 * table.length];
+      for (Symbol old : table) {
+        if (old != null) {
+          insert(larger, old);
+        }
+      }
+      table = larger;
+    }
+    insert(table, sym);
+    byName = table;
+    ++byNameCount;
+  }
+
+  private static void insert(Symbol[] table, Symbol sym) {
+    byte[] name = sym.getNameBytes();
+    int mask = table.length - 1;
+    int slot = hash(name, 0, name.length) & mask;
+    while (table[slot] != null) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = sym;
+  }
+
+  // FNV-1a
+  private static int hash(byte[] bytes, int offset, int length) {
+    int hash = 0x811c9dc5;
+    for (int i = offset; i < offset + length; ++i) {
+      hash ^= bytes[i] & 0xff;
+      hash *= 0x01000193;
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Find the canonical symbol whose UTF-8 encoded name is the given bytes,
+   * without decoding them
+   *
+   * @param bytes  Array holding the name
+   * @param offset  Index of the first byte of the name
+   * @param length  Number of bytes in the name
+   * @return The symbol, or null if no symbol has this name (or it is being
+   * registered right now; use intern to be sure)
+   */
+  public static Symbol lookup(byte[] bytes, int offset, int length) {
+    Symbol[] table = byName;
+    int mask = table.length - 1;
+    for (int slot = hash(bytes, offset, length) & mask;
+        table[slot] != null; slot = (slot + 1) & mask) {
+      byte[] name = table[slot].getNameBytes();
+      if (name.length == length && regionEquals(name, bytes, offset)) {
+        return table[slot];
+      }
+    }
+    return null;
+  }
+
+  private static boolean regionEquals(byte[] name, byte[] bytes,
+      int offset) {
+    for (int i = 0; i < name.length; ++i) {
+      if (name[i] != bytes[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the canonical symbol having an id
+   *
+   * @param id  Id of the symbol
+   * @return The symbol, or null if no symbol has this id (yet)
+   */
+  public static Symbol get(int id) {
+    Symbol[] ids = byId;
+    if (id < 0 || id >= ids.length) {
+      return null;
+    }
+    return ids[id];
+  }
+
+  /**
+   * @return The number of distinct symbol names seen so far
+   */
+  public static int size() {
+    return SYMBOLS.size();
+  }
+
+}
@@ -0,0 +1,115 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of checking every assertion of a formula against a model, as
+ * produced by ModelVerifier: whether each assertion holds, the value of
+ * each of its sides and the slack by which it holds.
+ */
+public class VerificationReport {
+
+  /**
+   * Outcome of checking a single assertion
+   */
+  public static class Entry {
+    private final SExpression assertion;
+    private final boolean satisfied;
+    private final double lhs;
+    private final double rhs;
+    private final double slack;
+
+    Entry(SExpression assertion, boolean satisfied, double lhs, double rhs,
+        double slack) {
+      this.assertion = assertion;
+      this.satisfied = satisfied;
+      this.lhs = lhs;
+      this.rhs = rhs;
+      this.slack = slack;
+    }
+
+    public SExpression getAssertion() {
+      return assertion;
+    }
+
+    public boolean isSatisfied() {
+      return satisfied;
+    }
+
+    /**
+     * @return Value of the left hand side, or NaN if the assertion could
+     * not be evaluated
+     */
+    public double getLHS() {
+      return lhs;
+    }
+
+    /**
+     * @return Value of the right hand side, or NaN if the assertion could
+     * not be evaluated
+     */
+    public double getRHS() {
+      return rhs;
+    }
+
+    /**
+     * How far the assertion is from being violated: RHS - LHS for < and <=,
+     * LHS - RHS for > and >=, and delta - |LHS - RHS| for =. Negative
+     * exactly when the assertion is violated; a strict comparison or = that
+     * is violated on its boundary has the smallest negative slack.
+     *
+     * @return Slack of the assertion, or NaN if it could not be evaluated
+     */
+    public double getSlack() {
+      return slack;
+    }
+
+    @Override
+    public String toString() {
+      return (satisfied ? "pass " : "FAIL ") + assertion + " lhs=" + lhs
+          + " rhs=" + rhs + " slack=" + slack;
+    }
+  }
+
+  private final List<Entry> entries;
+
+  VerificationReport(List<Entry> entries) {
+    this.entries = Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * @return True if every assertion holds
+   */
+  public boolean isSatisfied() {
+    for (Entry entry : entries) {
+      if (!entry.isSatisfied()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return Outcome of each assertion, in the order they were given
+   */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return Outcome of each assertion that does not hold, in the order they
+   * were given
+   */
+  public List<Entry> getViolations() {
+    List<Entry> violations = new ArrayList<>();
+    for (Entry entry : entries) {
+      if (!entry.isSatisfied()) {
+        violations.add(entry);
+      }
+    }
+    return violations;
+  }
+
+}
@@ -6,6 +6,7 @@ import java.util.List;
 import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
 import org.manifold.compiler.back.microfluidics.TranslationStrategy;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
 import org.manifold.compiler.back.microfluidics.strategies.multiphase.DropletConstraintStrategy;
 import org.manifold.compiler.back.microfluidics.strategies.multiphase.TJunctionDeviceStrategy;
@@ -85,4 +86,18 @@ public class MultiPhaseStrategySet extends TranslationStrategy {
     return exprs;
   }
   
+  /**
+   * Streams the translation of each constituent strategy into sink, in the
+   * same order as translationStep
+   */
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
+    dropletConstraintStrategy.translate(
+        schematic, processParams, typeTable, sink);
+    tjunctionDeviceStrategy.translate(
+        schematic, processParams, typeTable, sink);
+  }
+
 }
@@ -6,6 +6,7 @@ import java.util.List;
 import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
 import org.manifold.compiler.back.microfluidics.TranslationStrategy;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
 import org.manifold.compiler.back.microfluidics.strategies.placement.ChannelPlacementConstraintStrategy;
 import org.manifold.compiler.back.microfluidics.strategies.placement.ChipAreaRuleStrategy;
@@ -146,4 +147,26 @@ public class PlacementTranslationStrategySet extends TranslationStrategy {
     return exprs;
   }
   
-}
\ No newline at end of file
+  /**
+   * Streams the translation of each constituent strategy into sink, in the
+   * same order as translationStep
+   */
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
+    channelPlacementStrategy.translate(
+        schematic, processParams, typeTable, sink);
+    chipAreaRuleStrategy.translate(
+        schematic, processParams, typeTable, sink);
+    controlPointPlacementStrategy.translate(
+        schematic, processParams, typeTable, sink);
+    criticalAngleStrategy.translate(
+        schematic, processParams, typeTable, sink);
+    lengthRuleStrategy.translate(
+        schematic, processParams, typeTable, sink);
+    minimumChannelLengthStrategy.translate(
+        schematic, processParams, typeTable, sink);
+  }
+
+}
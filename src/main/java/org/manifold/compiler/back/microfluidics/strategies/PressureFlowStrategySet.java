@@ -7,6 +7,7 @@ import java.util.List;
 import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
 import org.manifold.compiler.back.microfluidics.TranslationStrategy;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
 import org.manifold.compiler.back.microfluidics.strategies.pressureflow.ChannelResistanceStrategy;
 import org.manifold.compiler.back.microfluidics.strategies.pressureflow.FluidEntryExitDeviceStrategy;
@@ -102,5 +103,21 @@ public class PressureFlowStrategySet extends TranslationStrategy {
         schematic, processParams, typeTable));
     return exprs;
   }
+  
+  /**
+   * Streams the translation of each constituent strategy into sink, in the
+   * same order as translationStep
+   */
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
+    channelResistanceStrategy.translate(
+        schematic, processParams, typeTable, sink);
+    entryExitStrategy.translate(
+        schematic, processParams, typeTable, sink);
+    pressureFlow.translate(
+        schematic, processParams, typeTable, sink);
+  }
 
-}
\ No newline at end of file
+}
@@ -11,10 +11,13 @@ import org.manifold.compiler.UndeclaredIdentifierException;
 import org.manifold.compiler.back.microfluidics.CodeGenerationError;
 import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
-import org.manifold.compiler.back.microfluidics.SchematicUtil;
+import org.manifold.compiler.back.microfluidics.SchematicIndex;
 import org.manifold.compiler.back.microfluidics.TranslationStrategy;
+import org.manifold.compiler.back.microfluidics.smt2.ChannelSymbols;
 import org.manifold.compiler.back.microfluidics.smt2.Decimal;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.Macros;
+import org.manifold.compiler.back.microfluidics.smt2.NodeSymbols;
 import org.manifold.compiler.back.microfluidics.smt2.Numeral;
 import org.manifold.compiler.back.microfluidics.smt2.QFNRA;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
@@ -43,9 +46,16 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
   @Override
   protected List<SExpression> translationStep(Schematic schematic,
       ProcessParameters processParams, PrimitiveTypeTable typeTable) {
-    List<SExpression> exprs = new LinkedList<>();
+    return collect(schematic, processParams, typeTable);
+  }
+
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
     // look for all T-junctions
     NodeTypeValue targetNode = typeTable.getTJunctionNodeType();
+    SchematicIndex index = SchematicIndex.of(schematic);
     for (NodeValue node : schematic.getNodes().values()) {
       if (!(node.getType().isSubtypeOf(targetNode))) {
         continue;
@@ -53,13 +63,13 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
       // pull connections out of the node
       try {
         // TODO refactor these into constants
-        ConnectionValue chContinuous = SchematicUtil.getConnection(
-            schematic, node.getPort("continuous"));
-        ConnectionValue chDispersed = SchematicUtil.getConnection(
-            schematic, node.getPort("dispersed"));
-        ConnectionValue chOutput = SchematicUtil.getConnection(
-            schematic, node.getPort("output"));
-        exprs.addAll(translateTJunction(schematic, node, 
+        ConnectionValue chContinuous = index.getConnection(
+            node.getPort("continuous"));
+        ConnectionValue chDispersed = index.getConnection(
+            node.getPort("dispersed"));
+        ConnectionValue chOutput = index.getConnection(
+            node.getPort("output"));
+        sink.emitAll(translateTJunction(schematic, node, 
             chContinuous, chDispersed, chOutput));
       } catch (UndeclaredIdentifierException e) {
         throw new CodeGenerationError("undeclared identifier '" 
@@ -69,7 +79,6 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
       }
       // TODO: look for all constraints relating to this T-junction
     }
-    return exprs;
   }
 
   /**
@@ -91,7 +100,7 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
           + "target port");
     }
     Symbol flowRate = SymbolNameGenerator
-        .getsym_ChannelFlowRate(schematic, channel);
+        .getChannelSymbols(schematic, channel).getFlowRate();
     // if the connection direction and constraint direction are different,
     // the flow rate must be negative; otherwise the flow is in
     // the same direction as the channel and so the flow is positive
@@ -281,26 +290,29 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
       ConnectionValue chOutput) throws UndeclaredIdentifierException {
     List<SExpression> exprs = new LinkedList<>();
 
-    Symbol nodeX = SymbolNameGenerator.getsym_NodeX(schematic, junction);
-    Symbol nodeY = SymbolNameGenerator.getsym_NodeY(schematic, junction);
+    // fetch the symbol bundles once, every symbol below comes from these
+    NodeSymbols junctionSym = SymbolNameGenerator.getNodeSymbols(
+        schematic, junction);
+    ChannelSymbols continuousSym = SymbolNameGenerator.getChannelSymbols(
+        schematic, chContinuous);
+    ChannelSymbols dispersedSym = SymbolNameGenerator.getChannelSymbols(
+        schematic, chDispersed);
+    ChannelSymbols outputSym = SymbolNameGenerator.getChannelSymbols(
+        schematic, chOutput);
+
+    Symbol nodeX = junctionSym.getX();
+    Symbol nodeY = junctionSym.getY();
     exprs.add(QFNRA.declareRealVariable(nodeX));
     exprs.add(QFNRA.declareRealVariable(nodeY));
     
     // channel/junction characteristics
-    Symbol h = SymbolNameGenerator
-        .getsym_ChannelHeight(schematic, chContinuous);
-    Symbol w = SymbolNameGenerator
-        .getsym_ChannelWidth(schematic, chContinuous);
-    Symbol wIn = SymbolNameGenerator
-        .getsym_ChannelWidth(schematic, chDispersed);
-    Symbol qC = SymbolNameGenerator
-        .getsym_ChannelFlowRate(schematic, chContinuous);
-    Symbol qD = SymbolNameGenerator
-        .getsym_ChannelFlowRate(schematic, chDispersed);
-    Symbol qOut = SymbolNameGenerator
-        .getsym_ChannelFlowRate(schematic, chOutput);
-    Symbol epsilon = SymbolNameGenerator
-        .getsym_TJunctionEpsilon(schematic, junction);
+    Symbol h = continuousSym.getHeight();
+    Symbol w = continuousSym.getWidth();
+    Symbol wIn = dispersedSym.getWidth();
+    Symbol qC = continuousSym.getFlowRate();
+    Symbol qD = dispersedSym.getFlowRate();
+    Symbol qOut = outputSym.getFlowRate();
+    Symbol epsilon = junctionSym.getEpsilon();
     Symbol pi = SymbolNameGenerator.getsym_constant_pi();
     
     // declare epsilon
@@ -322,30 +334,21 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
         schematic, pOutput, chOutput, true));
     // constraint: channel width must be equal at the continuous medium
     // port and the output port
-    exprs.add(QFNRA.assertEqual(w, 
-        SymbolNameGenerator.getsym_ChannelWidth(schematic, chOutput)));
+    exprs.add(QFNRA.assertEqual(w, outputSym.getWidth()));
     
     // constraint: the height of all connected channels is equal
-    exprs.add(QFNRA.assertEqual(SymbolNameGenerator
-        .getsym_ChannelHeight(schematic, chContinuous), SymbolNameGenerator
-        .getsym_ChannelHeight(schematic, chDispersed)));
-    exprs.add(QFNRA.assertEqual(SymbolNameGenerator
-        .getsym_ChannelHeight(schematic, chContinuous), SymbolNameGenerator
-        .getsym_ChannelHeight(schematic, chOutput)));
+    exprs.add(QFNRA.assertEqual(h, dispersedSym.getHeight()));
+    exprs.add(QFNRA.assertEqual(h, outputSym.getHeight()));
     
     // constraint: epsilon is zero (sharp-edged t-junction)
     //exprs.add(QFNRA.assertEqual(epsilon, new Numeral(0)));
     exprs.add(QFNRA.assertGreaterEqual(epsilon, new Numeral(0)));
     
     // constraint: all port pressures are equalized
-    Symbol nodePressure = SymbolNameGenerator.getSym_NodePressure(
-        schematic, junction);
-    Symbol continuousPressure = SymbolNameGenerator.getSym_PortPressure(
-        schematic, pContinuous);
-    Symbol dispersePressure = SymbolNameGenerator.getSym_PortPressure(
-        schematic, pDispersed);
-    Symbol outputPressure = SymbolNameGenerator.getSym_PortPressure(
-        schematic, pOutput);
+    Symbol nodePressure = junctionSym.getPressure();
+    Symbol continuousPressure = junctionSym.getPortPressure("continuous");
+    Symbol dispersePressure = junctionSym.getPortPressure("dispersed");
+    Symbol outputPressure = junctionSym.getPortPressure("output");
     // declare these too
     exprs.add(QFNRA.declareRealVariable(nodePressure));
     exprs.add(QFNRA.declareRealVariable(continuousPressure));
@@ -363,17 +366,13 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
     exprs.addAll(Macros.generateConservationOfFlow(schematic, connectedPorts));
     
     // constraint: viscosity of output = viscosity of continuous
-    Symbol dispersedViscosity = SymbolNameGenerator.getsym_ChannelViscosity(
-        schematic, chDispersed);
-    Symbol continuousViscosity = SymbolNameGenerator.getsym_ChannelViscosity(
-        schematic, chContinuous);
-    Symbol outputViscosity = SymbolNameGenerator.getsym_ChannelViscosity(
-        schematic, chOutput);
+    Symbol dispersedViscosity = dispersedSym.getViscosity();
+    Symbol continuousViscosity = continuousSym.getViscosity();
+    Symbol outputViscosity = outputSym.getViscosity();
     exprs.add(QFNRA.assertEqual(continuousViscosity, outputViscosity));
     
     // constraint: calculate droplet volume
-    Symbol vOutput = SymbolNameGenerator
-        .getsym_ChannelDropletVolume(schematic, chOutput);
+    Symbol vOutput = outputSym.getDropletVolume();
     exprs.add(QFNRA.declareRealVariable(vOutput));
     exprs.add(QFNRA.assertEqual(vOutput, calculatedDropletVolume(
         h, w, wIn, epsilon, qD, qC)));
@@ -382,61 +381,52 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
     
       // constraint: assume interfacial tension = 0.042 N*m
       // TODO figure out what this is a property of
-      Symbol interfacialTension = new Symbol("interfacialTension");
+      Symbol interfacialTension = Symbol.of("interfacialTension");
       exprs.add(QFNRA.declareRealVariable(interfacialTension));
       exprs.add(QFNRA.assertEqual(interfacialTension, new Decimal(0.042)));
       
       // constraint: calculate droplet resistance
-      Symbol dropletResistance = SymbolNameGenerator
-          .getsym_ChannelDropletResistance(schematic, chOutput);
+      Symbol dropletResistance = outputSym.getDropletResistance();
       // assume this is declared elsewhere
       exprs.add(QFNRA.assertEqual(dropletResistance, 
           calculatedDropletResistance(
-              SymbolNameGenerator.getsym_ChannelResistance(
-                  schematic, chOutput),
+              outputSym.getResistance(),
               new Decimal(1.0), // alpha
               new Decimal(0.0036), // Ca 
               interfacialTension, 
               dispersedViscosity, continuousViscosity,
-              SymbolNameGenerator.getsym_ChannelLength(schematic, chOutput),
-              SymbolNameGenerator.getsym_ChannelWidth(schematic, chOutput), 
-              SymbolNameGenerator.getsym_ChannelHeight(schematic, chOutput)
+              outputSym.getLength(),
+              outputSym.getWidth(), 
+              outputSym.getHeight()
         )));
       
       // constraint: calculate droplet velocity
       // v_d ~= Qd / (w * h)
   
-      Symbol dropletVelocity = SymbolNameGenerator
-          .getsym_ChannelDropletVelocity(schematic, chOutput);
+      Symbol dropletVelocity = outputSym.getDropletVelocity();
       exprs.add(QFNRA.declareRealVariable(dropletVelocity));
       exprs.add(QFNRA.assertEqual(dropletVelocity, 
           QFNRA.divide(qD, QFNRA.multiply(
-              SymbolNameGenerator.getsym_ChannelWidth(schematic, chOutput), 
-              SymbolNameGenerator.getsym_ChannelHeight(schematic, chOutput)))));
+              outputSym.getWidth(), outputSym.getHeight()))));
       
       // constraint: calculate droplet production frequency
       // f = Qd / Vd
-      Symbol dropletFrequency = SymbolNameGenerator
-          .getsym_ChannelDropletFrequency(schematic, chOutput);
+      Symbol dropletFrequency = outputSym.getDropletFrequency();
       exprs.add(QFNRA.declareRealVariable(dropletFrequency));
       exprs.add(QFNRA.assertEqual(dropletFrequency, QFNRA.divide(qD, vOutput)));
       
       // constraint: calculate droplet spacing
       // spacing = v_d / f
-      Symbol dropletSpacing = SymbolNameGenerator
-          .getsym_ChannelDropletSpacing(schematic, chOutput);
+      Symbol dropletSpacing = outputSym.getDropletSpacing();
       exprs.add(QFNRA.declareRealVariable(dropletSpacing));
       exprs.add(QFNRA.assertEqual(dropletSpacing, 
           QFNRA.divide(dropletVelocity, dropletFrequency)));
       
       // constraint: calculate maximum number of droplets
       // n ~= length / spacing
-      Symbol nDropletsContinuous = SymbolNameGenerator
-          .getsym_ChannelMaxDroplets(schematic, chContinuous);
-      Symbol nDropletsDispersed = SymbolNameGenerator
-          .getsym_ChannelMaxDroplets(schematic, chDispersed);
-      Symbol nDropletsOutput = SymbolNameGenerator
-          .getsym_ChannelMaxDroplets(schematic, chOutput);
+      Symbol nDropletsContinuous = continuousSym.getMaxDroplets();
+      Symbol nDropletsDispersed = dispersedSym.getMaxDroplets();
+      Symbol nDropletsOutput = outputSym.getMaxDroplets();
       // assume this is already declared for every channel
       // continuous and dispersed channels can have zero droplets
       // TODO droplets inside droplets break this
@@ -444,8 +434,7 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
       exprs.add(QFNRA.assertEqual(nDropletsDispersed, new Numeral(0)));
       // compute upper bound for output channel
       exprs.add(QFNRA.assertEqual(nDropletsOutput,
-          QFNRA.divide(SymbolNameGenerator
-              .getsym_ChannelLength(schematic, chOutput), dropletSpacing)));
+          QFNRA.divide(outputSym.getLength(), dropletSpacing)));
 
     } // calculateDropletDerivedQuantities
     
@@ -453,12 +442,9 @@ public class TJunctionDeviceStrategy extends TranslationStrategy {
     
       // constraint: calculate worst-case/steady-state droplet volume
       // this is a function of a slightly different flow rate than before
-      Symbol vOutputWorstCase = SymbolNameGenerator
-          .getsym_ChannelDropletVolume_WorstCase(schematic, chOutput);
-      Symbol qDWorstCase = SymbolNameGenerator
-          .getsym_ChannelFlowRate_WorstCase(schematic, chDispersed);
-      Symbol qCWorstCase = SymbolNameGenerator
-          .getsym_ChannelFlowRate_WorstCase(schematic, chContinuous);
+      Symbol vOutputWorstCase = outputSym.getDropletVolumeWorstCase();
+      Symbol qDWorstCase = dispersedSym.getFlowRateWorstCase();
+      Symbol qCWorstCase = continuousSym.getFlowRateWorstCase();
       exprs.add(QFNRA.declareRealVariable(vOutputWorstCase));
       exprs.add(QFNRA.assertEqual(vOutputWorstCase, calculatedDropletVolume(
           h, w, wIn, epsilon, qDWorstCase, qCWorstCase)));
@@ -1,30 +1,108 @@
 package org.manifold.compiler.back.microfluidics.strategies.placement;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.manifold.compiler.ConnectionValue;
 import org.manifold.compiler.NodeValue;
 import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
+import org.manifold.compiler.back.microfluidics.SchematicIndex;
 import org.manifold.compiler.back.microfluidics.TranslationStrategy;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
 import org.manifold.compiler.middle.Schematic;
 
 /**
- * Overrides translationStep to make it find the angle between every triplet
- * of unique nodes in the schematic
+ * Overrides translationStep to make it find the angle between every pair of
+ * channels that meet at a node in the schematic
  * 
  * @author Murphy? Comments by Josh
  *
  */
 public abstract class CriticalAngleStrategy extends TranslationStrategy {
 
+  private boolean enumerateNodeTriples = false;
+  /**
+   * Choose how the pairs of channels to constrain are found. By default every
+   * pair of channels incident to the same node is visited, which costs the
+   * sum of the squared node degrees. The alternative visits every triple of
+   * nodes (i < j < k) and only constrains the angle at the middle node; it is
+   * cubic in the number of nodes and misses angles whose vertex is not the
+   * middle node of the triple, and is kept for comparison with older output.
+   * 
+   * @param b  True to enumerate node triples instead of incident channel pairs
+   */
+  public void useNodeTripleEnumeration(boolean b) {
+    this.enumerateNodeTriples = b;
+  }
+
   @Override
   protected List<SExpression> translationStep(Schematic schematic,
       ProcessParameters processParams, PrimitiveTypeTable typeTable) {
-    List<SExpression> exprs = new LinkedList<>();
+    return collect(schematic, processParams, typeTable);
+  }
+
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
+    if (enumerateNodeTriples) {
+      translateNodeTriples(schematic, processParams, typeTable, sink);
+    } else {
+      translateIncidentChannelPairs(
+          schematic, processParams, typeTable, sink);
+    }
+  }
+
+  /**
+   * Generate a constraint for every pair of distinct channels meeting at a
+   * node, with that node as the vertex of the angle
+   */
+  private void translateIncidentChannelPairs(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
+    SchematicIndex index = SchematicIndex.of(schematic);
+    for (NodeValue n2 : schematic.getNodes().values()) {
+      List<ConnectionValue> incident = index.getIncidentConnections(n2);
+      for (int i = 0; i < incident.size(); ++i) {
+        ConnectionValue ch12 = incident.get(i);
+        NodeValue n1 = getOppositeNode(ch12, n2);
+        if (n1 == n2) {
+          // a channel looping back into the same node has no angle
+          continue;
+        }
+        for (int j = i + 1; j < incident.size(); ++j) {
+          ConnectionValue ch23 = incident.get(j);
+          NodeValue n3 = getOppositeNode(ch23, n2);
+          if (n3 == n2 || n3 == n1) {
+            continue;
+          }
+          // we have n1 <--> n2 <--> n3
+          sink.emit(generateCriticalAngleConstraint(
+              schematic, processParams, typeTable,
+              n1, ch12, n2, ch23, n3));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the node at the end of the channel that is not the given node,
+   * or the given node itself if both ends of the channel are on it
+   */
+  private static NodeValue getOppositeNode(ConnectionValue channel,
+      NodeValue node) {
+    NodeValue from = channel.getFrom().getParent();
+    if (from == node) {
+      return channel.getTo().getParent();
+    }
+    return from;
+  }
+
+  private void translateNodeTriples(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
     // iterate over all combinations of 3 nodes
     List<NodeValue> nodes = new ArrayList<>(schematic.getNodes().values());
     for (int i = 0; i < nodes.size(); ++i) {
@@ -42,13 +120,12 @@ public abstract class CriticalAngleStrategy extends TranslationStrategy {
             continue;
           }
           // otherwise, call virtual method to generate constraint
-          exprs.add(generateCriticalAngleConstraint(
+          sink.emit(generateCriticalAngleConstraint(
               schematic, processParams, typeTable,
               n1, ch12, n2, ch23, n3));
         }
       }
     }
-    return exprs;
   }
 
   public abstract SExpression generateCriticalAngleConstraint(
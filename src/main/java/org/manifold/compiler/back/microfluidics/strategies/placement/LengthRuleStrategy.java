@@ -1,14 +1,64 @@
 package org.manifold.compiler.back.microfluidics.strategies.placement;
 
+import java.util.List;
+
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
+import org.manifold.compiler.back.microfluidics.ProcessParameters;
 import org.manifold.compiler.back.microfluidics.TranslationStrategy;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
+import org.manifold.compiler.back.microfluidics.smt2.SExpression;
+import org.manifold.compiler.middle.Schematic;
 
 /**
  * Strategy to constrain the coordinates of nodes based on
  * the length of the channel connecting them.
  * 
+ * Only existing channels can constrain a length, so translationStep walks
+ * the connections of the schematic once and calls generateLengthConstraint
+ * for each channel joining two distinct nodes; subclasses only provide
+ * the constraint itself.
+ * 
  * @author Murphy?
  *
  */
 public abstract class LengthRuleStrategy extends TranslationStrategy {
 
+  @Override
+  protected List<SExpression> translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable) {
+    return collect(schematic, processParams, typeTable);
+  }
+
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
+    for (ConnectionValue channel : schematic.getConnections().values()) {
+      // TODO check port types
+      NodeValue n1 = channel.getFrom().getParent();
+      NodeValue n2 = channel.getTo().getParent();
+      if (n1 == n2) {
+        continue;
+      }
+      sink.emit(generateLengthConstraint(schematic, processParams, typeTable,
+          n1, channel, n2));
+    }
+  }
+
+  /**
+   * Generate the constraint relating the length of a channel to the
+   * positions of the nodes at its endpoints
+   * 
+   * @param node1  Node at the "from" end of the channel
+   * @param channel  Channel whose length is being constrained
+   * @param node2  Node at the "to" end of the channel
+   * @return SMT2 assertion constraining the channel length
+   */
+  public abstract SExpression generateLengthConstraint(
+      Schematic schematic, ProcessParameters processParams,
+      PrimitiveTypeTable typeTable,
+      NodeValue node1, ConnectionValue channel, NodeValue node2);
+
 }
@@ -1,6 +1,5 @@
 package org.manifold.compiler.back.microfluidics.strategies.placement;
 
-import java.util.LinkedList;
 import java.util.List;
 
 import org.manifold.compiler.ConnectionValue;
@@ -8,6 +7,7 @@ import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
 import org.manifold.compiler.back.microfluidics.TranslationStrategy;
 import org.manifold.compiler.back.microfluidics.smt2.Decimal;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.QFNRA;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
 import org.manifold.compiler.back.microfluidics.smt2.Symbol;
@@ -25,17 +25,22 @@ public class MinimumChannelLengthStrategy extends TranslationStrategy {
   @Override
   protected List<SExpression> translationStep(Schematic schematic,
       ProcessParameters processParams, PrimitiveTypeTable typeTable) {
-    List<SExpression> exprs = new LinkedList<>();
+    return collect(schematic, processParams, typeTable);
+  }
+
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
     // Iterate over all channels
     for (ConnectionValue c : schematic.getConnections().values()) {
       // TODO check port types
-      Symbol channelLengthSym = SymbolNameGenerator.
-          getsym_ChannelLength(schematic, c);
-      exprs.add(QFNRA.assertGreaterEqual(
+      Symbol channelLengthSym = SymbolNameGenerator
+          .getChannelSymbols(schematic, c).getLength();
+      sink.emit(QFNRA.assertGreaterEqual(
           channelLengthSym, 
           new Decimal(processParams.getMinimumChannelLength())));
     }
-    return exprs;
   }
 
 }
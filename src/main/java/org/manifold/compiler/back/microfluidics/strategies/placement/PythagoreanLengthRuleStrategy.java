@@ -1,6 +1,5 @@
 package org.manifold.compiler.back.microfluidics.strategies.placement;
 
-import java.util.LinkedList;
 import java.util.List;
 
 import org.manifold.compiler.ConnectionValue;
@@ -23,37 +22,16 @@ import org.manifold.compiler.middle.Schematic;
  */
 public class PythagoreanLengthRuleStrategy extends LengthRuleStrategy {
   
-  @Override
-  protected List<SExpression> translationStep(Schematic schematic, 
-      ProcessParameters processParams,
-      PrimitiveTypeTable typeTable) {
-    return translationStep(schematic, typeTable);
-  }
-
   protected List<SExpression> translationStep(Schematic schematic, 
       PrimitiveTypeTable typeTable) {
-    List<SExpression> exprs = new LinkedList<>();
-    // consider all pairs of distinct nodes
-    for (NodeValue n1 : schematic.getNodes().values()) {
-      for (NodeValue n2 : schematic.getNodes().values()) {
-        if (n1 == n2) {
-          continue;
-        }
-        // see if there is a channel connecting these nodes
-        // (use directed search as we want to avoid duplicates)
-        ConnectionValue channel = getConnectingChannel(schematic, typeTable,
-            n1, n2, true);
-        if (channel != null) {
-          exprs.add(generateLengthAssertion(schematic, n1, n2, channel));
-        }
-      }
-    }
-    return exprs;
+    // process parameters are not needed to relate lengths and positions
+    return translationStep(schematic, null, typeTable);
   }
 
-  private SExpression generateLengthAssertion(Schematic schematic,
-      NodeValue n1, NodeValue n2, 
-      ConnectionValue channel) {
+  @Override
+  public SExpression generateLengthConstraint(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      NodeValue n1, ConnectionValue channel, NodeValue n2) {
     // The formula we represent here is:
     // (n1.x - n2.x)^2 + (n1.y - n2.y)^2 = channel.length^2
     Symbol n1x = SymbolNameGenerator.getsym_NodeX(schematic, n1);
@@ -13,8 +13,7 @@ import org.manifold.compiler.UndeclaredIdentifierException;
 import org.manifold.compiler.back.microfluidics.CodeGenerationError;
 import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
-import org.manifold.compiler.back.microfluidics.SchematicUtil;
-import org.manifold.compiler.back.microfluidics.TranslationStrategy;
+import org.manifold.compiler.back.microfluidics.SchematicIndex;
 import org.manifold.compiler.back.microfluidics.smt2.Decimal;
 import org.manifold.compiler.back.microfluidics.smt2.QFNRA;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
@@ -29,7 +28,7 @@ import org.manifold.compiler.middle.Schematic;
  * @author Murphy? Comments partially by Josh
  *
  */
-public class AnalyticalPressureFlowStrategy extends TranslationStrategy {
+public class AnalyticalPressureFlowStrategy extends PressureFlowStrategy {
   
   @Override
   protected List<SExpression> translationStep(Schematic schematic,
@@ -149,10 +148,10 @@ public class AnalyticalPressureFlowStrategy extends TranslationStrategy {
   private ExpandedPath expandThrough(
       PortValue port, Schematic schematic, PrimitiveTypeTable typeTable) {
     ExpandedPath expansion = new ExpandedPath();
+    SchematicIndex index = SchematicIndex.of(schematic);
     PortValue nextPort = port;
     while (true) {
-      ConnectionValue nextConn = SchematicUtil.getConnection(
-          schematic, nextPort);
+      ConnectionValue nextConn = index.getConnection(nextPort);
       if (nextConn == null) {
         // TODO throw exception
       }
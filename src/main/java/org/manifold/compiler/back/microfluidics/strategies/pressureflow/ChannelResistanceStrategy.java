@@ -7,7 +7,9 @@ import org.manifold.compiler.ConnectionValue;
 import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
 import org.manifold.compiler.back.microfluidics.TranslationStrategy;
+import org.manifold.compiler.back.microfluidics.smt2.ChannelSymbols;
 import org.manifold.compiler.back.microfluidics.smt2.Decimal;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.QFNRA;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
 import org.manifold.compiler.back.microfluidics.smt2.Symbol;
@@ -26,48 +28,48 @@ public class ChannelResistanceStrategy extends TranslationStrategy {
   @Override
   protected List<SExpression> translationStep(Schematic schematic,
       ProcessParameters processParams, PrimitiveTypeTable typeTable) {
-    List<SExpression> exprs = new LinkedList<>();
+    return collect(schematic, processParams, typeTable);
+  }
+
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
     for (ConnectionValue conn : schematic.getConnections().values()) {
       // TODO check port types
       // TODO it would be really cool to make the channel type
       // part of the SMT2 equations so we could solve for that too
       // TODO we are just assuming all channels are rectangular right now
       
+      ChannelSymbols sym = SymbolNameGenerator.getChannelSymbols(
+          schematic, conn);
       // TODO this might not stay here
-      Symbol nDroplets = SymbolNameGenerator
-          .getsym_ChannelMaxDroplets(schematic, conn);
-      exprs.add(QFNRA.declareRealVariable(nDroplets));
-      
-      Symbol dropletResistance = SymbolNameGenerator
-          .getsym_ChannelDropletResistance(schematic, conn);
-      exprs.add(QFNRA.declareRealVariable(dropletResistance));
+      sink.emit(QFNRA.declareRealVariable(sym.getMaxDroplets()));
+      sink.emit(QFNRA.declareRealVariable(sym.getDropletResistance()));
       
-      exprs.addAll(translateRectangularChannel(schematic, conn));
+      sink.emitAll(translateRectangularChannel(sym));
     }
-    return exprs;
   }
 
   /**
    * Calculates the resistance given the parameters of each channel assuming
    * it is a rectangular channel
    * 
-   * @param schematic  Microfluidic circuit to analyze
-   * @param channel  Channel within the circuit to calculate resistance of
+   * @param channel  Symbols of the channel to calculate resistance of
    * @return SMT2 expression asserting the resistance
    */
   private List<SExpression> translateRectangularChannel(
-      Schematic schematic, ConnectionValue channel) {
+      ChannelSymbols channel) {
     List<SExpression> exprs = new LinkedList<>();
     // R = (12 * mu * L) / (w * h^3 * (1 - 0.630 (h/w)) )
     // for channel width w, height h, h < w
     // total length L
     // viscosity of the solvent is mu
-    Symbol chR = SymbolNameGenerator.getsym_ChannelResistance(
-        schematic, channel);
-    Symbol w = SymbolNameGenerator.getsym_ChannelWidth(schematic, channel);
-    Symbol h = SymbolNameGenerator.getsym_ChannelHeight(schematic, channel);
-    Symbol mu = SymbolNameGenerator.getsym_ChannelViscosity(schematic, channel);
-    Symbol chL = SymbolNameGenerator.getsym_ChannelLength(schematic, channel);
+    Symbol chR = channel.getResistance();
+    Symbol w = channel.getWidth();
+    Symbol h = channel.getHeight();
+    Symbol mu = channel.getViscosity();
+    Symbol chL = channel.getLength();
     
     exprs.add(QFNRA.declareRealVariable(chR));
     exprs.add(QFNRA.assertGreater(chR, new Decimal(0.0)));
@@ -12,9 +12,10 @@ import org.manifold.compiler.UndeclaredIdentifierException;
 import org.manifold.compiler.back.microfluidics.CodeGenerationError;
 import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
-import org.manifold.compiler.back.microfluidics.SchematicUtil;
+import org.manifold.compiler.back.microfluidics.SchematicIndex;
 import org.manifold.compiler.back.microfluidics.TranslationStrategy;
 import org.manifold.compiler.back.microfluidics.smt2.Decimal;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.Numeral;
 import org.manifold.compiler.back.microfluidics.smt2.QFNRA;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
@@ -34,14 +35,20 @@ public class FluidEntryExitDeviceStrategy extends TranslationStrategy {
   @Override
   protected List<SExpression> translationStep(Schematic schematic,
       ProcessParameters processParams, PrimitiveTypeTable typeTable) {
-    List<SExpression> exprs = new LinkedList<>();
+    return collect(schematic, processParams, typeTable);
+  }
+
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
     for (NodeValue node : schematic.getNodes().values()) {
       try {
         if (node.getType().isSubtypeOf(typeTable.getFluidEntryNodeType())) {
-          exprs.addAll(translateFluidEntryNode(schematic, node));
+          sink.emitAll(translateFluidEntryNode(schematic, node));
         } else if (node.getType().isSubtypeOf(
             typeTable.getFluidExitNodeType())) {
-          exprs.addAll(translateFluidExitNode(schematic, node));
+          sink.emitAll(translateFluidExitNode(schematic, node));
         }
       } catch (UndeclaredIdentifierException e) {
         throw new CodeGenerationError("undeclared identifier '"
@@ -55,7 +62,6 @@ public class FluidEntryExitDeviceStrategy extends TranslationStrategy {
             + "possible schematic version mismatch");
       }
     }
-    return exprs;
   }
 
   /**
@@ -87,8 +93,8 @@ public class FluidEntryExitDeviceStrategy extends TranslationStrategy {
     
     // the viscosity in the channel connected to output
     // is the viscosity given at the entry
-    ConnectionValue ch = SchematicUtil.getConnection(
-        schematic, node.getPort("output"));
+    ConnectionValue ch = SchematicIndex.of(schematic).getConnection(
+        node.getPort("output"));
     Symbol mu = SymbolNameGenerator.getsym_ChannelViscosity(schematic, ch);
     RealValue viscosity = (RealValue) node.getAttribute("viscosity");
     exprs.add(QFNRA.assertEqual(mu, new Decimal(viscosity.toDouble())));
@@ -6,6 +6,8 @@ import java.util.List;
 import org.manifold.compiler.ConnectionValue;
 import org.manifold.compiler.back.microfluidics.PrimitiveTypeTable;
 import org.manifold.compiler.back.microfluidics.ProcessParameters;
+import org.manifold.compiler.back.microfluidics.smt2.ChannelSymbols;
+import org.manifold.compiler.back.microfluidics.smt2.ExpressionSink;
 import org.manifold.compiler.back.microfluidics.smt2.QFNRA;
 import org.manifold.compiler.back.microfluidics.smt2.SExpression;
 import org.manifold.compiler.back.microfluidics.smt2.Symbol;
@@ -37,11 +39,16 @@ public class SimplePressureFlowStrategy extends PressureFlowStrategy {
   @Override
   protected List<SExpression> translationStep(Schematic schematic,
       ProcessParameters processParams, PrimitiveTypeTable typeTable) {
-    List<SExpression> exprs = new LinkedList<>();   
+    return collect(schematic, processParams, typeTable);
+  }
+
+  @Override
+  protected void translationStep(Schematic schematic,
+      ProcessParameters processParams, PrimitiveTypeTable typeTable,
+      ExpressionSink sink) {
     for (ConnectionValue conn : schematic.getConnections().values()) {
-      exprs.addAll(translate(conn, schematic));
+      sink.emitAll(translate(conn, schematic));
     }
-    return exprs;
   }
 
   /** 
@@ -60,8 +67,10 @@ public class SimplePressureFlowStrategy extends PressureFlowStrategy {
         conn.getFrom());
     Symbol p2 = SymbolNameGenerator.getSym_PortPressure(schematic,
         conn.getTo());
-    Symbol chV = SymbolNameGenerator.getsym_ChannelFlowRate(schematic, conn);
-    Symbol chR = SymbolNameGenerator.getsym_ChannelResistance(schematic, conn);
+    ChannelSymbols sym = SymbolNameGenerator.getChannelSymbols(
+        schematic, conn);
+    Symbol chV = sym.getFlowRate();
+    Symbol chR = sym.getResistance();
     // assume the port pressures and resistance are declared elsewhere;
     // we still need to declare the flow rate
     exprs.add(QFNRA.declareRealVariable(chV));
@@ -71,16 +80,13 @@ public class SimplePressureFlowStrategy extends PressureFlowStrategy {
     
     if (performWorstCaseAnalysis) {
       // now declare a "worst case" flow rate, i.e. with maximum # of droplets
-      Symbol chVWorstCase = SymbolNameGenerator
-          .getsym_ChannelFlowRate_WorstCase(schematic, conn);
+      Symbol chVWorstCase = sym.getFlowRateWorstCase();
       exprs.add(QFNRA.declareRealVariable(chVWorstCase));
       // the resistance in the worst case is (approximately)
       // equal to the base channel resistance plus
       // the number of droplets times the resistance of each droplet
-      Symbol nDroplets = SymbolNameGenerator
-          .getsym_ChannelMaxDroplets(schematic, conn);
-      Symbol dropletResistance = SymbolNameGenerator
-          .getsym_ChannelDropletResistance(schematic, conn);
+      Symbol nDroplets = sym.getMaxDroplets();
+      Symbol dropletResistance = sym.getDropletResistance();
       SExpression chRWorstCase = QFNRA.add(chR,
           QFNRA.multiply(nDroplets, dropletResistance));
       // assume pressures are the same as before,
@@ -1,5 +1,9 @@
 package org.manifold.compiler.back.microfluidics;
 
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.Options;
@@ -109,6 +113,29 @@ public class TestMicrofluidicsBackend {
     backend.invokeBackend(schematic, cmd);
   }
   
+  @Test
+  public void testParsePortfolioTimeout() {
+    assertEquals(Duration.ofMillis(1500),
+        MicrofluidicsBackend.parseTimeout("1.5"));
+    assertEquals(Duration.ofSeconds(90),
+        MicrofluidicsBackend.parseTimeout(" 90 "));
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testParsePortfolioTimeout_NotANumber() {
+    MicrofluidicsBackend.parseTimeout("soon");
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testParsePortfolioTimeout_Zero() {
+    MicrofluidicsBackend.parseTimeout("0");
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testParsePortfolioTimeout_Negative() {
+    MicrofluidicsBackend.parseTimeout("-5");
+  }
+  
   // TODO update test for new interface
   /*
   @Test
@@ -0,0 +1,132 @@
+package org.manifold.compiler.back.microfluidics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.manifold.compiler.ConnectionValue;
+import org.manifold.compiler.NodeValue;
+import org.manifold.compiler.back.microfluidics.smt2.ChannelSymbols;
+import org.manifold.compiler.back.microfluidics.smt2.Symbol;
+import org.manifold.compiler.back.microfluidics.smt2.SymbolNameGenerator;
+import org.manifold.compiler.middle.Schematic;
+import org.manifold.compiler.middle.SchematicException;
+
+public class TestSchematicIndex {
+
+  @Test
+  public void testConnectionLookup() throws SchematicException {
+    // create this schematic:
+    // (n1) -- (n2) -- (n3)
+    Schematic sch = UtilSchematicConstruction.instantiateSchematic("test");
+    NodeValue n1 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 1);
+    sch.addNode("n1", n1);
+    NodeValue n2 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 2);
+    sch.addNode("n2", n2);
+    NodeValue n3 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 1);
+    sch.addNode("n3", n3);
+    ConnectionValue ch0 = UtilSchematicConstruction.instantiateChannel(
+        n1.getPort("channel0"), n2.getPort("channel0"));
+    sch.addConnection("ch0", ch0);
+    ConnectionValue ch1 = UtilSchematicConstruction.instantiateChannel(
+        n2.getPort("channel1"), n3.getPort("channel0"));
+    sch.addConnection("ch1", ch1);
+
+    SchematicIndex index = SchematicIndex.of(sch);
+    assertSame(ch0, index.getConnection(n1.getPort("channel0")));
+    assertSame(ch0, index.getConnection(n2.getPort("channel0")));
+    assertSame(ch1, index.getConnection(n2.getPort("channel1")));
+    assertSame(ch1, index.getConnection(n3.getPort("channel0")));
+
+    List<ConnectionValue> incident = index.getIncidentConnections(n2);
+    assertEquals(2, incident.size());
+    assertTrue(incident.contains(ch0));
+    assertTrue(incident.contains(ch1));
+    assertEquals(1, index.getIncidentConnections(n3).size());
+  }
+
+  @Test
+  public void testConnectingChannel() throws SchematicException {
+    // create this schematic:
+    // (n1) --> (n2) --> (n3)
+    Schematic sch = UtilSchematicConstruction.instantiateSchematic("test");
+    NodeValue n1 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 1);
+    sch.addNode("n1", n1);
+    NodeValue n2 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 2);
+    sch.addNode("n2", n2);
+    NodeValue n3 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 1);
+    sch.addNode("n3", n3);
+    ConnectionValue ch0 = UtilSchematicConstruction.instantiateChannel(
+        n1.getPort("channel0"), n2.getPort("channel0"));
+    sch.addConnection("ch0", ch0);
+    ConnectionValue ch1 = UtilSchematicConstruction.instantiateChannel(
+        n2.getPort("channel1"), n3.getPort("channel0"));
+    sch.addConnection("ch1", ch1);
+
+    SchematicIndex index = SchematicIndex.of(sch);
+    assertSame(ch0, index.getConnectingChannel(n1, n2, true));
+    assertNull(index.getConnectingChannel(n2, n1, true));
+    assertSame(ch0, index.getConnectingChannel(n2, n1, false));
+    assertSame(ch1, index.getConnectingChannel(n3, n2, false));
+    assertNull(index.getConnectingChannel(n1, n3, false));
+  }
+
+  @Test
+  public void testRebuiltAfterSchematicChanges() throws SchematicException {
+    Schematic sch = UtilSchematicConstruction.instantiateSchematic("test");
+    NodeValue n1 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 1);
+    sch.addNode("n1", n1);
+    NodeValue n2 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 1);
+    sch.addNode("n2", n2);
+
+    SchematicIndex before = SchematicIndex.of(sch);
+    assertSame(before, SchematicIndex.of(sch));
+    assertNull(before.getConnection(n1.getPort("channel0")));
+
+    ConnectionValue ch0 = UtilSchematicConstruction.instantiateChannel(
+        n1.getPort("channel0"), n2.getPort("channel0"));
+    sch.addConnection("ch0", ch0);
+
+    SchematicIndex after = SchematicIndex.of(sch);
+    assertNotSame(before, after);
+    assertSame(ch0, after.getConnection(n1.getPort("channel0")));
+  }
+
+  @Test
+  public void testSymbolBundlesShared() throws SchematicException {
+    Schematic sch = UtilSchematicConstruction.instantiateSchematic("test");
+    NodeValue n1 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 1);
+    sch.addNode("n1", n1);
+    NodeValue n2 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 1);
+    sch.addNode("n2", n2);
+    ConnectionValue ch0 = UtilSchematicConstruction.instantiateChannel(
+        n1.getPort("channel0"), n2.getPort("channel0"));
+    sch.addConnection("ch0", ch0);
+
+    ChannelSymbols sym = SymbolNameGenerator.getChannelSymbols(sch, ch0);
+    assertSame(sym, SymbolNameGenerator.getChannelSymbols(sch, ch0));
+    assertSame(sym.getLength(),
+        SymbolNameGenerator.getsym_ChannelLength(sch, ch0));
+    assertEquals(new Symbol("ch0_length"), sym.getLength());
+    assertEquals(new Symbol("n1_channel0_pressure"),
+        SymbolNameGenerator.getSym_PortPressure(sch, n1.getPort("channel0")));
+    assertSame(SymbolNameGenerator.getNodeSymbols(sch, n2).getX(),
+        SymbolNameGenerator.getsym_NodeX(sch, n2));
+  }
+
+}
@@ -0,0 +1,52 @@
+package org.manifold.compiler.back.microfluidics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.manifold.compiler.back.microfluidics.SolverConfiguration.PressureFlowModel;
+
+public class TestSolverConfiguration {
+
+  @Test
+  public void testParse() {
+    SolverConfiguration config =
+        SolverConfiguration.parse("simple+worstcase@0.01");
+    assertEquals(PressureFlowModel.SIMPLE, config.getPressureFlowModel());
+    assertTrue(config.performsWorstCaseAnalysis());
+    assertEquals(0.01, config.getPrecision(), 0.0);
+    assertEquals("simple+worstcase@0.01", config.toString());
+    config = SolverConfiguration.parse("analytical");
+    assertEquals(PressureFlowModel.ANALYTICAL, config.getPressureFlowModel());
+    assertFalse(config.performsWorstCaseAnalysis());
+    assertEquals(0.0, config.getPrecision(), 0.0);
+  }
+
+  @Test
+  public void testParseList() {
+    List<SolverConfiguration> configs = SolverConfiguration.parseList(
+        "simple@0.001, analytical@0.01");
+    assertEquals(2, configs.size());
+    assertEquals("simple@0.001", configs.get(0).toString());
+    assertEquals("analytical@0.01", configs.get(1).toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownStrategy() {
+    SolverConfiguration.parse("fancy@0.01");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadPrecision() {
+    SolverConfiguration.parse("simple@tiny");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAnalyticalWorstCase() {
+    SolverConfiguration.parse("analytical+worstcase");
+  }
+
+}
@@ -0,0 +1,93 @@
+package org.manifold.compiler.back.microfluidics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.manifold.compiler.back.microfluidics.smt2.DRealSolver;
+import org.manifold.compiler.back.microfluidics.smt2.Decimal;
+import org.manifold.compiler.back.microfluidics.smt2.LinearExpr;
+import org.manifold.compiler.back.microfluidics.smt2.QFNRA;
+import org.manifold.compiler.back.microfluidics.smt2.SExpression;
+import org.manifold.compiler.back.microfluidics.smt2.Symbol;
+
+public class TestSolverPortfolio {
+
+  // x = 1, the same formula for every configuration
+  private static SolverPortfolio.Formula trivialFormula(
+      SolverConfiguration config) {
+    Symbol x = Symbol.of("x");
+    List<SExpression> exprs = new ArrayList<>();
+    exprs.add(QFNRA.declareRealVariable(x));
+    exprs.add(QFNRA.assertEqual(x, new Decimal(1.0)));
+    return new SolverPortfolio.Formula(exprs,
+        Collections.<Symbol, LinearExpr>emptyMap());
+  }
+
+  // a portfolio remembering the session of each configuration
+  private static SolverPortfolio portfolio(String specs, Duration timeout,
+      final List<DRealSolver> solvers) {
+    return new SolverPortfolio(SolverConfiguration.parseList(specs),
+        timeout) {
+      @Override
+      DRealSolver newSolver() {
+        DRealSolver solver = super.newSolver();
+        solvers.add(solver);
+        return solver;
+      }
+    };
+  }
+
+  @Test
+  public void testFirstAnswerWins() throws Exception {
+    List<DRealSolver> solvers = new ArrayList<>();
+    try {
+      // the small precision would be written 1.0E-4 by Double.toString
+      SolverPortfolio.Outcome outcome = portfolio(
+          "simple@0.0001,simple@0.01", Duration.ofMinutes(1), solvers)
+          .solve(TestSolverPortfolio::trivialFormula);
+      assertEquals(DRealSolver.Result.Status.SAT,
+          outcome.getResult().getStatus());
+      assertTrue(outcome.getConfiguration() != null);
+      assertEquals(1.0, outcome.getResult().getRange(Symbol.of("x"))
+          .lowerBound, 0.01);
+    } catch (IllegalStateException e) {
+      fail("dReal not found. Make sure dReal is installed and accessible.");
+    }
+    // the winner has answered and the loser has been cancelled
+    assertEquals(2, solvers.size());
+    for (DRealSolver solver : solvers) {
+      assertFalse(solver.isOpen());
+      assertTrue(solver.awaitExit(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testNoDefinitiveAnswer() throws Exception {
+    List<DRealSolver> solvers = new ArrayList<>();
+    try {
+      // dReal cannot answer in a nanosecond
+      SolverPortfolio.Outcome outcome = portfolio("simple,analytical",
+          Duration.ofNanos(1), solvers)
+          .solve(TestSolverPortfolio::trivialFormula);
+      assertNull(outcome.getConfiguration());
+      assertEquals(DRealSolver.Result.Status.TIMEOUT,
+          outcome.getResult().getStatus());
+    } catch (IllegalStateException e) {
+      fail("dReal not found. Make sure dReal is installed and accessible.");
+    }
+    for (DRealSolver solver : solvers) {
+      assertTrue(solver.awaitExit(5, TimeUnit.SECONDS));
+    }
+  }
+
+}
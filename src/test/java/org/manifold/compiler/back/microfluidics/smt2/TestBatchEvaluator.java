@@ -0,0 +1,67 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+public class TestBatchEvaluator {
+
+  private static final Symbol X = Symbol.of("x");
+  private static final Symbol Y = Symbol.of("y");
+
+  @Test
+  public void testMatchesScalarEvaluation() {
+    // more rows than one block, and not a multiple of it
+    int rows = 2 * BatchEvaluator.BLOCK_SIZE + 17;
+    double[] xs = new double[rows];
+    double[] ys = new double[rows];
+    for (int i = 0; i < rows; ++i) {
+      xs[i] = 0.01 * i - 1.0;
+      ys[i] = Math.cos(i);
+    }
+    SExpression term = QFNRA.conditional(QFNRA.lessThan(X, Y),
+        QFNRA.arcsin(QFNRA.divide(X, new Numeral(3))),
+        QFNRA.add(QFNRA.multiply(X, Y), QFNRA.pow(Y, new Numeral(2))));
+    BatchEvaluator batch = new BatchEvaluator(rows);
+    batch.addColumn(X, xs);
+    batch.addColumn(Y, ys);
+    double[] result = batch.evaluate(term);
+    CompiledExpression program = ExpressionCompiler.compile(term);
+    double[] slots = new double[SymbolTable.size()];
+    for (int i = 0; i < rows; ++i) {
+      slots[X.getId()] = xs[i];
+      slots[Y.getId()] = ys[i];
+      assertEquals(program.evaluate(slots), result[i], 0.0);
+    }
+  }
+
+  @Test
+  public void testFindViolations() {
+    BatchEvaluator batch = new BatchEvaluator(4);
+    batch.addColumn(X, new double[] {1.0, 2.0, 3.0, 4.0});
+    batch.addColumn(Y, new double[] {2.0, 2.0, 2.0, 4.0000001});
+    BitSet lt = batch.findViolations(QFNRA.assertLessThan(X, Y));
+    assertEquals(2, lt.cardinality());
+    assertTrue(lt.get(1) && lt.get(2));
+    BitSet eq = batch.findViolations(QFNRA.assertEqual(X, Y));
+    assertEquals(2, eq.cardinality());
+    assertTrue(eq.get(0) && eq.get(2));
+  }
+
+  @Test
+  public void testUnboundVariableViolatesEveryRow() {
+    BatchEvaluator batch = new BatchEvaluator(3);
+    batch.addColumn(X, new double[] {1.0, 2.0, 3.0});
+    assertEquals(3, batch.findViolations(QFNRA.assertLessThan(X,
+        Symbol.of("z"))).cardinality());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testShortColumn() {
+    new BatchEvaluator(3).addColumn(X, new double[] {1.0});
+  }
+
+}
@@ -0,0 +1,188 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestBoundPropagator {
+
+  private static final Symbol X = Symbol.of("x");
+  private static final Symbol Y = Symbol.of("y");
+  private static final Symbol Z = Symbol.of("z");
+
+  @Test
+  public void testIntervalArithmeticRoundsOutward() {
+    Interval sum = Interval.point(0.1).add(Interval.point(0.2));
+    assertTrue(sum.contains(0.1 + 0.2));
+    assertTrue(sum.getLower() < 0.1 + 0.2);
+    Interval product = new Interval(-1.0, 2.0).multiply(
+        new Interval(3.0, 4.0));
+    assertTrue(product.contains(-4.0));
+    assertTrue(product.contains(8.0));
+    assertEquals(Interval.ENTIRE,
+        Interval.point(1.0).divide(new Interval(-1.0, 1.0)));
+    assertTrue(new Interval(-2.0, 3.0).pow(2).contains(0.0));
+  }
+
+  @Test
+  public void testRootsEncloseExactRoot() {
+    // Math.pow(x, 1.0 / 3) can be more than an ulp off the real root
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; ++i) {
+      double x = Math.exp(30 * random.nextDouble() - 15);
+      int exponent = 3 + random.nextInt(4);
+      Interval roots = Interval.point(x).root(exponent);
+      BigDecimal exact = new BigDecimal(x);
+      String message = "root " + exponent + " of " + x + " is " + roots;
+      assertTrue(message, new BigDecimal(roots.getUpper()).pow(exponent)
+          .compareTo(exact) >= 0);
+      double below = Interval.rootBelow(x, exponent);
+      assertTrue(message, new BigDecimal(below).pow(exponent)
+          .compareTo(exact) <= 0);
+      assertTrue(message, roots.getUpper() - below
+          <= 4 * Math.ulp(roots.getUpper()));
+    }
+  }
+
+  @Test
+  public void testCubeRootBound() {
+    // (^ v 3) <= 247430.8134858092 must not cut off the real cube root
+    Decimal limit = new Decimal(247430.8134858092);
+    List<SExpression> formula = UtilFormulas.declare(X);
+    formula.add(QFNRA.assertLessThanEqual(QFNRA.pow(X, new Numeral(3)),
+        limit));
+    Interval x = new BoundPropagator().propagate(formula).get(X);
+    assertTrue(new BigDecimal(x.getUpper()).pow(3).compareTo(
+        new BigDecimal(limit.getRepresentation())) >= 0);
+  }
+
+  @Test
+  public void testBoundsThroughSum() {
+    // 0 <= x <= 1, 0 <= y <= 2, z = x + y
+    List<SExpression> formula = UtilFormulas.declare(X, Y, Z);
+    formula.add(QFNRA.assertGreaterEqual(X, new Numeral(0)));
+    formula.add(QFNRA.assertLessThanEqual(X, new Numeral(1)));
+    formula.add(QFNRA.assertGreaterEqual(Y, new Numeral(0)));
+    formula.add(QFNRA.assertLessThanEqual(Y, new Numeral(2)));
+    formula.add(QFNRA.assertEqual(Z, QFNRA.add(X, Y)));
+    BoundPropagator propagator = new BoundPropagator();
+    Map<Symbol, Interval> box = propagator.propagate(formula);
+    Interval z = box.get(Z);
+    assertTrue(z.contains(0.0));
+    assertTrue(z.contains(3.0));
+    assertEquals(3.0, z.getUpper(), 1e-12);
+    // only z gets new bound assertions, x and y are already bounded
+    List<SExpression> bounds = propagator.getBoundAssertions();
+    assertEquals(2, bounds.size());
+    for (SExpression bound : bounds) {
+      assertTrue(bound.toString().contains(" z "));
+    }
+  }
+
+  @Test
+  public void testBackwardProjection() {
+    // x * y = 6, 2 <= y <= 3, x > 0 gives 2 <= x <= 3
+    List<SExpression> formula = UtilFormulas.declare(X, Y);
+    formula.add(QFNRA.assertEqual(QFNRA.multiply(X, Y), new Numeral(6)));
+    formula.add(QFNRA.assertGreaterEqual(Y, new Numeral(2)));
+    formula.add(QFNRA.assertLessThanEqual(Y, new Numeral(3)));
+    formula.add(QFNRA.assertGreater(X, new Numeral(0)));
+    Interval x = new BoundPropagator().propagate(formula).get(X);
+    assertEquals(2.0, x.getLower(), 1e-9);
+    assertEquals(3.0, x.getUpper(), 1e-9);
+    assertTrue(x.contains(2.0));
+    assertTrue(x.contains(3.0));
+  }
+
+  @Test(timeout = 10000)
+  public void testWideSum() {
+    // 0 <= x_i <= 1 and x_1 + ... + x_n >= n - 0.5 give x_i >= 0.5; the
+    // backward pass through the sum must not take time quadratic in n
+    int n = 20000;
+    Symbol[] vars = new Symbol[n];
+    List<SExpression> terms = new ArrayList<>();
+    for (int i = 0; i < n; ++i) {
+      vars[i] = Symbol.of("w" + i);
+      terms.add(vars[i]);
+    }
+    List<SExpression> formula = UtilFormulas.declare(vars);
+    for (Symbol var : vars) {
+      formula.add(QFNRA.assertGreaterEqual(var, new Numeral(0)));
+      formula.add(QFNRA.assertLessThanEqual(var, new Numeral(1)));
+    }
+    formula.add(QFNRA.assertGreaterEqual(QFNRA.add(terms),
+        new Decimal(n - 0.5)));
+    Map<Symbol, Interval> box = new BoundPropagator().propagate(formula);
+    for (Symbol var : vars) {
+      Interval range = box.get(var);
+      assertEquals(0.5, range.getLower(), 1e-6);
+      assertTrue(range.getLower() <= 0.5);
+      assertEquals(1.0, range.getUpper(), 1e-12);
+    }
+  }
+
+  @Test
+  public void testInfeasible() {
+    List<SExpression> formula = UtilFormulas.declare(X);
+    formula.add(QFNRA.assertGreater(X, new Numeral(2)));
+    formula.add(QFNRA.assertLessThan(QFNRA.multiply(new Numeral(2), X),
+        new Numeral(1)));
+    BoundPropagator propagator = new BoundPropagator();
+    propagator.propagate(formula);
+    assertTrue(propagator.isInfeasible());
+    assertTrue(propagator.getBoundAssertions().isEmpty());
+  }
+
+  @Test
+  public void testSinkInsertsBoundsBeforeCheckSat() throws Exception {
+    CollectingSink out = new CollectingSink();
+    BoundPropagator propagator = new BoundPropagator();
+    ExpressionSink sink = propagator.boundingSink(out);
+    sink.emitAll(UtilFormulas.declare(X, Y));
+    sink.emit(QFNRA.assertEqual(Y, QFNRA.pow(X, new Numeral(2))));
+    sink.emit(QFNRA.assertLessThanEqual(Y, new Numeral(4)));
+    sink.emit(new ParenList(new SExpression[] {QFNRA.CHECK_SAT}));
+    sink.close();
+    List<SExpression> exprs = out.getExpressions();
+    // y >= 0 from the square, -2 <= x <= 2 from its root
+    assertEquals(8, exprs.size());
+    assertEquals(QFNRA.CHECK_SAT, ((ParenList) exprs.get(7)).get(0));
+    assertFalse(propagator.isInfeasible());
+  }
+
+  @Test
+  public void testSmallBoundsWrittenPlain() {
+    // 1000 * x >= 0.1 and x <= 0.01 give 1e-4 <= x, which Double.toString
+    // would write as 1.0E-4
+    List<SExpression> formula = UtilFormulas.declare(X, Y);
+    formula.add(QFNRA.assertGreaterEqual(
+        QFNRA.multiply(new Numeral(1000), X), new Decimal(0.1)));
+    formula.add(QFNRA.assertLessThanEqual(X, new Decimal(0.01)));
+    formula.add(QFNRA.assertEqual(Y, QFNRA.multiply(X, X)));
+    BoundPropagator propagator = new BoundPropagator();
+    Interval x = propagator.propagate(formula).get(X);
+    List<SExpression> bounds = propagator.getBoundAssertions();
+    assertEquals(3, bounds.size());
+    assertTrue(bounds.get(0).toString(), bounds.get(0).toString()
+        .startsWith("(assert (>= x 0.0000999999999"));
+    for (SExpression bound : bounds) {
+      ParenList term = (ParenList) ((ParenList) bound).get(1);
+      String repr = ((Decimal) term.get(2)).getRepresentation();
+      assertTrue(repr, repr.matches("\\d+\\.\\d+"));
+    }
+    // rounded outward
+    Decimal lower = (Decimal) ((ParenList) ((ParenList) bounds.get(0))
+        .get(1)).get(2);
+    assertTrue(new BigDecimal(lower.getRepresentation()).compareTo(
+        new BigDecimal(x.getLower())) <= 0);
+  }
+
+}
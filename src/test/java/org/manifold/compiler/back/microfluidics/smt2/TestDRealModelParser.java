@@ -0,0 +1,76 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestDRealModelParser {
+
+  private static DRealModelParser parser(String output) {
+    return new DRealModelParser(new ByteArrayInputStream(
+        output.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testReadModel() throws IOException {
+    DRealModelParser parser = parser("Solution:\n"
+        + "x : [ ENTIRE ] = [1.000000000000000, 1.000000000000000]\n"
+        + "\n"
+        + "  y : [ ENTIRE ] = [ -inf , 2.5e-3 ]\r\n"
+        + "z : [ ENTIRE ] = [-0.1, 0.30000000000000004]\n"
+        + "delta-sat with delta = 0.001\n");
+    assertEquals("Solution:", parser.readLine());
+    DRealSolver.Result model = new DRealSolver.Result(true);
+    parser.readModel(model);
+    assertEquals(1.0, model.getRange(Symbol.of("x")).lowerBound, 0.0);
+    assertEquals(1.0, model.getRange(Symbol.of("x")).upperBound, 0.0);
+    assertEquals(Double.NEGATIVE_INFINITY,
+        model.getRange(Symbol.of("y")).lowerBound, 0.0);
+    assertEquals(0.0025, model.getRange(Symbol.of("y")).upperBound, 0.0);
+    assertEquals(-0.1, model.getRange(Symbol.of("z")).lowerBound, 0.0);
+    // more digits than the fast path takes
+    assertEquals(0.30000000000000004,
+        model.getRange(Symbol.of("z")).upperBound, 0.0);
+    assertEquals(0.0025,
+        model.getUpperBounds()[Symbol.of("y").getId()], 0.0);
+    assertNull(parser.readLine());
+  }
+
+  @Test
+  public void testNumbersMatchParseDouble() throws IOException {
+    String[] numbers = {
+      "0", "-0.0", "123456789012345678", "1e22", "1e23", "4.9e-324",
+      "0.1", "1.7976931348623157e308", "0.000123", "-12.5E+2",
+      "9007199254740993", "3.14159265358979323846"
+    };
+    StringBuilder output = new StringBuilder();
+    for (int i = 0; i < numbers.length; ++i) {
+      output.append("n" + i + " : [ ENTIRE ] = [" + numbers[i] + ", 0]\n");
+    }
+    output.append("delta-sat with delta = 0.001\n");
+    DRealSolver.Result model = new DRealSolver.Result(true);
+    parser(output.toString()).readModel(model);
+    for (int i = 0; i < numbers.length; ++i) {
+      assertEquals(numbers[i], Double.parseDouble(numbers[i]),
+          model.getRange(Symbol.of("n" + i)).lowerBound, 0.0);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedLine() throws IOException {
+    parser("x : [ ENTIRE ] [1, 2]\ndelta-sat\n")
+        .readModel(new DRealSolver.Result(true));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedModel() throws IOException {
+    parser("x : [ ENTIRE ] = [1, 2]\n")
+        .readModel(new DRealSolver.Result(true));
+  }
+
+}
@@ -7,6 +7,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -66,4 +69,116 @@ public class TestDRealSolver {
     }
   }
   
+  @Test
+  public void testSmallPrecision() throws IOException {
+    try (DRealSolver dReal = new DRealSolver()) {
+      // Double.toString would pass this as 1.0E-4
+      dReal.setPrecision(0.0001);
+      dReal.open();
+      dReal.write("(declare-fun x () Real)");
+      dReal.write("(assert (= x 1.0))");
+      assertTrue(dReal.solve().isSatisfiable());
+    } catch (IllegalStateException e) {
+      fail("dReal not found. Make sure dReal is installed and accessible.");
+    }
+  }
+  
+  @Test
+  public void testPushPop() throws IOException {
+    try (DRealSolver dReal = new DRealSolver()) {
+      dReal.open();
+      Symbol x = Symbol.of("x");
+      dReal.write(QFNRA.declareRealVariable(x));
+      dReal.assertExpr(QFNRA.equal(x, new Decimal(1.0)));
+      assertTrue(dReal.checkSat().isSatisfiable());
+      dReal.push();
+      dReal.assertExpr(QFNRA.equal(x, new Decimal(2.0)));
+      assertFalse(dReal.checkSat().isSatisfiable());
+      dReal.pop();
+      assertEquals(0, dReal.getScopeDepth());
+      // the base formula alone is satisfiable again
+      DRealSolver.Result res = dReal.checkSat();
+      assertTrue(res.isSatisfiable());
+      assertEquals(1.0, res.getRange(x).lowerBound, 0.001);
+      assertTrue(dReal.isOpen());
+    } catch (IllegalStateException e) {
+      fail("dReal not found. Make sure dReal is installed and accessible.");
+    }
+  }
+  
+  @Test
+  public void testSolveAsync() throws Exception {
+    try (DRealSolver dReal = new DRealSolver()) {
+      dReal.open();
+      dReal.write("(declare-fun x () Real)");
+      dReal.write("(assert (= x 1.0))");
+      DRealSolver.Result res = dReal.solveAsync(Duration.ofMinutes(1))
+          .get();
+      assertEquals(DRealSolver.Result.Status.SAT, res.getStatus());
+      assertEquals(1.0, res.getRange(Symbol.of("x")).upperBound, 0.001);
+    } catch (IllegalStateException e) {
+      fail("dReal not found. Make sure dReal is installed and accessible.");
+    }
+  }
+  
+  @Test
+  public void testSolveAsyncTimeout() throws Exception {
+    try (DRealSolver dReal = new DRealSolver()) {
+      dReal.open();
+      dReal.write("(declare-fun x () Real)");
+      dReal.write("(assert (= x 1.0))");
+      // dReal cannot answer in a nanosecond
+      DRealSolver.Result res = dReal.solveAsync(Duration.ofNanos(1))
+          .get(1, TimeUnit.MINUTES);
+      assertEquals(DRealSolver.Result.Status.TIMEOUT, res.getStatus());
+      // killed rather than left to exit
+      Process process = dReal.getProcess();
+      assertTrue(process.waitFor(5, TimeUnit.SECONDS));
+      assertTrue(process.exitValue() != 0);
+      assertFalse(dReal.isOpen());
+    } catch (IllegalStateException e) {
+      fail("dReal not found. Make sure dReal is installed and accessible.");
+    }
+  }
+  
+  @Test
+  public void testSolveAsyncTimeoutBounds() throws Exception {
+    try (DRealSolver dReal = new DRealSolver()) {
+      dReal.open();
+      dReal.write("(declare-fun x () Real)");
+      dReal.write("(assert (= x 1.0))");
+      try {
+        dReal.solveAsync(Duration.ofSeconds(-1));
+        fail("negative timeout accepted");
+      } catch (IllegalArgumentException e) {
+        // the session is untouched
+        assertTrue(dReal.isOpen());
+      }
+      // too long to convert to nanoseconds, but still a valid timeout
+      DRealSolver.Result res = dReal.solveAsync(
+          Duration.ofSeconds(Long.MAX_VALUE)).get(1, TimeUnit.MINUTES);
+      assertEquals(DRealSolver.Result.Status.SAT, res.getStatus());
+    } catch (IllegalStateException e) {
+      fail("dReal not found. Make sure dReal is installed and accessible.");
+    }
+  }
+  
+  @Test
+  public void testSolveAsyncCancel() throws Exception {
+    try (DRealSolver dReal = new DRealSolver()) {
+      dReal.open();
+      dReal.write("(declare-fun x () Real)");
+      dReal.write("(assert (= x 1.0))");
+      CompletableFuture<DRealSolver.Result> future =
+          dReal.solveAsync(Duration.ofMinutes(1));
+      assertTrue(future.cancel(true));
+      assertTrue(future.isCancelled());
+      Process process = dReal.getProcess();
+      assertTrue(process.waitFor(5, TimeUnit.SECONDS));
+      assertTrue(process.exitValue() != 0);
+    } catch (IllegalStateException e) {
+      fail("dReal not found. Make sure dReal is installed and accessible.");
+    }
+  }
+  
 }
@@ -0,0 +1,111 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestDRealSolverPool {
+
+  @Test
+  public void testSessionIsResetAndReused()
+      throws IOException, InterruptedException {
+    try (DRealSolverPool pool = new DRealSolverPool(2, 1, TimeUnit.MINUTES)) {
+      DRealSolver first;
+      try (DRealSolverPool.Lease lease = pool.acquire()) {
+        first = lease.getSolver();
+        first.write("(declare-fun x () Real)");
+        first.write("(assert (= x 1.0))");
+        first.write("(assert (= x 2.0))");
+        assertFalse(lease.checkSat().isSatisfiable());
+      }
+      assertEquals(1, pool.getIdleCount());
+      try (DRealSolverPool.Lease lease = pool.acquire()) {
+        assertSame(first, lease.getSolver());
+        // the assertions of the previous formula are gone
+        lease.getSolver().write("(declare-fun x () Real)");
+        lease.getSolver().write("(assert (= x 2.0))");
+        assertTrue(lease.checkSat().isSatisfiable());
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidatedSessionIsEnded()
+      throws IOException, InterruptedException {
+    try (DRealSolverPool pool = new DRealSolverPool(1, 1, TimeUnit.MINUTES)) {
+      DRealSolver first;
+      try (DRealSolverPool.Lease lease = pool.acquire()) {
+        first = lease.getSolver();
+        lease.invalidate();
+      }
+      assertFalse(first.isOpen());
+      assertEquals(0, pool.getIdleCount());
+      try (DRealSolverPool.Lease lease = pool.acquire()) {
+        assertNotSame(first, lease.getSolver());
+      }
+    }
+  }
+
+  @Test
+  public void testUnexpectedAnswerInvalidatesLease()
+      throws IOException, InterruptedException {
+    try (DRealSolverPool pool = new DRealSolverPool(1, 1, TimeUnit.MINUTES)) {
+      DRealSolver first;
+      try (DRealSolverPool.Lease lease = pool.acquire()) {
+        first = lease.getSolver();
+        lease.getSolver().write("(not-a-command)");
+        try {
+          lease.checkSat();
+          fail("dReal answered a malformed formula");
+        } catch (IOException | RuntimeException e) {
+          // either an error answer, or dReal gave up on the session
+        }
+      }
+      // not handed to the next lease with the error still unread
+      assertFalse(first.isOpen());
+      assertEquals(0, pool.getIdleCount());
+    }
+  }
+
+  @Test
+  public void testIdleSessionsExpire()
+      throws IOException, InterruptedException {
+    try (DRealSolverPool pool = new DRealSolverPool(1, 0,
+        TimeUnit.MILLISECONDS)) {
+      DRealSolver first;
+      try (DRealSolverPool.Lease lease = pool.acquire()) {
+        first = lease.getSolver();
+      }
+      Thread.sleep(5);
+      assertEquals(0, pool.getIdleCount());
+      assertFalse(first.isOpen());
+    }
+  }
+
+  @Test
+  public void testQuietPoolReapsSessions()
+      throws IOException, InterruptedException {
+    try (DRealSolverPool pool = new DRealSolverPool(1, 20,
+        TimeUnit.MILLISECONDS)) {
+      DRealSolver first;
+      try (DRealSolverPool.Lease lease = pool.acquire()) {
+        first = lease.getSolver();
+      }
+      // nothing touches the pool from here on
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (first.isOpen() && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      assertFalse(first.isOpen());
+    }
+  }
+
+}
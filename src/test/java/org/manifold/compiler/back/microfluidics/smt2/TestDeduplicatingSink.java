@@ -0,0 +1,79 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.manifold.compiler.back.microfluidics.CodeGenerationError;
+
+public class TestDeduplicatingSink {
+
+  private static final Symbol X = Symbol.of("x");
+
+  @Test
+  public void testRepeatedDeclarationDropped() {
+    CollectingSink out = new CollectingSink();
+    DeduplicatingSink sink = new DeduplicatingSink(out);
+    sink.withOrigin("A").emit(QFNRA.declareRealVariable(X));
+    sink.withOrigin("B").emit(QFNRA.declareRealVariable(new Symbol("x")));
+    assertEquals(1, out.getExpressions().size());
+    assertEquals(1, sink.getDroppedDeclarations());
+  }
+
+  @Test
+  public void testRepeatedAssertionDropped() {
+    CollectingSink out = new CollectingSink();
+    DeduplicatingSink sink = new DeduplicatingSink(out, true);
+    sink.emit(QFNRA.assertGreater(X, new Numeral(0)));
+    // built separately, but structurally identical
+    sink.emit(new ParenList(new SExpression[] {
+      QFNRA.ASSERT,
+      new ParenList(new SExpression[] {
+        QFNRA.GREATER, new Symbol("x"), new Numeral(0)
+      })
+    }));
+    sink.emit(QFNRA.assertGreater(X, new Numeral(1)));
+    assertEquals(2, out.getExpressions().size());
+    assertEquals(1, sink.getDroppedAssertions());
+  }
+
+  @Test
+  public void testRepeatedAssertionKeptByDefault() {
+    CollectingSink out = new CollectingSink();
+    DeduplicatingSink sink = new DeduplicatingSink(out);
+    sink.emit(QFNRA.assertGreater(X, new Numeral(0)));
+    sink.emit(QFNRA.assertGreater(X, new Numeral(0)));
+    assertEquals(2, out.getExpressions().size());
+    assertEquals(0, sink.getDroppedAssertions());
+  }
+
+  @Test
+  public void testCommandsNotDeduplicated() {
+    CollectingSink out = new CollectingSink();
+    DeduplicatingSink sink = new DeduplicatingSink(out);
+    SExpression checkSat = new ParenList(new SExpression[] {
+      QFNRA.CHECK_SAT
+    });
+    sink.emit(checkSat);
+    sink.emit(checkSat);
+    assertEquals(2, out.getExpressions().size());
+  }
+
+  @Test
+  public void testConflictingDeclarationReportsOrigins() {
+    DeduplicatingSink sink = new DeduplicatingSink(new CollectingSink());
+    sink.withOrigin("StrategyA").emit(QFNRA.declareRealVariable(X));
+    try {
+      sink.withOrigin("StrategyB").emit(new ParenList(new SExpression[] {
+        QFNRA.DECLARE_FUN, X, new ParenList(new SExpression[] {}),
+        Symbol.of("Int")
+      }));
+      fail("conflicting declaration not reported");
+    } catch (CodeGenerationError e) {
+      assertTrue(e.getMessage().contains("StrategyA"));
+      assertTrue(e.getMessage().contains("StrategyB"));
+    }
+  }
+
+}
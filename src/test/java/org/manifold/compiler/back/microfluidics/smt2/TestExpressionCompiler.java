@@ -0,0 +1,77 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestExpressionCompiler {
+
+  private static final Symbol X = Symbol.of("x");
+  private static final Symbol Y = Symbol.of("y");
+
+  @Test
+  public void testArithmetic() {
+    // (x + 2*y) / (x - y) ^ 2
+    CompiledExpression program = ExpressionCompiler.compile(QFNRA.divide(
+        QFNRA.add(X, QFNRA.multiply(new Numeral(2), Y)),
+        QFNRA.pow(QFNRA.subtract(X, Y), new Decimal(2.0))));
+    assertEquals((3.0 + 2 * 1.0) / 4.0,
+        program.evaluate(UtilFormulas.slots(X, 3.0, Y, 1.0)), 1e-12);
+    assertEquals(2, program.getSymbolCount());
+  }
+
+  @Test
+  public void testNaryAndUnaryOperators() {
+    SExpression sum = new ParenList(new SExpression[] {
+      QFNRA.PLUS, X, Y, new Numeral(5)
+    });
+    assertEquals(9.0, ExpressionCompiler.compile(sum)
+        .evaluate(UtilFormulas.slots(X, 1.0, Y, 3.0)), 0.0);
+    SExpression negated = new ParenList(new SExpression[] {
+      QFNRA.MINUS, X
+    });
+    assertEquals(-1.5, ExpressionCompiler.compile(negated)
+        .evaluate(UtilFormulas.slots(X, 1.5, Y, 0.0)), 0.0);
+  }
+
+  @Test
+  public void testArcsinAndIte() {
+    CompiledExpression program = ExpressionCompiler.compile(
+        QFNRA.conditional(QFNRA.lessThan(X, Y), QFNRA.arcsin(X), Y));
+    assertEquals(Math.asin(0.5),
+        program.evaluate(UtilFormulas.slots(X, 0.5, Y, 1.0)), 1e-12);
+    assertEquals(0.25,
+        program.evaluate(UtilFormulas.slots(X, 0.5, Y, 0.25)), 0.0);
+  }
+
+  @Test
+  public void testComparisons() {
+    assertEquals(1.0, ExpressionCompiler.compile(QFNRA.greaterEqual(X, Y))
+        .evaluate(UtilFormulas.slots(X, 2.0, Y, 2.0)), 0.0);
+    assertEquals(0.0, ExpressionCompiler.compile(QFNRA.greater(X, Y))
+        .evaluate(UtilFormulas.slots(X, 2.0, Y, 2.0)), 0.0);
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void testUnknownFunction() {
+    ExpressionCompiler.compile(new ParenList(new SExpression[] {
+      Symbol.of("sqrt"), X
+    }));
+  }
+
+  @Test
+  public void testAssertionCheckerUsesCompiledPrograms() {
+    AssertionChecker check = new AssertionChecker();
+    check.addBinding(X, 4.0);
+    check.addBinding(Y, 2.0);
+    assertTrue(check.verify(QFNRA.assertEqual(QFNRA.divide(X, Y),
+        new Numeral(2))));
+    assertEquals(2.0, check.getLastLHS(), 0.0);
+    assertFalse(check.verify(QFNRA.assertLessThan(X, Y)));
+    // z is not bound
+    assertFalse(check.verify(QFNRA.assertLessThan(X, Symbol.of("z"))));
+  }
+
+}
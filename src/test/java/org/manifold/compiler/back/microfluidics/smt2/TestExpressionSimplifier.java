@@ -0,0 +1,130 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestExpressionSimplifier {
+
+  private static final Symbol X = Symbol.of("x");
+  private static final Symbol H = Symbol.of("h");
+  private static final Symbol W = Symbol.of("w");
+
+  @Test
+  public void testNothingToSimplify() {
+    SExpression expr = QFNRA.assertEqual(X, QFNRA.divide(H, W));
+    assertSame(expr, ExpressionSimplifier.simplify(expr));
+  }
+
+  @Test
+  public void testFoldConstants() {
+    SExpression expr = QFNRA.assertEqual(X,
+        QFNRA.subtract(new Numeral(1), QFNRA.divide(new Decimal(3.0),
+            new Numeral(4))));
+    assertEquals("(assert (= x 0.25))",
+        ExpressionSimplifier.simplify(expr).toString());
+  }
+
+  @Test
+  public void testNumeralsStayExact() {
+    SExpression sum = QFNRA.add(new Numeral(2), new Numeral(3));
+    assertEquals(new Numeral(5), ExpressionSimplifier.simplifyTerm(sum));
+  }
+
+  @Test
+  public void testIdentities() {
+    assertSame(X, ExpressionSimplifier.simplifyTerm(
+        QFNRA.multiply(X, new Numeral(1))));
+    assertSame(X, ExpressionSimplifier.simplifyTerm(
+        QFNRA.add(new Decimal(0.0), X)));
+    assertSame(X, ExpressionSimplifier.simplifyTerm(
+        QFNRA.subtract(X, new Numeral(0))));
+    assertSame(X, ExpressionSimplifier.simplifyTerm(
+        QFNRA.divide(X, new Numeral(1))));
+    assertSame(X, ExpressionSimplifier.simplifyTerm(
+        QFNRA.pow(X, new Numeral(1))));
+  }
+
+  @Test
+  public void testFlattenAndFoldOperands() {
+    SExpression product = QFNRA.multiply(new Numeral(2),
+        QFNRA.multiply(H, QFNRA.multiply(new Numeral(3), W)));
+    assertEquals("(* 6 h w)",
+        ExpressionSimplifier.simplifyTerm(product).toString());
+  }
+
+  @Test
+  public void testSubstitutePi() {
+    SExpression expr = QFNRA.assertEqual(X,
+        QFNRA.multiply(new Decimal(0.5), SymbolNameGenerator
+            .getsym_constant_pi()));
+    assertEquals("(assert (= x " + (0.5 * Math.PI) + "))",
+        ExpressionSimplifier.simplify(expr).toString());
+  }
+
+  @Test
+  public void testPiDefinitionKept() {
+    SExpression expr = QFNRA.assertEqual(
+        SymbolNameGenerator.getsym_constant_pi(), new Decimal(Math.PI));
+    assertSame(expr, ExpressionSimplifier.simplify(expr));
+  }
+
+  @Test
+  public void testUnsafeFoldsLeftAlone() {
+    SExpression byZero = QFNRA.divide(new Numeral(1), new Numeral(0));
+    assertSame(byZero, ExpressionSimplifier.simplifyTerm(byZero));
+    SExpression outOfRange = QFNRA.arcsin(new Numeral(2));
+    assertSame(outOfRange, ExpressionSimplifier.simplifyTerm(outOfRange));
+  }
+
+  @Test
+  public void testTrueAssertionDropped() {
+    CollectingSink out = new CollectingSink();
+    ExpressionSink sink = ExpressionSimplifier.simplifyingSink(out);
+    sink.emit(QFNRA.declareRealVariable(X));
+    sink.emit(QFNRA.assertLessThan(new Numeral(1), new Decimal(2.5)));
+    sink.emit(QFNRA.assertGreater(X, new Numeral(0)));
+    assertEquals(2, out.getExpressions().size());
+    assertTrue(ExpressionSimplifier.isTrivial(ExpressionSimplifier.simplify(
+        QFNRA.assertEqual(new Numeral(4), QFNRA.add(new Numeral(2),
+            new Numeral(2))))));
+  }
+
+  @Test
+  public void testIteConditionDecided() {
+    SExpression ite = QFNRA.conditional(
+        QFNRA.lessThan(new Numeral(1), new Numeral(2)), H, W);
+    assertSame(H, ExpressionSimplifier.simplifyTerm(ite));
+  }
+
+  @Test
+  public void testNearEqualComparisonLeftToSolver() {
+    // 0.1 + 0.2 folds to 0.30000000000000004
+    SExpression sum = QFNRA.add(new Decimal(0.1), new Decimal(0.2));
+    SExpression term = ExpressionSimplifier.simplifyTerm(
+        QFNRA.lessThanEqual(sum, new Decimal(0.3)));
+    assertTrue(term instanceof ParenList);
+    term = ExpressionSimplifier.simplifyTerm(
+        QFNRA.equal(new Decimal(0.5), new Decimal(0.5)));
+    assertTrue(term instanceof ParenList);
+    assertSame(QFNRA.TRUE, ExpressionSimplifier.simplifyTerm(
+        QFNRA.lessThanEqual(new Numeral(3), new Numeral(3))));
+  }
+
+  @Test
+  public void testFoldedDecimalsArePlain() {
+    SExpression small = ExpressionSimplifier.simplifyTerm(
+        QFNRA.multiply(new Decimal(0.01), new Decimal(0.01)));
+    assertEquals("1.0E-4", Double.toString(((Decimal) small).getValue()));
+    assertEquals("0.0001", ((Decimal) small).getRepresentation());
+    SExpression large = ExpressionSimplifier.simplifyTerm(
+        QFNRA.multiply(new Decimal(1e10), new Decimal(1e10)));
+    String repr = ((Decimal) large).getRepresentation();
+    assertEquals("100000000000000000000.0", repr);
+    assertFalse(repr.contains("E"));
+  }
+
+}
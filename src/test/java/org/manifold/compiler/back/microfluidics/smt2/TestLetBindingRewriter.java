@@ -0,0 +1,45 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TestLetBindingRewriter {
+
+  @Test
+  public void testNoSharedSubterms() {
+    SExpression expr = QFNRA.assertEqual(Symbol.of("x"),
+        QFNRA.add(Symbol.of("h"), Symbol.of("w")));
+    assertSame(expr, LetBindingRewriter.rewrite(expr));
+  }
+
+  @Test
+  public void testNonAssertionUnchanged() {
+    SExpression expr = QFNRA.declareRealVariable(Symbol.of("x"));
+    assertSame(expr, LetBindingRewriter.rewrite(expr));
+  }
+
+  @Test
+  public void testSharedSubtermBound() {
+    SExpression hw = QFNRA.divide(Symbol.of("h"), Symbol.of("w"));
+    SExpression expr = QFNRA.assertEqual(Symbol.of("x"),
+        QFNRA.multiply(hw, hw));
+    assertEquals("(assert (let ((?t0 (/ h w))) (= x (* ?t0 ?t0))))",
+        LetBindingRewriter.rewrite(expr).toString());
+  }
+
+  @Test
+  public void testNestedSharedSubterms() {
+    // (- 1 (/ h w)) is shared and contains (/ h w), which is also shared
+    // on its own, so it must be bound by an inner let
+    SExpression hw = QFNRA.divide(Symbol.of("h"), Symbol.of("w"));
+    SExpression oneMinus = QFNRA.subtract(new Numeral(1), hw);
+    SExpression expr = QFNRA.assertEqual(
+        QFNRA.multiply(oneMinus, oneMinus), QFNRA.add(hw, Symbol.of("x")));
+    assertEquals("(assert (let ((?t0 (/ h w)))"
+        + " (let ((?t1 (- 1 ?t0))) (= (* ?t1 ?t1) (+ ?t0 x)))))",
+        LetBindingRewriter.rewrite(expr).toString());
+  }
+
+}
@@ -0,0 +1,116 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestLinearPresolver {
+
+  private static final Symbol X = Symbol.of("x");
+  private static final Symbol Y = Symbol.of("y");
+  private static final Symbol Z = Symbol.of("z");
+
+  @Test
+  public void testLinearForm() {
+    // (- (* 2 x) (/ y 4) 3)
+    LinearExpr expr = LinearExpr.of(QFNRA.subtract(
+        QFNRA.subtract(QFNRA.multiply(new Numeral(2), X),
+            QFNRA.divide(Y, new Numeral(4))),
+        new Numeral(3)));
+    assertEquals(2.0, expr.getCoefficient(X), 0.0);
+    assertEquals(-0.25, expr.getCoefficient(Y), 0.0);
+    assertEquals(-3.0, expr.getConstant(), 0.0);
+    assertNull(LinearExpr.of(QFNRA.multiply(X, Y)));
+    assertNull(LinearExpr.of(QFNRA.divide(new Numeral(1), X)));
+    assertNull(LinearExpr.of(QFNRA.arcsin(X)));
+  }
+
+  @Test
+  public void testAliasEliminated() {
+    List<SExpression> formula = UtilFormulas.declare(X, Y);
+    formula.add(QFNRA.assertEqual(X, Y));
+    formula.add(QFNRA.assertGreater(QFNRA.multiply(X, X), new Numeral(2)));
+    LinearPresolver presolver = new LinearPresolver();
+    List<SExpression> presolved = presolver.presolve(formula);
+    assertEquals(2, presolved.size());
+    Map<Symbol, LinearExpr> eliminated = presolver.getEliminatedVariables();
+    assertEquals(1, eliminated.size());
+    // y occurs in fewer assertions than x, so it is the one solved for
+    assertEquals(LinearExpr.variable(X), eliminated.get(Y));
+    assertEquals("(assert (> (* x x) 2))", presolved.get(1).toString());
+  }
+
+  @Test
+  public void testChainedEliminationResolved() {
+    // x = y + 1, y = 2, z * x > 0
+    List<SExpression> formula = UtilFormulas.declare(X, Y, Z);
+    formula.add(QFNRA.assertEqual(X, QFNRA.add(Y, new Numeral(1))));
+    formula.add(QFNRA.assertEqual(Y, new Decimal(2.0)));
+    formula.add(QFNRA.assertGreater(QFNRA.multiply(Z, X), new Numeral(0)));
+    LinearPresolver presolver = new LinearPresolver();
+    List<SExpression> presolved = presolver.presolve(formula);
+    assertEquals(2, presolved.size());
+    assertEquals(QFNRA.declareRealVariable(Z), presolved.get(0));
+    // constants left behind by substitution are for the simplifier to fold
+    assertEquals("(assert (> (* 3 z) 0))",
+        ExpressionSimplifier.simplify(presolved.get(1)).toString());
+    Map<Symbol, LinearExpr> eliminated = presolver.getEliminatedVariables();
+    assertEquals(LinearExpr.constant(3.0), eliminated.get(X));
+    assertEquals(LinearExpr.constant(2.0), eliminated.get(Y));
+  }
+
+  @Test
+  public void testNonlinearEqualityKept() {
+    List<SExpression> formula = UtilFormulas.declare(X, Y);
+    formula.add(QFNRA.assertEqual(X, QFNRA.multiply(Y, Y)));
+    List<SExpression> presolved = new LinearPresolver().presolve(formula);
+    assertEquals(formula, presolved);
+  }
+
+  @Test
+  public void testUndeclaredSymbolNotEliminated() {
+    List<SExpression> formula = UtilFormulas.declare(X);
+    formula.add(QFNRA.assertEqual(X, Y));
+    LinearPresolver presolver = new LinearPresolver();
+    assertEquals(formula, presolver.presolve(formula));
+    assertTrue(presolver.getEliminatedVariables().isEmpty());
+  }
+
+  @Test
+  public void testSinkPresolvesOnClose() throws Exception {
+    CollectingSink out = new CollectingSink();
+    LinearPresolver presolver = new LinearPresolver();
+    ExpressionSink sink = presolver.presolvingSink(out);
+    sink.emitAll(UtilFormulas.declare(X));
+    sink.emit(QFNRA.assertEqual(X, new Numeral(1)));
+    assertTrue(out.getExpressions().isEmpty());
+    sink.close();
+    assertTrue(out.getExpressions().isEmpty());
+    assertEquals(LinearExpr.constant(1.0),
+        presolver.getEliminatedVariables().get(X));
+  }
+
+  @Test
+  public void testResultReportsEliminatedVariable() {
+    // x = 2y - z + 1
+    LinearExpr definition = LinearExpr.variable(Y).scale(2.0)
+        .plus(LinearExpr.variable(Z).scale(-1.0))
+        .plus(LinearExpr.constant(1.0));
+    Map<Symbol, LinearExpr> eliminated = new HashMap<>();
+    eliminated.put(X, definition);
+    DRealSolver.Result result = new DRealSolver.Result(true, eliminated);
+    result.addResult("y", "1.0", "2.0");
+    result.addResult("z", "0.5", "1.0");
+    DRealSolver.RealRange range = result.getRange(X);
+    assertEquals(2.0, range.lowerBound, 1e-12);
+    assertEquals(4.5, range.upperBound, 1e-12);
+    assertNull(result.getRange(Symbol.of("w")));
+  }
+
+}
@@ -0,0 +1,75 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestMethodHandleCompiler {
+
+  private static final Symbol X = Symbol.of("x");
+  private static final Symbol Y = Symbol.of("y");
+
+  private static void assertSameAsInterpreter(SExpression expr,
+      double[] vars) {
+    assertEquals(ExpressionCompiler.compile(expr).eval(vars),
+        MethodHandleCompiler.compile(expr).eval(vars), 0.0);
+  }
+
+  @Test
+  public void testArithmetic() {
+    SExpression expr = QFNRA.divide(
+        QFNRA.add(X, QFNRA.multiply(new Numeral(2), Y)),
+        QFNRA.pow(QFNRA.subtract(X, Y), new Decimal(2.0)));
+    assertSameAsInterpreter(expr, UtilFormulas.slots(X, 3.0, Y, 1.0));
+    assertSameAsInterpreter(expr, UtilFormulas.slots(X, -1.5, Y, 0.25));
+    SExpression sum = new ParenList(new SExpression[] {
+      QFNRA.PLUS, X, Y, new Numeral(5)
+    });
+    assertEquals(9.0, MethodHandleCompiler.compile(sum)
+        .eval(UtilFormulas.slots(X, 1.0, Y, 3.0)), 0.0);
+  }
+
+  @Test
+  public void testIteEvaluatesTakenBranch() {
+    SExpression expr = QFNRA.conditional(QFNRA.lessThan(X, Y),
+        QFNRA.arcsin(X), QFNRA.divide(Y, X));
+    ExpressionEvaluator eval = MethodHandleCompiler.compile(expr);
+    assertEquals(Math.asin(0.5),
+        eval.eval(UtilFormulas.slots(X, 0.5, Y, 1.0)), 0.0);
+    assertEquals(0.5, eval.eval(UtilFormulas.slots(X, 2.0, Y, 1.0)), 0.0);
+  }
+
+  @Test
+  public void testParenthesizedTerm() {
+    // (x) is the same as x
+    SExpression expr = QFNRA.multiply(new ParenList(new SExpression[] {
+      X
+    }), Y);
+    assertEquals(6.0, MethodHandleCompiler.compile(expr)
+        .eval(UtilFormulas.slots(X, 2.0, Y, 3.0)), 0.0);
+  }
+
+  @Test
+  public void testLargeTermInterpreted() {
+    List<SExpression> terms = new ArrayList<>();
+    terms.add(X);
+    for (int i = 0; i < MethodHandleCompiler.MAX_HANDLE_NODES; ++i) {
+      terms.add(new Numeral(1));
+    }
+    SExpression expr = QFNRA.add(terms);
+    assertEquals(MethodHandleCompiler.MAX_HANDLE_NODES + 1.0,
+        MethodHandleCompiler.compile(expr).eval(
+            UtilFormulas.slots(X, 1.0, Y, 0.0)), 0.0);
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void testUnknownFunction() {
+    MethodHandleCompiler.compile(new ParenList(new SExpression[] {
+      Symbol.of("sqrt"), X
+    }));
+  }
+
+}
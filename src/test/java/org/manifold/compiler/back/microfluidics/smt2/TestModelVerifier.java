@@ -0,0 +1,168 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestModelVerifier {
+
+  private static final Symbol X = Symbol.of("x");
+  private static final Symbol Y = Symbol.of("y");
+
+  @Test
+  public void testReportsEachAssertion() {
+    Map<Symbol, Double> model = new HashMap<>();
+    model.put(X, 1.0);
+    model.put(Y, 3.0);
+    List<SExpression> assertions = new ArrayList<>();
+    assertions.add(QFNRA.assertLessThan(X, Y));
+    assertions.add(QFNRA.assertGreater(X, Y));
+    assertions.add(QFNRA.assertEqual(QFNRA.add(X, new Numeral(2)), Y));
+    assertions.add(QFNRA.assertLessThan(X, Symbol.of("z")));
+    VerificationReport report = new ModelVerifier().verify(assertions,
+        model);
+    assertFalse(report.isSatisfied());
+    List<VerificationReport.Entry> entries = report.getEntries();
+    assertTrue(entries.get(0).isSatisfied());
+    assertEquals(1.0, entries.get(0).getLHS(), 0.0);
+    assertEquals(3.0, entries.get(0).getRHS(), 0.0);
+    assertEquals(2.0, entries.get(0).getSlack(), 0.0);
+    assertFalse(entries.get(1).isSatisfied());
+    assertEquals(-2.0, entries.get(1).getSlack(), 0.0);
+    assertTrue(entries.get(2).isSatisfied());
+    // the default delta
+    assertEquals(0.000001, entries.get(2).getSlack(), 0.0);
+    // z has no value
+    assertFalse(entries.get(3).isSatisfied());
+    assertTrue(Double.isNaN(entries.get(3).getSlack()));
+    assertEquals(2, report.getViolations().size());
+  }
+
+  @Test
+  public void testNearlyEqualSidesHavePositiveSlack() {
+    double delta = 0.001;
+    Map<Symbol, Double> model = new HashMap<>();
+    model.put(X, 1.0);
+    model.put(Y, 1.0 + delta / 2);
+    List<SExpression> assertions = new ArrayList<>();
+    assertions.add(QFNRA.assertEqual(X, Y));
+    ModelVerifier verifier = new ModelVerifier();
+    verifier.setDelta(delta);
+    VerificationReport.Entry entry = verifier.verify(assertions, model)
+        .getEntries().get(0);
+    assertTrue(entry.isSatisfied());
+    assertEquals(delta / 2, entry.getSlack(), 1e-12);
+  }
+
+  @Test
+  public void testSlackSignMatchesSatisfied() {
+    Map<Symbol, Double> model = new HashMap<>();
+    model.put(X, 1.0);
+    model.put(Y, 1.0);
+    List<SExpression> assertions = new ArrayList<>();
+    assertions.add(QFNRA.assertLessThan(X, Y));
+    assertions.add(QFNRA.assertGreater(X, Y));
+    assertions.add(QFNRA.assertLessThanEqual(X, Y));
+    assertions.add(QFNRA.assertGreaterEqual(X, Y));
+    assertions.add(QFNRA.assertEqual(X, Y));
+    // differs by exactly delta
+    assertions.add(QFNRA.assertEqual(QFNRA.add(X, new Numeral(1)), Y));
+    ModelVerifier verifier = new ModelVerifier();
+    verifier.setDelta(1.0);
+    List<VerificationReport.Entry> entries = verifier
+        .verify(assertions, model).getEntries();
+    assertFalse(entries.get(0).isSatisfied());
+    assertFalse(entries.get(1).isSatisfied());
+    assertTrue(entries.get(2).isSatisfied());
+    assertTrue(entries.get(3).isSatisfied());
+    assertTrue(entries.get(4).isSatisfied());
+    assertFalse(entries.get(5).isSatisfied());
+    for (VerificationReport.Entry entry : entries) {
+      assertEquals(entry.toString(), entry.isSatisfied(),
+          entry.getSlack() >= 0);
+    }
+  }
+
+  @Test
+  public void testManyAssertionsKeepTheirOrder() {
+    int count = 10 * ModelVerifier.SEQUENTIAL_THRESHOLD + 3;
+    Map<Symbol, Double> model = new HashMap<>();
+    model.put(X, 0.5);
+    List<SExpression> assertions = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      assertions.add(QFNRA.assertLessThan(X, new Numeral(i)));
+    }
+    List<VerificationReport.Entry> entries = new ModelVerifier()
+        .verify(assertions, model).getEntries();
+    assertEquals(count, entries.size());
+    for (int i = 0; i < count; ++i) {
+      assertEquals(assertions.get(i), entries.get(i).getAssertion());
+      assertEquals(i - 0.5, entries.get(i).getSlack(), 0.0);
+      assertEquals(i > 0, entries.get(i).isSatisfied());
+    }
+  }
+
+  @Test
+  public void testDRealResultUsesMidpoints() {
+    DRealSolver.Result result = new DRealSolver.Result(true);
+    result.addResult("x", "0.9", "1.1");
+    result.addResult("y", "2.0", "2.0");
+    List<SExpression> assertions = new ArrayList<>();
+    assertions.add(QFNRA.assertEqual(QFNRA.multiply(new Numeral(2), X), Y));
+    VerificationReport report = new ModelVerifier().verify(assertions,
+        result);
+    assertTrue(report.isSatisfied());
+    assertEquals(2.0, report.getEntries().get(0).getLHS(), 1e-12);
+  }
+
+  @Test
+  public void testUnboundedRanges() {
+    DRealSolver.Result result = new DRealSolver.Result(true);
+    result.addResult("x", "1.0", "Infinity");
+    result.addResult("y", "-Infinity", "Infinity");
+    List<SExpression> assertions = new ArrayList<>();
+    assertions.add(QFNRA.assertGreaterEqual(X, new Numeral(1)));
+    assertions.add(QFNRA.assertLessThan(Y, new Numeral(1)));
+    VerificationReport report = new ModelVerifier().verify(assertions,
+        result);
+    // x takes its finite end, y has no value at all
+    assertTrue(report.getEntries().get(0).isSatisfied());
+    assertEquals(1.0, report.getEntries().get(0).getLHS(), 0.0);
+    assertFalse(report.getEntries().get(1).isSatisfied());
+    assertTrue(Double.isNaN(report.getEntries().get(1).getLHS()));
+    assertEquals(-2.0, ModelVerifier.pickValue(Double.NEGATIVE_INFINITY,
+        -2.0), 0.0);
+    assertEquals(Double.MAX_VALUE, ModelVerifier.pickValue(
+        Double.MAX_VALUE, Double.MAX_VALUE), 0.0);
+  }
+
+  @Test
+  public void testVerifyAgainstSeveralModels() {
+    ModelVerifier verifier = new ModelVerifier();
+    List<SExpression> assertions = new ArrayList<>();
+    assertions.add(QFNRA.assertLessThan(X, Y));
+    assertions.add(QFNRA.assertLessThan(X, Symbol.of("sqrt_of_x")));
+    assertions.add(QFNRA.assertThat(new ParenList(new SExpression[] {
+      QFNRA.LESS_THAN, new ParenList(new SExpression[] {
+        Symbol.of("sqrt"), X
+      }), Y
+    })));
+    for (int i = 0; i < 3; ++i) {
+      Map<Symbol, Double> model = new HashMap<>();
+      model.put(X, (double) i);
+      model.put(Y, 1.0);
+      VerificationReport report = verifier.verify(assertions, model);
+      assertEquals(i < 1, report.getEntries().get(0).isSatisfied());
+      assertFalse(report.getEntries().get(1).isSatisfied());
+      assertFalse(report.getEntries().get(2).isSatisfied());
+    }
+  }
+
+}
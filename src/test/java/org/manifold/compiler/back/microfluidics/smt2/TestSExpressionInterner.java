@@ -0,0 +1,39 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TestSExpressionInterner {
+
+  @Test
+  public void testEqualSubtermsShared() {
+    Symbol pi = Symbol.of("PI");
+    SExpression a = QFNRA.subtract(new Numeral(1),
+        QFNRA.divide(pi, new Numeral(4)));
+    SExpression b = QFNRA.subtract(new Numeral(1),
+        QFNRA.divide(new Symbol("PI"), new Numeral(4)));
+    assertSame(a, b);
+    assertSame(((ParenList) a).getExprs().get(2),
+        QFNRA.divide(pi, new Numeral(4)));
+  }
+
+  @Test
+  public void testStructuralEquality() {
+    SExpression interned = QFNRA.multiply(new Decimal(0.63),
+        Symbol.of("h"));
+    SExpression handBuilt = new ParenList(new SExpression[] {
+      new Symbol("*"), new Decimal("0.63"), new Symbol("h")
+    });
+    assertEquals(handBuilt, interned);
+    assertEquals(handBuilt.hashCode(), interned.hashCode());
+    assertSame(interned, SExpressionInterner.intern(handBuilt));
+    assertFalse(interned.equals(QFNRA.multiply(Symbol.of("h"),
+        new Decimal(0.63))));
+    assertFalse(interned.equals(QFNRA.multiply(new Decimal(0.64),
+        Symbol.of("h"))));
+  }
+
+}
@@ -0,0 +1,37 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+public class TestSmt2Encoder {
+
+  @Test
+  public void testCompactOutput() {
+    SExpression expr = QFNRA.assertEqual(Symbol.of("x"),
+        QFNRA.add(new Numeral(-42), new Decimal(0.5)));
+    assertEquals("(assert (= x (+ -42 0.5)))", expr.toString());
+    assertEquals("(declare-fun x () Real)",
+        QFNRA.declareRealVariable(Symbol.of("x")).toString());
+  }
+
+  @Test
+  public void testSmallBuffer() throws IOException {
+    // a buffer smaller than some symbol names forces every flush path
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Symbol longName = Symbol.of("a_rather_long_channel_name_flowrate");
+    SExpression expr = QFNRA.assertGreater(longName, new Numeral(1234567));
+    try (Smt2Encoder encoder = new Smt2Encoder(
+        Channels.newChannel(bytes), 4)) {
+      encoder.encodeLine(expr);
+      encoder.encodeLine(expr);
+    }
+    String line = "(assert (> a_rather_long_channel_name_flowrate 1234567))\n";
+    assertEquals(line + line, bytes.toString("US-ASCII"));
+  }
+
+}
@@ -0,0 +1,63 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+public class TestSmt2OutputSink {
+
+  private static final String NL = "\n";
+
+  private static void emitInterleaved(ExpressionSink sink) {
+    sink.emit(QFNRA.useQFNRA());
+    for (int i = 0; i < 3; ++i) {
+      Symbol x = Symbol.of("x" + i);
+      sink.emit(QFNRA.declareRealVariable(x));
+      sink.emit(QFNRA.assertGreater(x, new Numeral(i)));
+    }
+    sink.emit(new ParenList(new SExpression[] {QFNRA.CHECK_SAT}));
+    sink.emit(new ParenList(new SExpression[] {QFNRA.EXIT}));
+  }
+
+  private static String expected() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("(set-logic QF_NRA)").append(NL);
+    for (int i = 0; i < 3; ++i) {
+      sb.append("(declare-fun x" + i + " () Real)").append(NL);
+    }
+    for (int i = 0; i < 3; ++i) {
+      sb.append("(assert (> x" + i + " " + i + "))").append(NL);
+    }
+    sb.append("(check-sat)").append(NL);
+    sb.append("(exit)").append(NL);
+    return sb.toString();
+  }
+
+  @Test
+  public void testDeclarationsBeforeAssertionsBeforeCommands()
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Smt2OutputSink sink = new Smt2OutputSink(Channels.newChannel(out));
+    emitInterleaved(sink);
+    sink.close();
+    assertFalse(sink.hasSpilled());
+    assertEquals(expected(), out.toString("US-ASCII"));
+  }
+
+  @Test
+  public void testSpilledAssertionsKeepOrder() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Smt2OutputSink sink = new Smt2OutputSink(Channels.newChannel(out), 1);
+    emitInterleaved(sink);
+    assertTrue(sink.hasSpilled());
+    sink.close();
+    assertEquals(expected(), out.toString("US-ASCII"));
+  }
+
+}
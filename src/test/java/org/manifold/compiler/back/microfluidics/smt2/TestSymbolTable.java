@@ -0,0 +1,59 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestSymbolTable {
+
+  @Test
+  public void testInternReturnsCanonicalSymbol() {
+    Symbol a = SymbolTable.intern("testInternReturnsCanonicalSymbol_x");
+    assertSame(a, Symbol.of("testInternReturnsCanonicalSymbol_x"));
+    Symbol b = new Symbol("testInternReturnsCanonicalSymbol_x");
+    assertNotSame(a, b);
+    assertEquals(a, b);
+    assertEquals(a.getId(), b.getId());
+    assertEquals(a.hashCode(), b.hashCode());
+    assertFalse(a.equals(Symbol.of("testInternReturnsCanonicalSymbol_y")));
+  }
+
+  @Test
+  public void testOperatorConstants() {
+    assertSame(QFNRA.PLUS, Symbol.of("+"));
+    assertEquals(QFNRA.ASSERT, new Symbol("assert"));
+  }
+
+  @Test
+  public void testInvalidNamesRejected() {
+    String[] invalid = new String[] {"", "1x", "x y", "x(", "x#"};
+    for (String name : invalid) {
+      try {
+        Symbol.of(name);
+        fail("symbol name '" + name + "' should have been rejected");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testGetAndLookup() {
+    Symbol sym = SymbolTable.intern("testGetAndLookup_x");
+    assertSame(sym, SymbolTable.get(sym.getId()));
+    assertNull(SymbolTable.get(-1));
+    assertNull(SymbolTable.get(Integer.MAX_VALUE));
+    byte[] line = "  testGetAndLookup_x : [ ENTIRE ]"
+        .getBytes(StandardCharsets.UTF_8);
+    assertSame(sym, SymbolTable.lookup(line, 2, 18));
+    assertNull(SymbolTable.lookup(line, 2, 17));
+  }
+
+}
@@ -0,0 +1,30 @@
+package org.manifold.compiler.back.microfluidics.smt2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Utility class for quickly setting up formulas in test cases.
+public class UtilFormulas {
+
+  private UtilFormulas() { }
+
+  // a new, modifiable formula declaring each of vars as a real variable
+  public static List<SExpression> declare(Symbol... vars) {
+    List<SExpression> exprs = new ArrayList<>();
+    for (Symbol var : vars) {
+      exprs.add(QFNRA.declareRealVariable(var));
+    }
+    return exprs;
+  }
+
+  // values of two variables for evaluating a compiled term, indexed by
+  // symbol id; every other symbol is 0
+  public static double[] slots(Symbol x, double xValue, Symbol y,
+      double yValue) {
+    double[] slots = new double[SymbolTable.size()];
+    slots[x.getId()] = xValue;
+    slots[y.getId()] = yValue;
+    return slots;
+  }
+
+}
@@ -1,5 +1,6 @@
 package org.manifold.compiler.back.microfluidics.strategies.placement;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.util.List;
@@ -54,4 +55,32 @@ public class TestCosineLawCriticalAngleStrategy {
     // TODO verify expression
   }
   
+  @Test
+  public void testStar() throws SchematicException {
+    // create this schematic, where every pair of channels meets at n0:
+    //        (n2)
+    //         |
+    // (n1) -- (n0) -- (n3)
+    Schematic sch = UtilSchematicConstruction.instantiateSchematic("test");
+    NodeValue n0 = UtilSchematicConstruction.instantiatePressureControlPoint(
+        sch, 3);
+    sch.addNode("n0", n0);
+    for (int i = 0; i < 3; ++i) {
+      NodeValue leaf = UtilSchematicConstruction
+          .instantiatePressureControlPoint(sch, 1);
+      sch.addNode("n" + (i + 1), leaf);
+      ConnectionValue ch = UtilSchematicConstruction.instantiateChannel(
+          n0.getPort("channel" + i), leaf.getPort("channel0"));
+      sch.addConnection("ch" + i, ch);
+    }
+    
+    PrimitiveTypeTable typeTable = MicrofluidicsBackend.constructTypeTable(sch);
+    ProcessParameters params = ProcessParameters.loadTestData();
+    
+    CriticalAngleStrategy strat = new CosineLawCriticalAngleStrategy();
+    List<SExpression> exprs = strat.translationStep(sch, params, typeTable);
+    // one angle for each of the three pairs of channels
+    assertEquals(3, exprs.size());
+  }
+  
 }